@@ -0,0 +1,93 @@
+/*
+ * Copyright (c) 2024 Pedro Souza
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package com.github.eupedroosouza.messaging.codec;
+
+import com.github.eupedroosouza.messaging.codec.json.JsonTreeMessageReader;
+import com.github.eupedroosouza.messaging.codec.json.JsonTreeMessageWriter;
+import com.github.eupedroosouza.messaging.exception.ChannelException;
+import com.github.eupedroosouza.messaging.message.MessageObject;
+import com.google.gson.JsonObject;
+
+import java.io.IOException;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+import java.util.concurrent.ConcurrentHashMap;
+
+public class MessageCodecs {
+
+    private static final ConcurrentHashMap<Integer, MessageCodec<?>> CODECS_BY_TYPE_ID = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<Class<?>, MessageCodec<?>> CODECS_BY_TYPE = new ConcurrentHashMap<>();
+
+    static {
+        try {
+            for (MessageCodec<?> codec : ServiceLoader.load(MessageCodec.class))
+                register(codec);
+        } catch (ServiceConfigurationError ex) {
+            throw new ChannelException("Could not load the generated message codecs", ex);
+        }
+    }
+
+    public static void register(MessageCodec<?> codec) {
+        MessageCodec<?> registered = CODECS_BY_TYPE_ID.putIfAbsent(codec.getTypeId(), codec);
+        if (registered != null && registered.getType() != codec.getType())
+            throw new ChannelException("The type id " + codec.getTypeId() + " is already registered for " + registered.getType().getName());
+        CODECS_BY_TYPE.put(codec.getType(), codec);
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <T extends MessageObject> MessageCodec<T> forType(Class<T> type) {
+        return (MessageCodec<T>) CODECS_BY_TYPE.get(type);
+    }
+
+    public static MessageCodec<?> forTypeId(int typeId) {
+        return CODECS_BY_TYPE_ID.get(typeId);
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <T extends MessageObject> void encode(MessageCodec<T> codec, MessageObject messageObject, MessageWriter writer) throws ChannelException {
+        try {
+            codec.encode((T) messageObject, writer);
+        } catch (IOException ex) {
+            throw new ChannelException("Error on encode message of class " + messageObject.getClass().getName(), ex);
+        }
+    }
+
+    public static <T extends MessageObject> JsonObject toJson(MessageCodec<T> codec, MessageObject messageObject) throws ChannelException {
+        JsonTreeMessageWriter writer = new JsonTreeMessageWriter();
+        encode(codec, messageObject, writer);
+        return writer.get().getAsJsonObject();
+    }
+
+    public static <T extends MessageObject> T fromJson(MessageCodec<T> codec, JsonObject object) throws ChannelException {
+        return decode(codec, new JsonTreeMessageReader(object));
+    }
+
+    public static <T extends MessageObject> T decode(MessageCodec<T> codec, MessageReader reader) throws ChannelException {
+        try {
+            return codec.decode(reader);
+        } catch (IOException | RuntimeException ex) {
+            throw new ChannelException("Error on decode message of class " + codec.getType().getName(), ex);
+        }
+    }
+
+}
@@ -20,15 +20,11 @@
  *  THE SOFTWARE.
  */
 
-package com.github.eupedroosouza.messaging.util;
+package com.github.eupedroosouza.messaging.codec;
 
-import com.google.gson.Gson;
-import com.google.gson.GsonBuilder;
+public enum MessageFormat {
 
-public class GsonUtil {
-
-    public static final Gson GSON = new GsonBuilder()
-            .disableHtmlEscaping()
-            .create();
+    JSON,
+    BINARY
 
 }
@@ -0,0 +1,42 @@
+/*
+ * Copyright (c) 2024 Pedro Souza
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package com.github.eupedroosouza.messaging.codec;
+
+import java.io.IOException;
+
+public interface MessageWriter {
+
+    void beginObject(int size) throws IOException;
+    void endObject() throws IOException;
+    void beginArray(int size) throws IOException;
+    void endArray() throws IOException;
+    void name(String name) throws IOException;
+
+    void nullValue() throws IOException;
+    void value(boolean value) throws IOException;
+    void value(long value) throws IOException;
+    void value(double value) throws IOException;
+    void value(String value) throws IOException;
+    void value(byte[] value) throws IOException;
+
+}
@@ -0,0 +1,299 @@
+/*
+ * Copyright (c) 2024 Pedro Souza
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package com.github.eupedroosouza.messaging.codec.binary;
+
+import com.github.eupedroosouza.messaging.codec.MessageReader;
+import com.github.eupedroosouza.messaging.exception.ChannelException;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+
+import static com.github.eupedroosouza.messaging.codec.binary.BinaryMessageFormat.*;
+
+public class BinaryMessageReader implements MessageReader {
+
+    private final byte[] data;
+    private final int limit;
+    private int position;
+
+    private int[] remaining = new int[8];
+    private boolean[] array = new boolean[8];
+    private int depth = -1;
+
+    public BinaryMessageReader(byte[] data) {
+        this(data, 0, data.length);
+    }
+
+    public BinaryMessageReader(byte[] data, int offset, int length) {
+        this.data = data;
+        this.position = offset;
+        this.limit = offset + length;
+    }
+
+    @Override
+    public void beginObject() {
+        push(OBJECT);
+    }
+
+    @Override
+    public void endObject() {
+        pop();
+    }
+
+    @Override
+    public void beginArray() {
+        push(ARRAY);
+    }
+
+    @Override
+    public void endArray() {
+        pop();
+    }
+
+    @Override
+    public boolean hasNext() {
+        return remaining[depth] > 0;
+    }
+
+    @Override
+    public String nextName() {
+        remaining[depth]--;
+        return readRawString();
+    }
+
+    @Override
+    public boolean nextNull() {
+        if (peekTag() != NULL)
+            return false;
+        readTag();
+        return true;
+    }
+
+    @Override
+    public boolean nextBoolean() {
+        byte tag = readTag();
+        if (tag == TRUE)
+            return true;
+        if (tag == FALSE)
+            return false;
+        throw unexpected("boolean", tag);
+    }
+
+    @Override
+    public long nextLong() {
+        byte tag = readTag();
+        if (tag == INT)
+            return readZigZag();
+        if (tag == DOUBLE)
+            return (long) Double.longBitsToDouble(readRawLong());
+        throw unexpected("number", tag);
+    }
+
+    @Override
+    public double nextDouble() {
+        byte tag = readTag();
+        if (tag == DOUBLE)
+            return Double.longBitsToDouble(readRawLong());
+        if (tag == INT)
+            return readZigZag();
+        throw unexpected("number", tag);
+    }
+
+    @Override
+    public String nextString() {
+        byte tag = readTag();
+        if (tag != STRING)
+            throw unexpected("string", tag);
+        return readRawString();
+    }
+
+    @Override
+    public byte[] nextBytes() {
+        byte tag = readTag();
+        if (tag != BYTES)
+            throw unexpected("bytes", tag);
+        int length = readLength();
+        byte[] bytes = Arrays.copyOfRange(data, position, position + length);
+        position += length;
+        return bytes;
+    }
+
+    @Override
+    public void skipValue() {
+        skip(readTag());
+    }
+
+    public JsonElement nextTree() {
+        switch (peekTag()) {
+            case NULL:
+                readTag();
+                return JsonNull.INSTANCE;
+            case FALSE:
+            case TRUE:
+                return new JsonPrimitive(nextBoolean());
+            case INT:
+                return new JsonPrimitive(nextLong());
+            case DOUBLE:
+                return new JsonPrimitive(nextDouble());
+            case STRING:
+                return new JsonPrimitive(nextString());
+            case BYTES:
+                return new JsonPrimitive(Base64.getEncoder().encodeToString(nextBytes()));
+            case OBJECT: {
+                JsonObject object = new JsonObject();
+                beginObject();
+                while (hasNext()) {
+                    String name = nextName();
+                    object.add(name, nextTree());
+                }
+                endObject();
+                return object;
+            }
+            case ARRAY: {
+                JsonArray array = new JsonArray();
+                beginArray();
+                while (hasNext())
+                    array.add(nextTree());
+                endArray();
+                return array;
+            }
+            default:
+                throw unexpected("value", peekTag());
+        }
+    }
+
+    public int getPosition() {
+        return position;
+    }
+
+    private void skip(byte tag) {
+        switch (tag) {
+            case NULL:
+            case FALSE:
+            case TRUE:
+                return;
+            case INT:
+                readVarLong();
+                return;
+            case DOUBLE:
+                position += 8;
+                return;
+            case STRING:
+            case BYTES:
+                position += readLength();
+                return;
+            case OBJECT:
+                for (long i = readVarLong(); i > 0; i--) {
+                    position += readLength();
+                    skip(data[position++]);
+                }
+                return;
+            case ARRAY:
+                for (long i = readVarLong(); i > 0; i--)
+                    skip(data[position++]);
+                return;
+            default:
+                throw unexpected("value", tag);
+        }
+    }
+
+    private void push(byte expected) {
+        byte tag = readTag();
+        if (tag != expected)
+            throw unexpected(expected == OBJECT ? "object" : "array", tag);
+        if (++depth == remaining.length) {
+            remaining = Arrays.copyOf(remaining, depth << 1);
+            array = Arrays.copyOf(array, depth << 1);
+        }
+        remaining[depth] = readLength();
+        array[depth] = expected == ARRAY;
+    }
+
+    private void pop() {
+        if (remaining[depth] != 0)
+            throw new ChannelException("Binary message container closed with " + remaining[depth] + " pending values");
+        depth--;
+    }
+
+    private byte peekTag() {
+        if (position >= limit)
+            throw new ChannelException("Binary message ended unexpectedly");
+        return data[position];
+    }
+
+    private byte readTag() {
+        byte tag = peekTag();
+        position++;
+        if (depth >= 0 && array[depth])
+            remaining[depth]--;
+        return tag;
+    }
+
+    private String readRawString() {
+        int length = readLength();
+        String value = new String(data, position, length, StandardCharsets.UTF_8);
+        position += length;
+        return value;
+    }
+
+    private int readLength() {
+        long length = readVarLong();
+        if (length < 0 || length > limit - position)
+            throw new ChannelException("Binary message length " + length + " is out of bounds");
+        return (int) length;
+    }
+
+    private long readZigZag() {
+        long value = readVarLong();
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private long readVarLong() {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = data[position++];
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0)
+                return value;
+        }
+        throw new ChannelException("Malformed binary message varint");
+    }
+
+    private long readRawLong() {
+        long value = 0;
+        for (int i = 0; i < 8; i++)
+            value = (value << 8) | (data[position++] & 0xFF);
+        return value;
+    }
+
+    private static ChannelException unexpected(String expected, byte tag) {
+        return new ChannelException("Expected " + expected + " in binary message but found tag " + tag);
+    }
+
+}
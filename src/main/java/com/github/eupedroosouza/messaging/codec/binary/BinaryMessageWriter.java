@@ -0,0 +1,164 @@
+/*
+ * Copyright (c) 2024 Pedro Souza
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package com.github.eupedroosouza.messaging.codec.binary;
+
+import com.github.eupedroosouza.messaging.codec.MessageWriter;
+import com.github.eupedroosouza.messaging.util.ByteArrayBuffer;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+
+import java.math.BigDecimal;
+import java.util.Map;
+
+import static com.github.eupedroosouza.messaging.codec.binary.BinaryMessageFormat.*;
+
+public class BinaryMessageWriter implements MessageWriter {
+
+    private final ByteArrayBuffer buffer;
+
+    public BinaryMessageWriter(ByteArrayBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    @Override
+    public void beginObject(int size) {
+        buffer.write(OBJECT);
+        writeVarLong(size);
+    }
+
+    @Override
+    public void endObject() {
+    }
+
+    @Override
+    public void beginArray(int size) {
+        buffer.write(ARRAY);
+        writeVarLong(size);
+    }
+
+    @Override
+    public void endArray() {
+    }
+
+    @Override
+    public void name(String name) {
+        writeRawString(name);
+    }
+
+    @Override
+    public void nullValue() {
+        buffer.write(NULL);
+    }
+
+    @Override
+    public void value(boolean value) {
+        buffer.write(value ? TRUE : FALSE);
+    }
+
+    @Override
+    public void value(long value) {
+        buffer.write(INT);
+        writeVarLong((value << 1) ^ (value >> 63));
+    }
+
+    @Override
+    public void value(double value) {
+        buffer.write(DOUBLE);
+        buffer.writeLong(Double.doubleToRawLongBits(value));
+    }
+
+    @Override
+    public void value(String value) {
+        buffer.write(STRING);
+        writeRawString(value);
+    }
+
+    @Override
+    public void value(byte[] value) {
+        buffer.write(BYTES);
+        writeVarLong(value.length);
+        buffer.write(value);
+    }
+
+    public void value(JsonElement element) {
+        if (element == null || element.isJsonNull()) {
+            nullValue();
+        } else if (element.isJsonObject()) {
+            JsonObject object = element.getAsJsonObject();
+            beginObject(object.size());
+            for (Map.Entry<String, JsonElement> entry : object.entrySet()) {
+                name(entry.getKey());
+                value(entry.getValue());
+            }
+            endObject();
+        } else if (element.isJsonArray()) {
+            JsonArray array = element.getAsJsonArray();
+            beginArray(array.size());
+            for (JsonElement item : array)
+                value(item);
+            endArray();
+        } else {
+            JsonPrimitive primitive = element.getAsJsonPrimitive();
+            if (primitive.isBoolean())
+                value(primitive.getAsBoolean());
+            else if (primitive.isString())
+                value(primitive.getAsString());
+            else value(primitive.getAsNumber());
+        }
+    }
+
+    public ByteArrayBuffer getBuffer() {
+        return buffer;
+    }
+
+    private void value(Number number) {
+        if (number instanceof Integer || number instanceof Long || number instanceof Short || number instanceof Byte) {
+            value(number.longValue());
+        } else if (number instanceof Double || number instanceof Float) {
+            value(number.doubleValue());
+        } else {
+            // Gson parses numbers lazily, integral ones are kept exact when they fit a long
+            try {
+                value(new BigDecimal(number.toString()).longValueExact());
+            } catch (ArithmeticException | NumberFormatException ex) {
+                value(number.doubleValue());
+            }
+        }
+    }
+
+    private void writeRawString(String value) {
+        writeVarLong(ByteArrayBuffer.utf8Length(value));
+        buffer.writeUtf8(value);
+    }
+
+    private void writeVarLong(long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.write((int) value);
+    }
+
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright (c) 2024 Pedro Souza
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package com.github.eupedroosouza.messaging.codec.json;
+
+import com.github.eupedroosouza.messaging.codec.MessageReader;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Base64;
+
+// Pulls values straight from the UTF-8 bytes of a JSON body, no tree is built in between
+public class JsonMessageReader implements MessageReader {
+
+    private final JsonReader reader;
+
+    public JsonMessageReader(byte[] data, int offset, int length) {
+        this.reader = new JsonReader(new Utf8Reader(data, offset, offset + length));
+    }
+
+    @Override
+    public void beginObject() throws IOException {
+        reader.beginObject();
+    }
+
+    @Override
+    public void endObject() throws IOException {
+        reader.endObject();
+    }
+
+    @Override
+    public void beginArray() throws IOException {
+        reader.beginArray();
+    }
+
+    @Override
+    public void endArray() throws IOException {
+        reader.endArray();
+    }
+
+    @Override
+    public boolean hasNext() throws IOException {
+        return reader.hasNext();
+    }
+
+    @Override
+    public String nextName() throws IOException {
+        return reader.nextName();
+    }
+
+    @Override
+    public boolean nextNull() throws IOException {
+        if (reader.peek() != JsonToken.NULL)
+            return false;
+        reader.nextNull();
+        return true;
+    }
+
+    @Override
+    public boolean nextBoolean() throws IOException {
+        return reader.nextBoolean();
+    }
+
+    @Override
+    public long nextLong() throws IOException {
+        return reader.nextLong();
+    }
+
+    @Override
+    public double nextDouble() throws IOException {
+        return reader.nextDouble();
+    }
+
+    @Override
+    public String nextString() throws IOException {
+        return reader.nextString();
+    }
+
+    @Override
+    public byte[] nextBytes() throws IOException {
+        return Base64.getDecoder().decode(reader.nextString());
+    }
+
+    @Override
+    public void skipValue() throws IOException {
+        reader.skipValue();
+    }
+
+    // Decodes UTF-8 in place, InputStreamReader would copy the bytes through its own buffers first
+    private static final class Utf8Reader extends Reader {
+
+        private final byte[] data;
+        private final int end;
+        private int position;
+        private char pending;
+
+        private Utf8Reader(byte[] data, int position, int end) {
+            this.data = data;
+            this.position = position;
+            this.end = end;
+        }
+
+        @Override
+        public int read(char[] chars, int offset, int length) throws IOException {
+            if (length == 0)
+                return 0;
+            int count = 0;
+            if (pending != 0) {
+                chars[offset + count++] = pending;
+                pending = 0;
+            }
+            while (count < length && position < end) {
+                int b = data[position];
+                if (b >= 0) {
+                    chars[offset + count++] = (char) b;
+                    position++;
+                    continue;
+                }
+                int codePoint;
+                int size;
+                if ((b & 0xE0) == 0xC0) {
+                    codePoint = b & 0x1F;
+                    size = 2;
+                } else if ((b & 0xF0) == 0xE0) {
+                    codePoint = b & 0x0F;
+                    size = 3;
+                } else if ((b & 0xF8) == 0xF0) {
+                    codePoint = b & 0x07;
+                    size = 4;
+                } else throw new IOException("Malformed UTF-8 at byte " + position);
+                if (position + size > end)
+                    throw new IOException("Truncated UTF-8 at byte " + position);
+                for (int i = 1; i < size; i++) {
+                    int next = data[position + i];
+                    if ((next & 0xC0) != 0x80)
+                        throw new IOException("Malformed UTF-8 at byte " + (position + i));
+                    codePoint = codePoint << 6 | (next & 0x3F);
+                }
+                position += size;
+                if (codePoint < Character.MIN_SUPPLEMENTARY_CODE_POINT) {
+                    chars[offset + count++] = (char) codePoint;
+                    continue;
+                }
+                chars[offset + count++] = Character.highSurrogate(codePoint);
+                if (count < length)
+                    chars[offset + count++] = Character.lowSurrogate(codePoint);
+                else pending = Character.lowSurrogate(codePoint);
+            }
+            return count == 0 ? -1 : count;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+}
@@ -0,0 +1,288 @@
+/*
+ * Copyright (c) 2024 Pedro Souza
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package com.github.eupedroosouza.messaging.codec.json;
+
+import com.github.eupedroosouza.messaging.codec.MessageWriter;
+import com.github.eupedroosouza.messaging.util.ByteArrayBuffer;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonPrimitive;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.UUID;
+
+public class JsonMessageWriter implements MessageWriter {
+
+    private static final byte[] HEX = "0123456789abcdef".getBytes();
+    private static final byte[] BASE64 = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".getBytes();
+
+    private final ByteArrayBuffer buffer;
+    private final byte[] digits = new byte[20];
+    private boolean[] empty = new boolean[16];
+    private int depth;
+    private boolean afterName;
+
+    public JsonMessageWriter(ByteArrayBuffer buffer) {
+        this.buffer = buffer;
+        resume();
+    }
+
+    @Override
+    public void beginObject(int size) {
+        open('{');
+    }
+
+    @Override
+    public void endObject() {
+        close('}');
+    }
+
+    @Override
+    public void beginArray(int size) {
+        open('[');
+    }
+
+    @Override
+    public void endArray() {
+        close(']');
+    }
+
+    @Override
+    public void name(String name) {
+        if (!empty[depth])
+            buffer.write(',');
+        empty[depth] = false;
+        writeString(name);
+        buffer.write(':');
+        afterName = true;
+    }
+
+    @Override
+    public void nullValue() {
+        beforeValue();
+        buffer.writeAscii("null");
+    }
+
+    @Override
+    public void value(boolean value) {
+        beforeValue();
+        buffer.writeAscii(value ? "true" : "false");
+    }
+
+    @Override
+    public void value(long value) {
+        beforeValue();
+        if (value == Long.MIN_VALUE) {
+            buffer.writeAscii("-9223372036854775808");
+            return;
+        }
+        if (value < 0) {
+            buffer.write('-');
+            value = -value;
+        }
+        int position = digits.length;
+        do {
+            digits[--position] = (byte) ('0' + value % 10);
+            value /= 10;
+        } while (value != 0);
+        buffer.write(digits, position, digits.length - position);
+    }
+
+    @Override
+    public void value(double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value))
+            throw new IllegalArgumentException(value + " is not a valid double value as per JSON specification.");
+        beforeValue();
+        buffer.writeAscii(Double.toString(value));
+    }
+
+    @Override
+    public void value(String value) {
+        beforeValue();
+        writeString(value);
+    }
+
+    @Override
+    public void value(byte[] value) {
+        beforeValue();
+        buffer.write('"');
+        int i = 0;
+        for (; i + 2 < value.length; i += 3) {
+            int bits = (value[i] & 0xFF) << 16 | (value[i + 1] & 0xFF) << 8 | (value[i + 2] & 0xFF);
+            buffer.write(BASE64[bits >>> 18]);
+            buffer.write(BASE64[(bits >>> 12) & 0x3F]);
+            buffer.write(BASE64[(bits >>> 6) & 0x3F]);
+            buffer.write(BASE64[bits & 0x3F]);
+        }
+        if (i < value.length) {
+            int bits = (value[i] & 0xFF) << 16 | (i + 1 < value.length ? (value[i + 1] & 0xFF) << 8 : 0);
+            buffer.write(BASE64[bits >>> 18]);
+            buffer.write(BASE64[(bits >>> 12) & 0x3F]);
+            buffer.write(i + 1 < value.length ? BASE64[(bits >>> 6) & 0x3F] : '=');
+            buffer.write('=');
+        }
+        buffer.write('"');
+    }
+
+    public void value(UUID value) {
+        beforeValue();
+        buffer.write('"');
+        writeHex(value.getMostSignificantBits() >>> 32, 8);
+        buffer.write('-');
+        writeHex(value.getMostSignificantBits() >>> 16, 4);
+        buffer.write('-');
+        writeHex(value.getMostSignificantBits(), 4);
+        buffer.write('-');
+        writeHex(value.getLeastSignificantBits() >>> 48, 4);
+        buffer.write('-');
+        writeHex(value.getLeastSignificantBits(), 12);
+        buffer.write('"');
+    }
+
+    public void value(JsonElement element) {
+        if (element == null || element.isJsonNull()) {
+            nullValue();
+        } else if (element.isJsonObject()) {
+            open('{');
+            for (Map.Entry<String, JsonElement> entry : element.getAsJsonObject().entrySet()) {
+                if (entry.getValue().isJsonNull())
+                    continue;
+                name(entry.getKey());
+                value(entry.getValue());
+            }
+            close('}');
+        } else if (element.isJsonArray()) {
+            open('[');
+            for (JsonElement item : element.getAsJsonArray())
+                value(item);
+            close(']');
+        } else {
+            JsonPrimitive primitive = element.getAsJsonPrimitive();
+            if (primitive.isBoolean())
+                value(primitive.getAsBoolean());
+            else if (primitive.isString())
+                value(primitive.getAsString());
+            else {
+                Number number = primitive.getAsNumber();
+                if (number instanceof Double || number instanceof Float)
+                    value(number.doubleValue());
+                else if (number instanceof Long || number instanceof Integer || number instanceof Short || number instanceof Byte)
+                    value(number.longValue());
+                else if (number instanceof BigDecimal || number instanceof BigInteger) {
+                    beforeValue();
+                    buffer.writeAscii(number.toString());
+                } else {
+                    beforeValue();
+                    buffer.writeUtf8(number.toString());
+                }
+            }
+        }
+    }
+
+    public ByteArrayBuffer getBuffer() {
+        return buffer;
+    }
+
+    public void reset() {
+        buffer.reset();
+        resume();
+    }
+
+    public void resume() {
+        depth = 0;
+        empty[0] = true;
+        afterName = false;
+    }
+
+    private void open(char bracket) {
+        beforeValue();
+        buffer.write(bracket);
+        if (++depth == empty.length)
+            empty = Arrays.copyOf(empty, depth << 1);
+        empty[depth] = true;
+    }
+
+    private void close(char bracket) {
+        depth--;
+        buffer.write(bracket);
+    }
+
+    private void beforeValue() {
+        if (afterName) {
+            afterName = false;
+            return;
+        }
+        if (!empty[depth])
+            buffer.write(',');
+        empty[depth] = false;
+    }
+
+    private void writeHex(long value, int length) {
+        for (int shift = (length - 1) * 4; shift >= 0; shift -= 4)
+            buffer.write(HEX[(int) (value >>> shift) & 0xF]);
+    }
+
+    private void writeString(String value) {
+        buffer.write('"');
+        int length = value.length();
+        int start = 0;
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c >= 0x20 && c != '"' && c != '\\' && c != '\u2028' && c != '\u2029')
+                continue;
+            buffer.writeUtf8(value, start, i);
+            start = i + 1;
+            buffer.write('\\');
+            switch (c) {
+                case '"':
+                case '\\':
+                    buffer.write(c);
+                    break;
+                case '\n':
+                    buffer.write('n');
+                    break;
+                case '\r':
+                    buffer.write('r');
+                    break;
+                case '\t':
+                    buffer.write('t');
+                    break;
+                case '\b':
+                    buffer.write('b');
+                    break;
+                case '\f':
+                    buffer.write('f');
+                    break;
+                default:
+                    buffer.write('u');
+                    writeHex(c, 4);
+                    break;
+            }
+        }
+        buffer.writeUtf8(value, start, length);
+        buffer.write('"');
+    }
+
+}
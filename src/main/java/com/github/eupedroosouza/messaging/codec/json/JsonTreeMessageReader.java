@@ -0,0 +1,125 @@
+/*
+ * Copyright (c) 2024 Pedro Souza
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package com.github.eupedroosouza.messaging.codec.json;
+
+import com.github.eupedroosouza.messaging.codec.MessageReader;
+import com.google.gson.JsonElement;
+
+import java.util.ArrayDeque;
+import java.util.Base64;
+import java.util.Iterator;
+import java.util.Map;
+
+public class JsonTreeMessageReader implements MessageReader {
+
+    private final ArrayDeque<Iterator<?>> stack = new ArrayDeque<>();
+    private JsonElement next;
+
+    public JsonTreeMessageReader(JsonElement element) {
+        this.next = element;
+    }
+
+    @Override
+    public void beginObject() {
+        stack.push(take().getAsJsonObject().entrySet().iterator());
+    }
+
+    @Override
+    public void endObject() {
+        stack.pop();
+    }
+
+    @Override
+    public void beginArray() {
+        stack.push(take().getAsJsonArray().iterator());
+    }
+
+    @Override
+    public void endArray() {
+        stack.pop();
+    }
+
+    @Override
+    public boolean hasNext() {
+        return next != null || stack.peek().hasNext();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public String nextName() {
+        Map.Entry<String, JsonElement> entry = (Map.Entry<String, JsonElement>) stack.peek().next();
+        next = entry.getValue();
+        return entry.getKey();
+    }
+
+    @Override
+    public boolean nextNull() {
+        if (!peek().isJsonNull())
+            return false;
+        next = null;
+        return true;
+    }
+
+    @Override
+    public boolean nextBoolean() {
+        return take().getAsBoolean();
+    }
+
+    @Override
+    public long nextLong() {
+        return take().getAsLong();
+    }
+
+    @Override
+    public double nextDouble() {
+        return take().getAsDouble();
+    }
+
+    @Override
+    public String nextString() {
+        return take().getAsString();
+    }
+
+    @Override
+    public byte[] nextBytes() {
+        return Base64.getDecoder().decode(take().getAsString());
+    }
+
+    @Override
+    public void skipValue() {
+        take();
+    }
+
+    private JsonElement peek() {
+        if (next == null)
+            next = (JsonElement) stack.peek().next();
+        return next;
+    }
+
+    private JsonElement take() {
+        JsonElement element = peek();
+        next = null;
+        return element;
+    }
+
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2024 Pedro Souza
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package com.github.eupedroosouza.messaging.codec.json;
+
+import com.github.eupedroosouza.messaging.codec.MessageWriter;
+import com.google.gson.*;
+
+import java.util.ArrayDeque;
+import java.util.Base64;
+
+public class JsonTreeMessageWriter implements MessageWriter {
+
+    private final ArrayDeque<JsonElement> stack = new ArrayDeque<>();
+    private String name;
+    private JsonElement result;
+
+    @Override
+    public void beginObject(int size) {
+        JsonObject object = new JsonObject();
+        add(object);
+        stack.push(object);
+    }
+
+    @Override
+    public void endObject() {
+        stack.pop();
+    }
+
+    @Override
+    public void beginArray(int size) {
+        JsonArray array = new JsonArray(size);
+        add(array);
+        stack.push(array);
+    }
+
+    @Override
+    public void endArray() {
+        stack.pop();
+    }
+
+    @Override
+    public void name(String name) {
+        this.name = name;
+    }
+
+    @Override
+    public void nullValue() {
+        add(JsonNull.INSTANCE);
+    }
+
+    @Override
+    public void value(boolean value) {
+        add(new JsonPrimitive(value));
+    }
+
+    @Override
+    public void value(long value) {
+        add(new JsonPrimitive(value));
+    }
+
+    @Override
+    public void value(double value) {
+        add(new JsonPrimitive(value));
+    }
+
+    @Override
+    public void value(String value) {
+        add(new JsonPrimitive(value));
+    }
+
+    @Override
+    public void value(byte[] value) {
+        add(new JsonPrimitive(Base64.getEncoder().encodeToString(value)));
+    }
+
+    public JsonElement get() {
+        return result;
+    }
+
+    private void add(JsonElement element) {
+        JsonElement parent = stack.peek();
+        if (parent == null)
+            result = element;
+        else if (parent.isJsonObject())
+            parent.getAsJsonObject().add(name, element);
+        else parent.getAsJsonArray().add(element);
+    }
+
+}
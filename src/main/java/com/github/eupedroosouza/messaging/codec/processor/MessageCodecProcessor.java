@@ -0,0 +1,504 @@
+/*
+ * Copyright (c) 2024 Pedro Souza
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package com.github.eupedroosouza.messaging.codec.processor;
+
+import com.github.eupedroosouza.messaging.codec.Message;
+import com.github.eupedroosouza.messaging.codec.MessageCodec;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.*;
+import javax.lang.model.type.ArrayType;
+import javax.lang.model.type.DeclaredType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.JavaFileObject;
+import javax.tools.StandardLocation;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.*;
+
+@SupportedAnnotationTypes("com.github.eupedroosouza.messaging.codec.Message")
+public class MessageCodecProcessor extends AbstractProcessor {
+
+    private static final String MESSAGE_OBJECT = "com.github.eupedroosouza.messaging.message.MessageObject";
+    private static final String MESSAGE_WRITER = "com.github.eupedroosouza.messaging.codec.MessageWriter";
+    private static final String MESSAGE_READER = "com.github.eupedroosouza.messaging.codec.MessageReader";
+
+    private final List<String> codecs = new ArrayList<>();
+    private final Map<Integer, String> typeIds = new HashMap<>();
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+        for (Element element : roundEnv.getElementsAnnotatedWith(Message.class)) {
+            TypeElement type = (TypeElement) element;
+            try {
+                generate(type);
+            } catch (CodecException ex) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, ex.getMessage(), ex.element);
+            } catch (IOException ex) {
+                processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Could not write the codec: " + ex.getMessage(), type);
+            }
+        }
+        if (roundEnv.processingOver() && !codecs.isEmpty())
+            writeServices();
+        return true;
+    }
+
+    private void generate(TypeElement type) throws IOException {
+        int typeId = type.getAnnotation(Message.class).id();
+        String qualifiedName = type.getQualifiedName().toString();
+        String previous = typeIds.putIfAbsent(typeId, qualifiedName);
+        if (previous != null && !previous.equals(qualifiedName))
+            throw new CodecException(type, "The message id " + typeId + " is already used by " + previous);
+        if (!processingEnv.getTypeUtils().isAssignable(type.asType(), processingEnv.getElementUtils().getTypeElement(MESSAGE_OBJECT).asType()))
+            throw new CodecException(type, "@Message types must implement MessageObject");
+        if (type.getModifiers().contains(Modifier.PRIVATE) || type.getModifiers().contains(Modifier.ABSTRACT))
+            throw new CodecException(type, "@Message types must be concrete and not private");
+        if (type.getNestingKind() == NestingKind.MEMBER && !type.getModifiers().contains(Modifier.STATIC) && !isRecord(type))
+            throw new CodecException(type, "@Message member types must be static");
+
+        boolean record = isRecord(type);
+        List<Property> properties = properties(type, record);
+        if (!record && !hasNoArgsConstructor(type))
+            throw new CodecException(type, "@Message classes need a non-private no-parameters constructor");
+
+        String packageName = processingEnv.getElementUtils().getPackageOf(type).getQualifiedName().toString();
+        String codecName = codecSimpleName(type);
+        String typeName = qualifiedName;
+
+        Code code = new Code();
+        if (!packageName.isEmpty())
+            code.line("package " + packageName + ";").line("");
+        code.line("// Generated by MessageCodecProcessor. Do not edit.");
+        code.open("public final class " + codecName + " implements " + MessageCodec.class.getName() + "<" + typeName + ">");
+        code.line("public static final int TYPE_ID = " + typeId + ";");
+        code.line("public static final " + codecName + " INSTANCE = new " + codecName + "();").line("");
+
+        code.line("@Override");
+        code.open("public int getTypeId()").line("return TYPE_ID;").close().line("");
+        code.line("@Override");
+        code.open("public Class<" + typeName + "> getType()").line("return " + typeName + ".class;").close().line("");
+
+        code.line("@Override");
+        code.open("public void encode(" + typeName + " messageObject, " + MESSAGE_WRITER + " writer) throws java.io.IOException");
+        code.line("writer.beginObject(" + properties.size() + ");");
+        for (Property property : properties) {
+            code.line("writer.name(\"" + property.name + "\");");
+            encode(code, property.type, "messageObject." + property.read, property.element);
+        }
+        code.line("writer.endObject();");
+        code.close().line("");
+
+        code.line("@Override");
+        code.open("public " + typeName + " decode(" + MESSAGE_READER + " reader) throws java.io.IOException");
+        // Record components are held in generated locals, named apart from the reader and the vN temporaries
+        List<String> components = new ArrayList<>();
+        if (record) {
+            for (Property property : properties) {
+                String component = "c" + components.size() + "_" + property.name;
+                components.add(component);
+                code.line(typeName(property.type) + " " + component + " = " + defaultValue(property.type) + ";");
+            }
+        } else code.line(typeName + " messageObject = new " + typeName + "();");
+        code.line("reader.beginObject();");
+        code.open("while (reader.hasNext())");
+        code.open("switch (reader.nextName())");
+        for (int i = 0; i < properties.size(); i++) {
+            Property property = properties.get(i);
+            code.open("case \"" + property.name + "\":");
+            String value = decode(code, property.type, property.element);
+            if (record)
+                code.line(components.get(i) + " = " + value + ";");
+            else if (property.write.endsWith("("))
+                code.line("messageObject." + property.write + value + ");");
+            else code.line("messageObject." + property.write + " = " + value + ";");
+            code.line("break;");
+            code.close();
+        }
+        code.line("default:").line("    reader.skipValue();");
+        code.close();
+        code.close();
+        code.line("reader.endObject();");
+        if (record)
+            code.line("return new " + typeName + "(" + String.join(", ", components) + ");");
+        else code.line("return messageObject;");
+        code.close();
+        code.close();
+
+        String codecQualifiedName = packageName.isEmpty() ? codecName : packageName + "." + codecName;
+        JavaFileObject file = processingEnv.getFiler().createSourceFile(codecQualifiedName, type);
+        try (Writer writer = file.openWriter()) {
+            writer.write(code.toString());
+        }
+        codecs.add(codecQualifiedName);
+    }
+
+    private List<Property> properties(TypeElement type, boolean record) {
+        List<Property> properties = new ArrayList<>();
+        List<ExecutableElement> methods = ElementFilter.methodsIn(type.getEnclosedElements());
+        for (VariableElement field : ElementFilter.fieldsIn(type.getEnclosedElements())) {
+            Set<Modifier> modifiers = field.getModifiers();
+            if (modifiers.contains(Modifier.STATIC) || modifiers.contains(Modifier.TRANSIENT))
+                continue;
+            String name = field.getSimpleName().toString();
+            if (record) {
+                properties.add(new Property(field, name, field.asType(), name + "()", null));
+                continue;
+            }
+            if (!modifiers.contains(Modifier.PRIVATE) && !modifiers.contains(Modifier.FINAL)) {
+                properties.add(new Property(field, name, field.asType(), name, name));
+                continue;
+            }
+            String capitalized = Character.toUpperCase(name.charAt(0)) + name.substring(1);
+            ExecutableElement getter = findMethod(methods, field.asType().getKind() == TypeKind.BOOLEAN ? "is" + capitalized : "get" + capitalized, 0);
+            if (getter == null)
+                getter = findMethod(methods, "get" + capitalized, 0);
+            ExecutableElement setter = findMethod(methods, "set" + capitalized, 1);
+            if (getter == null || setter == null)
+                throw new CodecException(field, "The field " + name + " must be non-private and non-final or have a getter and a setter");
+            properties.add(new Property(field, name, field.asType(), getter.getSimpleName() + "()", setter.getSimpleName() + "("));
+        }
+        return properties;
+    }
+
+    private void encode(Code code, TypeMirror type, String value, Element element) {
+        switch (type.getKind()) {
+            case BOOLEAN:
+                code.line("writer.value(" + value + ");");
+                return;
+            case BYTE:
+            case SHORT:
+            case INT:
+            case LONG:
+                code.line("writer.value((long) " + value + ");");
+                return;
+            case FLOAT:
+            case DOUBLE:
+                code.line("writer.value((double) " + value + ");");
+                return;
+            default:
+                break;
+        }
+
+        String local = code.local();
+        code.line(typeName(type) + " " + local + " = " + value + ";");
+        code.open("if (" + local + " == null)").line("writer.nullValue();");
+        code.otherwise();
+        String boxed = boxedName(type);
+        if (boxed != null) {
+            switch (boxed) {
+                case "java.lang.Boolean":
+                    code.line("writer.value(" + local + ".booleanValue());");
+                    break;
+                case "java.lang.Float":
+                case "java.lang.Double":
+                    code.line("writer.value(" + local + ".doubleValue());");
+                    break;
+                default:
+                    code.line("writer.value(" + local + ".longValue());");
+                    break;
+            }
+        } else if (isString(type) || isBytes(type)) {
+            code.line("writer.value(" + local + ");");
+        } else if (isEnum(type)) {
+            code.line("writer.value(" + local + ".name());");
+        } else if (isMessage(type)) {
+            code.line(codecReference(type) + ".encode(" + local + ", writer);");
+        } else if (isList(type)) {
+            TypeMirror elementType = ((DeclaredType) type).getTypeArguments().get(0);
+            String item = code.local();
+            code.line("writer.beginArray(" + local + ".size());");
+            code.open("for (" + typeName(elementType) + " " + item + " : " + local + ")");
+            encode(code, elementType, item, element);
+            code.close();
+            code.line("writer.endArray();");
+        } else throw new CodecException(element, "The type " + type + " is not supported by generated codecs");
+        code.close();
+    }
+
+    private String decode(Code code, TypeMirror type, Element element) {
+        String local = code.local();
+        String name = typeName(type);
+        switch (type.getKind()) {
+            case BOOLEAN:
+                code.line(name + " " + local + " = reader.nextBoolean();");
+                return local;
+            case BYTE:
+            case SHORT:
+            case INT:
+            case LONG:
+                code.line(name + " " + local + " = (" + name + ") reader.nextLong();");
+                return local;
+            case FLOAT:
+            case DOUBLE:
+                code.line(name + " " + local + " = (" + name + ") reader.nextDouble();");
+                return local;
+            default:
+                break;
+        }
+
+        String boxed = boxedName(type);
+        if (boxed != null) {
+            String read;
+            switch (boxed) {
+                case "java.lang.Boolean":
+                    read = "Boolean.valueOf(reader.nextBoolean())";
+                    break;
+                case "java.lang.Float":
+                    read = "Float.valueOf((float) reader.nextDouble())";
+                    break;
+                case "java.lang.Double":
+                    read = "Double.valueOf(reader.nextDouble())";
+                    break;
+                case "java.lang.Byte":
+                    read = "Byte.valueOf((byte) reader.nextLong())";
+                    break;
+                case "java.lang.Short":
+                    read = "Short.valueOf((short) reader.nextLong())";
+                    break;
+                case "java.lang.Integer":
+                    read = "Integer.valueOf((int) reader.nextLong())";
+                    break;
+                default:
+                    read = "Long.valueOf(reader.nextLong())";
+                    break;
+            }
+            code.line(name + " " + local + " = reader.nextNull() ? null : " + read + ";");
+        } else if (isString(type)) {
+            code.line(name + " " + local + " = reader.nextNull() ? null : reader.nextString();");
+        } else if (isBytes(type)) {
+            code.line(name + " " + local + " = reader.nextNull() ? null : reader.nextBytes();");
+        } else if (isEnum(type)) {
+            code.line(name + " " + local + " = reader.nextNull() ? null : " + name + ".valueOf(reader.nextString());");
+        } else if (isMessage(type)) {
+            code.line(name + " " + local + " = reader.nextNull() ? null : " + codecReference(type) + ".decode(reader);");
+        } else if (isList(type)) {
+            TypeMirror elementType = ((DeclaredType) type).getTypeArguments().get(0);
+            code.line(name + " " + local + " = null;");
+            code.open("if (!reader.nextNull())");
+            code.line(local + " = new java.util.ArrayList<" + typeName(elementType) + ">();");
+            code.line("reader.beginArray();");
+            code.open("while (reader.hasNext())");
+            String item = decode(code, elementType, element);
+            code.line(local + ".add(" + item + ");");
+            code.close();
+            code.line("reader.endArray();");
+            code.close();
+        } else throw new CodecException(element, "The type " + type + " is not supported by generated codecs");
+        return local;
+    }
+
+    private void writeServices() {
+        try {
+            FileObject file = processingEnv.getFiler().createResource(StandardLocation.CLASS_OUTPUT, "", "META-INF/services/" + MessageCodec.class.getName());
+            try (Writer writer = file.openWriter()) {
+                for (String codec : codecs)
+                    writer.write(codec + "\n");
+            }
+        } catch (IOException ex) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "Could not write the codec services file: " + ex.getMessage());
+        }
+    }
+
+    private String typeName(TypeMirror type) {
+        if (type.getKind().isPrimitive())
+            return type.getKind().name().toLowerCase(Locale.ROOT);
+        if (type.getKind() == TypeKind.ARRAY)
+            return typeName(((ArrayType) type).getComponentType()) + "[]";
+        if (type.getKind() == TypeKind.DECLARED) {
+            DeclaredType declared = (DeclaredType) type;
+            String name = ((TypeElement) declared.asElement()).getQualifiedName().toString();
+            if (declared.getTypeArguments().isEmpty())
+                return name;
+            StringJoiner arguments = new StringJoiner(", ", "<", ">");
+            for (TypeMirror argument : declared.getTypeArguments())
+                arguments.add(typeName(argument));
+            return name + arguments;
+        }
+        return type.toString();
+    }
+
+    private String defaultValue(TypeMirror type) {
+        if (type.getKind() == TypeKind.BOOLEAN)
+            return "false";
+        return type.getKind().isPrimitive() ? "0" : "null";
+    }
+
+    private String boxedName(TypeMirror type) {
+        if (type.getKind() != TypeKind.DECLARED)
+            return null;
+        String name = ((TypeElement) ((DeclaredType) type).asElement()).getQualifiedName().toString();
+        switch (name) {
+            case "java.lang.Boolean":
+            case "java.lang.Byte":
+            case "java.lang.Short":
+            case "java.lang.Integer":
+            case "java.lang.Long":
+            case "java.lang.Float":
+            case "java.lang.Double":
+                return name;
+            default:
+                return null;
+        }
+    }
+
+    private boolean isString(TypeMirror type) {
+        return type.getKind() == TypeKind.DECLARED && ((TypeElement) ((DeclaredType) type).asElement()).getQualifiedName().contentEquals("java.lang.String");
+    }
+
+    private boolean isBytes(TypeMirror type) {
+        return type.getKind() == TypeKind.ARRAY && ((ArrayType) type).getComponentType().getKind() == TypeKind.BYTE;
+    }
+
+    private boolean isEnum(TypeMirror type) {
+        return type.getKind() == TypeKind.DECLARED && ((DeclaredType) type).asElement().getKind() == ElementKind.ENUM;
+    }
+
+    private boolean isMessage(TypeMirror type) {
+        return type.getKind() == TypeKind.DECLARED && ((DeclaredType) type).asElement().getAnnotation(Message.class) != null;
+    }
+
+    private boolean isList(TypeMirror type) {
+        return type.getKind() == TypeKind.DECLARED
+                && ((TypeElement) ((DeclaredType) type).asElement()).getQualifiedName().contentEquals("java.util.List")
+                && ((DeclaredType) type).getTypeArguments().size() == 1;
+    }
+
+    private String codecReference(TypeMirror type) {
+        TypeElement element = (TypeElement) ((DeclaredType) type).asElement();
+        String packageName = processingEnv.getElementUtils().getPackageOf(element).getQualifiedName().toString();
+        return (packageName.isEmpty() ? "" : packageName + ".") + codecSimpleName(element) + ".INSTANCE";
+    }
+
+    private static String codecSimpleName(TypeElement type) {
+        StringBuilder name = new StringBuilder(type.getSimpleName());
+        Element enclosing = type.getEnclosingElement();
+        while (enclosing instanceof TypeElement) {
+            name.insert(0, enclosing.getSimpleName() + "_");
+            enclosing = enclosing.getEnclosingElement();
+        }
+        return name.append("Codec").toString();
+    }
+
+    private static boolean isRecord(TypeElement type) {
+        return type.getKind().name().equals("RECORD");
+    }
+
+    private static boolean hasNoArgsConstructor(TypeElement type) {
+        for (ExecutableElement constructor : ElementFilter.constructorsIn(type.getEnclosedElements())) {
+            if (constructor.getParameters().isEmpty() && !constructor.getModifiers().contains(Modifier.PRIVATE))
+                return true;
+        }
+        return false;
+    }
+
+    private static ExecutableElement findMethod(List<ExecutableElement> methods, String name, int parameters) {
+        for (ExecutableElement method : methods) {
+            if (method.getSimpleName().contentEquals(name) && method.getParameters().size() == parameters
+                    && !method.getModifiers().contains(Modifier.PRIVATE) && !method.getModifiers().contains(Modifier.STATIC))
+                return method;
+        }
+        return null;
+    }
+
+    private static final class Property {
+
+        private final Element element;
+        private final String name;
+        private final TypeMirror type;
+        private final String read;
+        private final String write;
+
+        private Property(Element element, String name, TypeMirror type, String read, String write) {
+            this.element = element;
+            this.name = name;
+            this.type = type;
+            this.read = read;
+            this.write = write;
+        }
+    }
+
+    private static final class Code {
+
+        private final StringBuilder builder = new StringBuilder();
+        private int indent;
+        private int locals;
+
+        private Code line(String line) {
+            for (int i = 0; i < indent && !line.isEmpty(); i++)
+                builder.append("    ");
+            builder.append(line).append('\n');
+            return this;
+        }
+
+        private Code open(String line) {
+            line(line + " {");
+            indent++;
+            return this;
+        }
+
+        private Code otherwise() {
+            indent--;
+            line("} else {");
+            indent++;
+            return this;
+        }
+
+        private Code close() {
+            indent--;
+            line("}");
+            return this;
+        }
+
+        private String local() {
+            return "v" + locals++;
+        }
+
+        @Override
+        public String toString() {
+            return builder.toString();
+        }
+    }
+
+    private static final class CodecException extends RuntimeException {
+
+        private final Element element;
+
+        private CodecException(Element element, String message) {
+            super(message);
+            this.element = element;
+        }
+    }
+
+}
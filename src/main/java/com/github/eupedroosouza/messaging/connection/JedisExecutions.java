@@ -22,10 +22,15 @@
 
 package com.github.eupedroosouza.messaging.connection;
 
+import com.github.eupedroosouza.messaging.exception.ChannelException;
+import com.github.eupedroosouza.messaging.message.MessageObject;
+import com.github.eupedroosouza.messaging.util.ByteArrayBuffer;
 import redis.clients.jedis.BinaryJedisPubSub;
 import redis.clients.jedis.JedisPubSub;
 
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.function.Supplier;
 
 public interface JedisExecutions {
 
@@ -34,8 +39,37 @@ public interface JedisExecutions {
     default long pubBinary(String channel, byte[] message) {
         return pubBinary(channel.getBytes(StandardCharsets.UTF_8), message);
     }
+    default long pubBinary(byte[] channel, byte[] message, int offset, int length) {
+        if (offset == 0 && length == message.length)
+            return pubBinary(channel, message);
+        return pubBinary(channel, Arrays.copyOfRange(message, offset, offset + length));
+    }
+    default long pubObject(byte[] channel, MessageObject messageObject, Supplier<ByteArrayBuffer> encoder) {
+        ByteArrayBuffer buffer = encoder.get();
+        return pubBinary(channel, buffer.array(), 0, buffer.size());
+    }
 
     void sub(JedisPubSub pubSub, String... channels);
     void subBinary(BinaryJedisPubSub pubSub, byte[]... channels);
 
+    default void psub(JedisPubSub pubSub, String... patterns) {
+        throw new ChannelException(getClass().getSimpleName() + " does not support pattern subscriptions");
+    }
+    default void psubBinary(BinaryJedisPubSub pubSub, byte[]... patterns) {
+        throw new ChannelException(getClass().getSimpleName() + " does not support pattern subscriptions");
+    }
+
+    default void unsub(JedisPubSub pubSub) {
+        pubSub.unsubscribe();
+    }
+    default void unsubBinary(BinaryJedisPubSub pubSub) {
+        pubSub.unsubscribe();
+    }
+    default void punsub(JedisPubSub pubSub) {
+        pubSub.punsubscribe();
+    }
+    default void punsubBinary(BinaryJedisPubSub pubSub) {
+        pubSub.punsubscribe();
+    }
+
 }
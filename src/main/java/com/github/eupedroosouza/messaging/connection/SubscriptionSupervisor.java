@@ -0,0 +1,141 @@
+/*
+ * Copyright (c) 2024 Pedro Souza
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package com.github.eupedroosouza.messaging.connection;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Runs a blocking subscribe call and calls it again whenever it returns or throws before shutdown
+public class SubscriptionSupervisor {
+
+    private final String name;
+    private final Runnable subscription;
+
+    private volatile boolean running;
+    private volatile Thread thread;
+    private volatile long initialBackoffMillis = 50;
+    private volatile long maxBackoffMillis = 30_000;
+
+    private final AtomicLong reconnects = new AtomicLong();
+    private final AtomicLong downtimeMillis = new AtomicLong();
+    private volatile int attempts;
+    private volatile long disconnectedAt;
+    private volatile Throwable lastError;
+
+    public SubscriptionSupervisor(String name, Runnable subscription) {
+        this.name = name;
+        this.subscription = subscription;
+    }
+
+    // Retries wait a jittered delay that doubles from the initial one up to the max
+    public void setBackoff(long initialMillis, long maxMillis) {
+        this.initialBackoffMillis = initialMillis;
+        this.maxBackoffMillis = maxMillis;
+    }
+
+    // Returns at once, the new run waits for a previous one to leave its subscription unless started from that run's own thread
+    public void start() {
+        Thread previous = thread != Thread.currentThread() ? thread : null;
+        running = true;
+        thread = new Thread(() -> {
+            if (previous != null) {
+                try {
+                    previous.join();
+                } catch (InterruptedException ex) {
+                    return;
+                }
+            }
+            supervise();
+        }, name);
+        thread.start();
+    }
+
+    public void shutdown() {
+        running = false;
+        Thread current = thread;
+        if (current != null)
+            current.interrupt();
+    }
+
+    // Called from the pubsub's onSubscribe, false once this run was shut down or replaced while it was subscribing.
+    // An unsubscribe issued before the subscription existed found nothing to leave, the run must leave on its own
+    public boolean isActive() {
+        return running && thread == Thread.currentThread();
+    }
+
+    // Called from the pubsub's onSubscribe, ends the downtime of a reconnect
+    public void onSubscribed() {
+        attempts = 0;
+        long since = disconnectedAt;
+        if (since == 0)
+            return;
+        disconnectedAt = 0;
+        downtimeMillis.addAndGet(System.currentTimeMillis() - since);
+        reconnects.incrementAndGet();
+    }
+
+    private void supervise() {
+        Thread self = Thread.currentThread();
+        // A restart hands the subscription to a new thread, this one must not subscribe again
+        while (running && thread == self) {
+            try {
+                subscription.run();
+            } catch (Throwable throwable) {
+                lastError = throwable;
+            }
+            if (!running || thread != self)
+                return;
+            if (disconnectedAt == 0)
+                disconnectedAt = System.currentTimeMillis();
+            long delay = Math.min(maxBackoffMillis, initialBackoffMillis << Math.min(attempts++, 20));
+            try {
+                Thread.sleep(ThreadLocalRandom.current().nextLong(delay / 2, delay + 1));
+            } catch (InterruptedException ex) {
+                return;
+            }
+        }
+    }
+
+    public Thread getThread() {
+        return thread;
+    }
+
+    public boolean isConnected() {
+        return running && disconnectedAt == 0;
+    }
+
+    public long getReconnects() {
+        return reconnects.get();
+    }
+
+    // Includes the ongoing outage, if any
+    public long getDowntimeMillis() {
+        long since = disconnectedAt;
+        return downtimeMillis.get() + (since != 0 ? System.currentTimeMillis() - since : 0);
+    }
+
+    public Throwable getLastError() {
+        return lastError;
+    }
+
+}
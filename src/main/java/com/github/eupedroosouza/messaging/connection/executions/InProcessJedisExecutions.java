@@ -0,0 +1,387 @@
+/*
+ * Copyright (c) 2024 Pedro Souza
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package com.github.eupedroosouza.messaging.connection.executions;
+
+import com.github.eupedroosouza.messaging.connection.JedisExecutions;
+import com.github.eupedroosouza.messaging.connection.MessageObjectListener;
+import com.github.eupedroosouza.messaging.message.MessageObject;
+import com.github.eupedroosouza.messaging.util.ByteArrayBuffer;
+import com.github.eupedroosouza.messaging.util.PatternUtil;
+import redis.clients.jedis.BinaryJedisPubSub;
+import redis.clients.jedis.JedisPubSub;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+public class InProcessJedisExecutions implements JedisExecutions {
+
+    private final JedisExecutions mirror;
+    private final boolean passByReference;
+
+    private final ConcurrentHashMap<String, List<Subscription>> subscriptions = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, List<Subscription>> patternSubscriptions = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Object, Subscription> subscriptionsByPubSub = new ConcurrentHashMap<>();
+
+    public InProcessJedisExecutions() {
+        this(null, false);
+    }
+
+    public InProcessJedisExecutions(boolean passByReference) {
+        this(null, passByReference);
+    }
+
+    public InProcessJedisExecutions(JedisExecutions mirror) {
+        this(mirror, false);
+    }
+
+    public InProcessJedisExecutions(JedisExecutions mirror, boolean passByReference) {
+        this.mirror = mirror;
+        this.passByReference = passByReference;
+    }
+
+    @Override
+    public long pub(String channel, String message) {
+        long received = deliver(channel, new Delivery(channel, message, null, null));
+        if (mirror != null)
+            received += mirror.pub(channel, message);
+        return received;
+    }
+
+    @Override
+    public long pubBinary(byte[] channel, byte[] message) {
+        String stringChannel = new String(channel, StandardCharsets.UTF_8);
+        long received = deliver(stringChannel, new Delivery(stringChannel, null, message, null));
+        if (mirror != null)
+            received += mirror.pubBinary(channel, message);
+        return received;
+    }
+
+    @Override
+    public long pubBinary(byte[] channel, byte[] message, int offset, int length) {
+        return pubBinary(channel, Arrays.copyOfRange(message, offset, offset + length));
+    }
+
+    @Override
+    public long pubObject(byte[] channel, MessageObject messageObject, Supplier<ByteArrayBuffer> encoder) {
+        if (!passByReference)
+            return JedisExecutions.super.pubObject(channel, messageObject, encoder);
+
+        String stringChannel = new String(channel, StandardCharsets.UTF_8);
+        boolean encode = mirror != null || needsEncoding(subscriptions.get(stringChannel));
+        for (Map.Entry<String, List<Subscription>> entry : patternSubscriptions.entrySet()) {
+            if (encode)
+                break;
+            encode = PatternUtil.matches(entry.getKey(), stringChannel) && needsEncoding(entry.getValue());
+        }
+
+        byte[] encoded = encode ? encoder.get().toByteArray() : null;
+        long received = deliver(stringChannel, new Delivery(stringChannel, null, encoded, messageObject));
+        if (mirror != null)
+            received += mirror.pubBinary(channel, encoded);
+        return received;
+    }
+
+    @Override
+    public void sub(JedisPubSub pubSub, String... channels) {
+        new TextSubscription(pubSub).run(channels, subscriptions);
+    }
+
+    @Override
+    public void subBinary(BinaryJedisPubSub pubSub, byte[]... channels) {
+        new BinarySubscription(pubSub).run(toStrings(channels), subscriptions);
+    }
+
+    @Override
+    public void psub(JedisPubSub pubSub, String... patterns) {
+        new TextSubscription(pubSub).run(patterns, patternSubscriptions);
+    }
+
+    @Override
+    public void psubBinary(BinaryJedisPubSub pubSub, byte[]... patterns) {
+        new BinarySubscription(pubSub).run(toStrings(patterns), patternSubscriptions);
+    }
+
+    @Override
+    public void unsub(JedisPubSub pubSub) {
+        unsubscribe(pubSub);
+    }
+
+    @Override
+    public void unsubBinary(BinaryJedisPubSub pubSub) {
+        unsubscribe(pubSub);
+    }
+
+    @Override
+    public void punsub(JedisPubSub pubSub) {
+        unsubscribe(pubSub);
+    }
+
+    @Override
+    public void punsubBinary(BinaryJedisPubSub pubSub) {
+        unsubscribe(pubSub);
+    }
+
+    private void unsubscribe(Object pubSub) {
+        Subscription subscription = subscriptionsByPubSub.get(pubSub);
+        if (subscription != null)
+            subscription.close();
+    }
+
+    private long deliver(String channel, Delivery delivery) {
+        long received = 0;
+        List<Subscription> channelSubscriptions = subscriptions.get(channel);
+        if (channelSubscriptions != null) {
+            for (Subscription subscription : channelSubscriptions) {
+                subscription.offer(delivery);
+                received++;
+            }
+        }
+        for (Map.Entry<String, List<Subscription>> entry : patternSubscriptions.entrySet()) {
+            if (entry.getValue().isEmpty() || !PatternUtil.matches(entry.getKey(), channel))
+                continue;
+            Delivery patternDelivery = new Delivery(entry.getKey(), delivery);
+            for (Subscription subscription : entry.getValue()) {
+                subscription.offer(patternDelivery);
+                received++;
+            }
+        }
+        return received;
+    }
+
+    private static boolean needsEncoding(List<Subscription> channelSubscriptions) {
+        if (channelSubscriptions == null)
+            return false;
+        for (Subscription subscription : channelSubscriptions) {
+            if (!acceptsMessageObjects(subscription.pubSub))
+                return true;
+        }
+        return false;
+    }
+
+    private static boolean acceptsMessageObjects(Object pubSub) {
+        return pubSub instanceof MessageObjectListener && ((MessageObjectListener) pubSub).acceptsMessageObjects();
+    }
+
+    private static String[] toStrings(byte[][] channels) {
+        String[] stringChannels = new String[channels.length];
+        for (int i = 0; i < channels.length; i++)
+            stringChannels[i] = new String(channels[i], StandardCharsets.UTF_8);
+        return stringChannels;
+    }
+
+    private static final class Delivery {
+
+        private final String pattern;
+        private final String channel;
+        private final String message;
+        private final byte[] binaryMessage;
+        private final MessageObject messageObject;
+
+        private Delivery(String channel, String message, byte[] binaryMessage, MessageObject messageObject) {
+            this.pattern = null;
+            this.channel = channel;
+            this.message = message;
+            this.binaryMessage = binaryMessage;
+            this.messageObject = messageObject;
+        }
+
+        private Delivery(String pattern, Delivery delivery) {
+            this.pattern = pattern;
+            this.channel = delivery.channel;
+            this.message = delivery.message;
+            this.binaryMessage = delivery.binaryMessage;
+            this.messageObject = delivery.messageObject;
+        }
+
+        private String message() {
+            return message != null ? message : new String(binaryMessage, StandardCharsets.UTF_8);
+        }
+
+        private byte[] binaryMessage() {
+            return binaryMessage != null ? binaryMessage : message.getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    private abstract class Subscription {
+
+        private final Object pubSub;
+        private final ConcurrentLinkedQueue<Delivery> queue = new ConcurrentLinkedQueue<>();
+        private volatile Thread thread;
+        private volatile boolean running = true;
+        private volatile boolean waiting = false;
+
+        private Subscription(Object pubSub) {
+            this.pubSub = pubSub;
+        }
+
+        void run(String[] channels, ConcurrentHashMap<String, List<Subscription>> subscriptions) {
+            boolean patterns = subscriptions == patternSubscriptions;
+            thread = Thread.currentThread();
+            subscriptionsByPubSub.put(pubSub, this);
+            int subscribedChannels = 0;
+            for (String channel : channels) {
+                subscriptions.computeIfAbsent(channel, (c) -> new CopyOnWriteArrayList<>()).add(this);
+                if (patterns)
+                    onPSubscribe(channel, ++subscribedChannels);
+                else onSubscribe(channel, ++subscribedChannels);
+            }
+            try {
+                while (running && !thread.isInterrupted()) {
+                    Delivery delivery = queue.poll();
+                    if (delivery == null) {
+                        waiting = true;
+                        if (running && queue.isEmpty())
+                            LockSupport.park(this);
+                        waiting = false;
+                        continue;
+                    }
+                    dispatch(delivery);
+                }
+            } finally {
+                subscriptionsByPubSub.remove(pubSub, this);
+                for (String channel : channels) {
+                    List<Subscription> channelSubscriptions = subscriptions.get(channel);
+                    if (channelSubscriptions != null)
+                        channelSubscriptions.remove(this);
+                    if (patterns)
+                        onPUnsubscribe(channel, --subscribedChannels);
+                    else onUnsubscribe(channel, --subscribedChannels);
+                }
+            }
+        }
+
+        void offer(Delivery delivery) {
+            queue.offer(delivery);
+            if (waiting)
+                LockSupport.unpark(thread);
+        }
+
+        void close() {
+            running = false;
+            LockSupport.unpark(thread);
+        }
+
+        void dispatch(Delivery delivery) {
+            if (delivery.messageObject != null && acceptsMessageObjects(pubSub))
+                ((MessageObjectListener) pubSub).onMessageObject(delivery.channel, delivery.messageObject);
+            else if (delivery.pattern != null)
+                onPMessage(delivery);
+            else onMessage(delivery);
+        }
+
+        abstract void onMessage(Delivery delivery);
+        abstract void onPMessage(Delivery delivery);
+        abstract void onSubscribe(String channel, int subscribedChannels);
+        abstract void onUnsubscribe(String channel, int subscribedChannels);
+        abstract void onPSubscribe(String pattern, int subscribedChannels);
+        abstract void onPUnsubscribe(String pattern, int subscribedChannels);
+    }
+
+    private final class TextSubscription extends Subscription {
+
+        private final JedisPubSub pubSub;
+
+        private TextSubscription(JedisPubSub pubSub) {
+            super(pubSub);
+            this.pubSub = pubSub;
+        }
+
+        @Override
+        void onMessage(Delivery delivery) {
+            pubSub.onMessage(delivery.channel, delivery.message());
+        }
+
+        @Override
+        void onPMessage(Delivery delivery) {
+            pubSub.onPMessage(delivery.pattern, delivery.channel, delivery.message());
+        }
+
+        @Override
+        void onSubscribe(String channel, int subscribedChannels) {
+            pubSub.onSubscribe(channel, subscribedChannels);
+        }
+
+        @Override
+        void onUnsubscribe(String channel, int subscribedChannels) {
+            pubSub.onUnsubscribe(channel, subscribedChannels);
+        }
+
+        @Override
+        void onPSubscribe(String pattern, int subscribedChannels) {
+            pubSub.onPSubscribe(pattern, subscribedChannels);
+        }
+
+        @Override
+        void onPUnsubscribe(String pattern, int subscribedChannels) {
+            pubSub.onPUnsubscribe(pattern, subscribedChannels);
+        }
+    }
+
+    private final class BinarySubscription extends Subscription {
+
+        private final BinaryJedisPubSub pubSub;
+
+        private BinarySubscription(BinaryJedisPubSub pubSub) {
+            super(pubSub);
+            this.pubSub = pubSub;
+        }
+
+        @Override
+        void onMessage(Delivery delivery) {
+            pubSub.onMessage(delivery.channel.getBytes(StandardCharsets.UTF_8), delivery.binaryMessage());
+        }
+
+        @Override
+        void onPMessage(Delivery delivery) {
+            pubSub.onPMessage(delivery.pattern.getBytes(StandardCharsets.UTF_8), delivery.channel.getBytes(StandardCharsets.UTF_8), delivery.binaryMessage());
+        }
+
+        @Override
+        void onSubscribe(String channel, int subscribedChannels) {
+            pubSub.onSubscribe(channel.getBytes(StandardCharsets.UTF_8), subscribedChannels);
+        }
+
+        @Override
+        void onUnsubscribe(String channel, int subscribedChannels) {
+            pubSub.onUnsubscribe(channel.getBytes(StandardCharsets.UTF_8), subscribedChannels);
+        }
+
+        @Override
+        void onPSubscribe(String pattern, int subscribedChannels) {
+            pubSub.onPSubscribe(pattern.getBytes(StandardCharsets.UTF_8), subscribedChannels);
+        }
+
+        @Override
+        void onPUnsubscribe(String pattern, int subscribedChannels) {
+            pubSub.onPUnsubscribe(pattern.getBytes(StandardCharsets.UTF_8), subscribedChannels);
+        }
+    }
+
+}
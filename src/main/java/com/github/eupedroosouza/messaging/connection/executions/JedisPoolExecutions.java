@@ -25,14 +25,82 @@ package com.github.eupedroosouza.messaging.connection.executions;
 import com.github.eupedroosouza.messaging.connection.JedisExecutions;
 import redis.clients.jedis.*;
 
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
 public class JedisPoolExecutions implements JedisExecutions {
 
     private final JedisPool pool;
+    private final AtomicReference<Jedis> standby = new AtomicReference<>();
+    private ScheduledExecutorService standbyChecker;
 
     public JedisPoolExecutions(JedisPool pool) {
         this.pool = pool;
     }
 
+    // Keeps one connection out of the pool, pinged every checkMillis, for the next subscribe after a drop.
+    // Idle pool connections may have died with the server, this one is known to be alive
+    public synchronized void enableStandby(long checkMillis) {
+        if (standbyChecker != null)
+            return;
+        standbyChecker = Executors.newSingleThreadScheduledExecutor((runnable) -> {
+            Thread thread = new Thread(runnable, "jedis-standby");
+            thread.setDaemon(true);
+            return thread;
+        });
+        standbyChecker.scheduleWithFixedDelay(this::checkStandby, 0, checkMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public synchronized void shutdownStandby() {
+        if (standbyChecker == null)
+            return;
+        standbyChecker.shutdownNow();
+        standbyChecker = null;
+        Jedis connection = standby.getAndSet(null);
+        if (connection != null)
+            connection.close();
+    }
+
+    private void checkStandby() {
+        Jedis connection = standby.getAndSet(null);
+        try {
+            if (connection == null)
+                connection = pool.getResource();
+            connection.ping();
+        } catch (RuntimeException ex) {
+            if (connection != null)
+                connection.close();
+            return; // Checked again on the next run
+        }
+        if (!standby.compareAndSet(null, connection))
+            connection.close();
+    }
+
+    // A subscribe that ends by an exception may leave the connection subscribed, it goes back to the pool disconnected
+    private void subscribe(Consumer<Jedis> subscription) {
+        try (Jedis connection = subscriber()) {
+            try {
+                subscription.accept(connection);
+            } catch (RuntimeException ex) {
+                connection.disconnect();
+                throw ex;
+            }
+        }
+    }
+
+    private Jedis subscriber() {
+        Jedis connection = standby.getAndSet(null);
+        if (connection == null)
+            return pool.getResource();
+        ScheduledExecutorService checker = standbyChecker;
+        if (checker != null)
+            checker.execute(this::checkStandby);
+        return connection;
+    }
+
     @Override
     public long pub(String channel, String message) {
         try (Jedis connection = pool.getResource()) {
@@ -49,16 +117,22 @@ public class JedisPoolExecutions implements JedisExecutions {
 
     @Override
     public void sub(JedisPubSub pubSub, String... channels) {
-        try (Jedis connection = pool.getResource()) {
-            connection.subscribe(pubSub, channels);
-        }
+        subscribe((connection) -> connection.subscribe(pubSub, channels));
     }
 
     @Override
     public void subBinary(BinaryJedisPubSub pubSub, byte[]... channels) {
-        try (Jedis connection = pool.getResource()) {
-            connection.subscribe(pubSub, channels);
-        }
+        subscribe((connection) -> connection.subscribe(pubSub, channels));
+    }
+
+    @Override
+    public void psub(JedisPubSub pubSub, String... patterns) {
+        subscribe((connection) -> connection.psubscribe(pubSub, patterns));
+    }
+
+    @Override
+    public void psubBinary(BinaryJedisPubSub pubSub, byte[]... patterns) {
+        subscribe((connection) -> connection.psubscribe(pubSub, patterns));
     }
 
 }
@@ -0,0 +1,493 @@
+/*
+ * Copyright (c) 2024 Pedro Souza
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package com.github.eupedroosouza.messaging.connection.executions;
+
+import com.github.eupedroosouza.messaging.connection.JedisExecutions;
+import com.github.eupedroosouza.messaging.exception.ChannelException;
+import redis.clients.jedis.BinaryJedisPubSub;
+import redis.clients.jedis.JedisPubSub;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.LockSupport;
+import java.util.concurrent.locks.ReentrantLock;
+
+public class SharedMemoryJedisExecutions implements JedisExecutions, Closeable {
+
+    private static final long MAGIC = 0x4D5347524E473032L;
+    private static final int HEADER_SIZE = 128;
+    private static final int MAGIC_OFFSET = 0;
+    private static final int CAPACITY_OFFSET = 8;
+    private static final int WRITE_LOCK_OFFSET = 56;
+    private static final int WRITE_CURSOR_OFFSET = 64;
+    private static final int WRITE_CLAIM_OFFSET = 72;
+    private static final int SUBSCRIPTIONS_FULL_OFFSET = 80;
+
+    private static final int FRAME_HEADER_SIZE = 16;
+    private static final int FRAME_ALIGNMENT = 8;
+
+    // Subscriber counts per channel id live after the ring, in open-addressed slots of (channel id, count)
+    private static final int SUBSCRIPTION_SLOTS = 1024;
+    private static final int SUBSCRIPTION_SLOT_SIZE = 8;
+    private static final int SUBSCRIPTIONS_SIZE = SUBSCRIPTION_SLOTS * SUBSCRIPTION_SLOT_SIZE;
+
+    public static final int DEFAULT_CAPACITY = 16 * 1024 * 1024;
+    public static final int DEFAULT_SPIN_TRIES = 10_000;
+    public static final int DEFAULT_YIELD_TRIES = 100;
+    public static final long DEFAULT_MAX_PARK_NANOS = 1_000_000L;
+
+    // The memory model does not order plain accesses to mapped memory, Unsafe's fences do. Looked up reflectively
+    // because the Java 8 release API hides sun.misc, without them only the volatile fence below remains
+    private static final MethodHandle STORE_FENCE;
+    private static final MethodHandle LOAD_FENCE;
+
+    static {
+        MethodHandle storeFence = null;
+        MethodHandle loadFence = null;
+        try {
+            Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+            Field field = unsafeClass.getDeclaredField("theUnsafe");
+            field.setAccessible(true);
+            Object unsafe = field.get(null);
+            MethodHandles.Lookup lookup = MethodHandles.lookup();
+            storeFence = lookup.findVirtual(unsafeClass, "storeFence", MethodType.methodType(void.class)).bindTo(unsafe);
+            loadFence = lookup.findVirtual(unsafeClass, "loadFence", MethodType.methodType(void.class)).bindTo(unsafe);
+        } catch (ReflectiveOperationException | RuntimeException ex) {
+            storeFence = null;
+            loadFence = null;
+        }
+        STORE_FENCE = storeFence;
+        LOAD_FENCE = loadFence;
+    }
+
+    private final FileChannel fileChannel;
+    private final MappedByteBuffer buffer;
+    private final ByteBuffer writeBuffer;
+    private final int capacity;
+    private final int subscriptionsOffset;
+    private final long mask;
+    private final boolean multiProducer;
+    private final int spinTries;
+    private final int yieldTries;
+    private final long maxParkNanos;
+
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final ReentrantLock subscriptionLock = new ReentrantLock();
+    private final ConcurrentHashMap<Object, Reader> readers = new ConcurrentHashMap<>();
+
+    // Volatile write/read pair ordering the frame bytes against the cursor that publishes them.
+    private volatile long fence;
+
+    public SharedMemoryJedisExecutions(Path file) throws IOException {
+        this(file, DEFAULT_CAPACITY, false);
+    }
+
+    public SharedMemoryJedisExecutions(Path file, int capacity) throws IOException {
+        this(file, capacity, false);
+    }
+
+    public SharedMemoryJedisExecutions(Path file, int capacity, boolean multiProducer) throws IOException {
+        this(file, capacity, multiProducer, DEFAULT_SPIN_TRIES, DEFAULT_YIELD_TRIES, DEFAULT_MAX_PARK_NANOS);
+    }
+
+    public SharedMemoryJedisExecutions(Path file, int capacity, boolean multiProducer, int spinTries, int yieldTries, long maxParkNanos) throws IOException {
+        if (capacity < 1024 || Integer.bitCount(capacity) != 1)
+            throw new IllegalArgumentException("The capacity must be a power of two of at least 1024 bytes");
+        this.fileChannel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try (FileLock ignored = fileChannel.lock()) {
+            if (fileChannel.size() == 0) {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                header.putLong(MAGIC_OFFSET, MAGIC);
+                header.putLong(CAPACITY_OFFSET, capacity);
+                fileChannel.write(header, 0);
+                fileChannel.write(ByteBuffer.allocate(1), HEADER_SIZE + capacity + SUBSCRIPTIONS_SIZE - 1);
+            } else {
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+                fileChannel.read(header, 0);
+                if (header.getLong(MAGIC_OFFSET) != MAGIC)
+                    throw new ChannelException("The file " + file + " is not a shared memory ring");
+                capacity = (int) header.getLong(CAPACITY_OFFSET);
+            }
+        } catch (IOException | RuntimeException ex) {
+            fileChannel.close();
+            throw ex;
+        }
+        this.capacity = capacity;
+        this.subscriptionsOffset = HEADER_SIZE + capacity;
+        this.mask = capacity - 1;
+        this.buffer = fileChannel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE + capacity + SUBSCRIPTIONS_SIZE);
+        this.writeBuffer = buffer.duplicate();
+        this.multiProducer = multiProducer;
+        this.spinTries = spinTries;
+        this.yieldTries = yieldTries;
+        this.maxParkNanos = maxParkNanos;
+    }
+
+    @Override
+    public long pub(String channel, String message) {
+        return pubBinary(channel.getBytes(StandardCharsets.UTF_8), message.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public long pubBinary(byte[] channel, byte[] message) {
+        return pubBinary(channel, message, 0, message.length);
+    }
+
+    @Override
+    public long pubBinary(byte[] channel, byte[] message, int offset, int length) {
+        int frameLength = align(FRAME_HEADER_SIZE + channel.length + length);
+        if (frameLength > capacity / 2)
+            throw new ChannelException("The message of " + length + " bytes does not fit in the shared memory ring");
+        // Like Redis, a message nobody is subscribed to is dropped and reported as 0 receivers
+        int subscribers = subscribers(channelId(channel));
+        if (subscribers == 0)
+            return 0;
+
+        writeLock.lock();
+        try (FileLock ignored = multiProducer ? fileChannel.lock(WRITE_LOCK_OFFSET, 8, false) : null) {
+            long cursor = buffer.getLong(WRITE_CURSOR_OFFSET);
+            int index = (int) (cursor & mask);
+            int padding = capacity - index < frameLength ? capacity - index : 0;
+            // The claim covers the padding too and is published before any byte is written, so a reader copying a
+            // slot this write reaches sees it when it re-checks the claim after the copy
+            buffer.putLong(WRITE_CLAIM_OFFSET, cursor + padding + frameLength);
+            fence(STORE_FENCE);
+            if (padding > 0) {
+                buffer.putInt(HEADER_SIZE + index, -padding);
+                cursor += padding;
+                index = 0;
+            }
+
+            int position = HEADER_SIZE + index;
+            buffer.putInt(position, frameLength);
+            buffer.putInt(position + 4, channelId(channel));
+            buffer.putInt(position + 8, length);
+            buffer.putShort(position + 12, (short) channel.length);
+            writeBuffer.position(position + FRAME_HEADER_SIZE);
+            writeBuffer.put(channel);
+            writeBuffer.put(message, offset, length);
+
+            // The cursor goes last, after a release, so it never becomes visible before the frame bytes
+            cursor += frameLength;
+            fence = cursor;
+            fence(STORE_FENCE);
+            buffer.putLong(WRITE_CURSOR_OFFSET, cursor);
+            return subscribers;
+        } catch (IOException ex) {
+            throw new ChannelException("Could not lock the shared memory ring", ex);
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    @Override
+    public void sub(JedisPubSub pubSub, String... channels) {
+        byte[][] binaryChannels = new byte[channels.length][];
+        for (int i = 0; i < channels.length; i++)
+            binaryChannels[i] = channels[i].getBytes(StandardCharsets.UTF_8);
+        new Reader(pubSub, binaryChannels) {
+            @Override
+            void onMessage(byte[] channel, byte[] message) {
+                pubSub.onMessage(new String(channel, StandardCharsets.UTF_8), new String(message, StandardCharsets.UTF_8));
+            }
+
+            @Override
+            void onSubscribe(byte[] channel, int subscribedChannels) {
+                pubSub.onSubscribe(new String(channel, StandardCharsets.UTF_8), subscribedChannels);
+            }
+
+            @Override
+            void onUnsubscribe(byte[] channel, int subscribedChannels) {
+                pubSub.onUnsubscribe(new String(channel, StandardCharsets.UTF_8), subscribedChannels);
+            }
+        }.run();
+    }
+
+    @Override
+    public void subBinary(BinaryJedisPubSub pubSub, byte[]... channels) {
+        new Reader(pubSub, channels) {
+            @Override
+            void onMessage(byte[] channel, byte[] message) {
+                pubSub.onMessage(channel, message);
+            }
+
+            @Override
+            void onSubscribe(byte[] channel, int subscribedChannels) {
+                pubSub.onSubscribe(channel, subscribedChannels);
+            }
+
+            @Override
+            void onUnsubscribe(byte[] channel, int subscribedChannels) {
+                pubSub.onUnsubscribe(channel, subscribedChannels);
+            }
+        }.run();
+    }
+
+    @Override
+    public void unsub(JedisPubSub pubSub) {
+        unsubscribe(pubSub);
+    }
+
+    @Override
+    public void unsubBinary(BinaryJedisPubSub pubSub) {
+        unsubscribe(pubSub);
+    }
+
+    private void unsubscribe(Object pubSub) {
+        Reader reader = readers.get(pubSub);
+        if (reader != null)
+            reader.close();
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (Reader reader : readers.values())
+            reader.close();
+        fileChannel.close();
+    }
+
+    private long cursor() {
+        long cursor = buffer.getLong(WRITE_CURSOR_OFFSET);
+        long ignored = fence;
+        fence(LOAD_FENCE);
+        return cursor;
+    }
+
+    // True once a write has claimed the slot of position, everything read from there since may be torn
+    private boolean lapped(long position) {
+        fence(LOAD_FENCE);
+        long ignored = fence;
+        return buffer.getLong(WRITE_CLAIM_OFFSET) - position > capacity;
+    }
+
+    private int subscribers(int channelId) {
+        int slot = findSlot(channelId);
+        if (slot < 0)
+            return buffer.getLong(SUBSCRIPTIONS_FULL_OFFSET) != 0 ? 1 : 0; // Not tracked, assume someone listens
+        return buffer.getInt(slot + 4);
+    }
+
+    // A slot keeps its channel id once claimed, so probing stops at the first slot never claimed
+    private int findSlot(int channelId) {
+        for (int i = 0; i < SUBSCRIPTION_SLOTS; i++) {
+            int slot = subscriptionsOffset + ((channelId + i) & (SUBSCRIPTION_SLOTS - 1)) * SUBSCRIPTION_SLOT_SIZE;
+            int id = buffer.getInt(slot);
+            if (id == channelId)
+                return slot;
+            if (id == 0 && buffer.getInt(slot + 4) == 0)
+                return -1;
+        }
+        return -1;
+    }
+
+    // Counts are shared by every process mapping the ring, a process that dies subscribed leaves its count behind
+    private void addSubscribers(int[] channelIds, int delta) {
+        if (!fileChannel.isOpen())
+            return; // Closed under a running reader, nobody publishes anymore
+        subscriptionLock.lock();
+        try (FileLock ignored = fileChannel.lock(subscriptionsOffset, SUBSCRIPTIONS_SIZE, false)) {
+            for (int channelId : channelIds) {
+                int slot = findSlot(channelId);
+                if (slot < 0 && delta > 0)
+                    slot = claimSlot(channelId);
+                if (slot < 0) {
+                    buffer.putLong(SUBSCRIPTIONS_FULL_OFFSET, 1);
+                    continue;
+                }
+                buffer.putInt(slot + 4, Math.max(0, buffer.getInt(slot + 4) + delta));
+            }
+        } catch (ClosedChannelException ignored) {
+            // Closed while waiting for the lock
+        } catch (IOException ex) {
+            throw new ChannelException("Could not lock the shared memory subscriptions", ex);
+        } finally {
+            subscriptionLock.unlock();
+        }
+    }
+
+    private int claimSlot(int channelId) {
+        for (int i = 0; i < SUBSCRIPTION_SLOTS; i++) {
+            int slot = subscriptionsOffset + ((channelId + i) & (SUBSCRIPTION_SLOTS - 1)) * SUBSCRIPTION_SLOT_SIZE;
+            if (buffer.getInt(slot) == 0 && buffer.getInt(slot + 4) == 0) {
+                buffer.putInt(slot, channelId);
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    private static void fence(MethodHandle fence) {
+        if (fence == null)
+            return;
+        try {
+            fence.invokeExact();
+        } catch (Throwable throwable) {
+            throw new ChannelException("Could not order the shared memory ring accesses", throwable);
+        }
+    }
+
+    private static int align(int length) {
+        return (length + FRAME_ALIGNMENT - 1) & -FRAME_ALIGNMENT;
+    }
+
+    private static int channelId(byte[] channel) {
+        int hash = 0x811C9DC5;
+        for (byte b : channel) {
+            hash ^= b & 0xFF;
+            hash *= 0x01000193;
+        }
+        return hash;
+    }
+
+    private abstract class Reader {
+
+        private final Object pubSub;
+        private final byte[][] channels;
+        private final int[] channelIds;
+        private final ByteBuffer readBuffer = buffer.duplicate();
+        private volatile Thread thread;
+        private volatile boolean running = true;
+
+        private Reader(Object pubSub, byte[][] channels) {
+            this.pubSub = pubSub;
+            this.channels = channels;
+            this.channelIds = new int[channels.length];
+            for (int i = 0; i < channels.length; i++)
+                channelIds[i] = channelId(channels[i]);
+        }
+
+        void run() {
+            thread = Thread.currentThread();
+            readers.put(pubSub, this);
+            addSubscribers(channelIds, 1);
+            long position = cursor();
+            for (int i = 0; i < channels.length; i++)
+                onSubscribe(channels[i], i + 1);
+            try {
+                int idle = 0;
+                while (running && !thread.isInterrupted()) {
+                    long cursor = cursor();
+                    if (position == cursor) {
+                        idle(idle++);
+                        continue;
+                    }
+                    idle = 0;
+
+                    // Whatever is read from the slot is only trusted once the claim shows no write has reached it since
+                    int offset = HEADER_SIZE + (int) (position & mask);
+                    int frameLength = buffer.getInt(offset);
+                    if (frameLength < 0) {
+                        if (lapped(position) || frameLength < -capacity) {
+                            position = cursor();
+                            continue;
+                        }
+                        position -= frameLength;
+                        continue;
+                    }
+                    if (frameLength < FRAME_HEADER_SIZE || frameLength > capacity / 2) {
+                        position = cursor();
+                        continue;
+                    }
+
+                    int channel = match(offset);
+                    byte[] message = null;
+                    if (channel >= 0) {
+                        // A torn length must not allocate or read past the frame, such a frame is skipped like a lapped one
+                        int length = buffer.getInt(offset + 8);
+                        if (length < 0 || length > frameLength - FRAME_HEADER_SIZE - channels[channel].length) {
+                            position = cursor();
+                            continue;
+                        }
+                        message = new byte[length];
+                        readBuffer.position(offset + FRAME_HEADER_SIZE + channels[channel].length);
+                        readBuffer.get(message);
+                    }
+                    if (lapped(position)) {
+                        position = cursor();
+                        continue;
+                    }
+                    if (message != null)
+                        onMessage(channels[channel], message);
+                    position += frameLength;
+                }
+            } finally {
+                addSubscribers(channelIds, -1);
+                readers.remove(pubSub, this);
+                for (int i = channels.length - 1; i >= 0; i--)
+                    onUnsubscribe(channels[i], i);
+            }
+        }
+
+        void close() {
+            running = false;
+            LockSupport.unpark(thread);
+        }
+
+        private int match(int offset) {
+            int channelId = buffer.getInt(offset + 4);
+            int channelLength = buffer.getShort(offset + 12);
+            for (int i = 0; i < channelIds.length; i++) {
+                if (channelIds[i] == channelId && channels[i].length == channelLength && channelEquals(offset + FRAME_HEADER_SIZE, channels[i]))
+                    return i;
+            }
+            return -1;
+        }
+
+        private boolean channelEquals(int offset, byte[] channel) {
+            for (int i = 0; i < channel.length; i++) {
+                if (buffer.get(offset + i) != channel[i])
+                    return false;
+            }
+            return true;
+        }
+
+        private void idle(int idle) {
+            if (idle < spinTries)
+                return;
+            if (idle < spinTries + yieldTries) {
+                Thread.yield();
+                return;
+            }
+            int parks = idle - spinTries - yieldTries;
+            LockSupport.parkNanos(this, Math.min(maxParkNanos, 1000L << Math.min(parks, 20)));
+        }
+
+        abstract void onMessage(byte[] channel, byte[] message);
+        abstract void onSubscribe(byte[] channel, int subscribedChannels);
+        abstract void onUnsubscribe(byte[] channel, int subscribedChannels);
+    }
+
+}
@@ -54,4 +54,14 @@ public class UnifiedJedisExecutions implements JedisExecutions {
     public void subBinary(BinaryJedisPubSub pubSub, byte[]... channels) {
         unifiedJedis.subscribe(pubSub, channels);
     }
+
+    @Override
+    public void psub(JedisPubSub pubSub, String... patterns) {
+        unifiedJedis.psubscribe(pubSub, patterns);
+    }
+
+    @Override
+    public void psubBinary(BinaryJedisPubSub pubSub, byte[]... patterns) {
+        unifiedJedis.psubscribe(pubSub, patterns);
+    }
 }
@@ -0,0 +1,62 @@
+/*
+ * Copyright (c) 2024 Pedro Souza
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package com.github.eupedroosouza.messaging.flow;
+
+import com.github.eupedroosouza.messaging.connection.JedisExecutions;
+import com.github.eupedroosouza.messaging.message.MessageObject;
+import com.github.eupedroosouza.messaging.receiver.binary.ByteArrayMessageReceiver;
+import com.github.eupedroosouza.messaging.receiver.object.ObjectMessageReceiver;
+import com.github.eupedroosouza.messaging.sender.ResponseStream;
+
+public class FlowAdapters {
+
+    // The channel is joined on subscribe and left on cancel
+    public static ReceiverPublisher<MessageObject> objectMessages(JedisExecutions executions, String channel, int capacity) {
+        ReceiverPublisher<MessageObject> publisher = new ReceiverPublisher<>(capacity);
+        ObjectMessageReceiver receiver = new ObjectMessageReceiver(executions, channel) {
+            @Override
+            public <T extends MessageObject> void receive(T messageObject) {
+                publisher.offer(messageObject);
+            }
+        };
+        publisher.bind(receiver::start, receiver::pause, receiver::resume, receiver::shutdown);
+        return publisher;
+    }
+
+    public static ReceiverPublisher<byte[]> byteArrayMessages(JedisExecutions executions, String channel, int capacity) {
+        ReceiverPublisher<byte[]> publisher = new ReceiverPublisher<>(capacity);
+        ByteArrayMessageReceiver receiver = new ByteArrayMessageReceiver(executions, channel) {
+            @Override
+            public void receive(byte[] message) {
+                publisher.offer(message);
+            }
+        };
+        publisher.bind(receiver::start, receiver::pause, receiver::resume, receiver::shutdown);
+        return publisher;
+    }
+
+    public static Flow.Publisher<byte[]> responseStream(ResponseStream stream) {
+        return new ResponseStreamPublisher(stream);
+    }
+
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright (c) 2024 Pedro Souza
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package com.github.eupedroosouza.messaging.flow;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Bridges a push receiver to one subscriber. Messages wait in a bounded buffer until requested, once it fills the
+// channel is left and joined again when demand returns, messages arriving while it is full are dropped
+public class ReceiverPublisher<T> implements Flow.Publisher<T> {
+
+    static final Flow.Subscription REJECTED = new Flow.Subscription() {
+        @Override
+        public void request(long n) {
+        }
+
+        @Override
+        public void cancel() {
+        }
+    };
+
+    private final int capacity;
+    private final ArrayDeque<T> buffer;
+    private final AtomicInteger wip = new AtomicInteger();
+
+    private Runnable start;
+    private Runnable pause;
+    private Runnable resume;
+    private Runnable stop;
+
+    private Flow.Subscriber<? super T> subscriber;
+    private long demand;
+    private boolean paused;
+    private boolean cancelled;
+    private boolean started;
+    private long dropped;
+
+    public ReceiverPublisher(int capacity) {
+        this.capacity = capacity;
+        this.buffer = new ArrayDeque<>(capacity);
+    }
+
+    // The receiver starts with the subscription and shuts down with its cancellation
+    void bind(Runnable start, Runnable pause, Runnable resume, Runnable stop) {
+        this.start = start;
+        this.pause = pause;
+        this.resume = resume;
+        this.stop = stop;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super T> subscriber) {
+        synchronized (this) {
+            if (this.subscriber != null) {
+                subscriber.onSubscribe(REJECTED);
+                subscriber.onError(new IllegalStateException("A receiver publisher allows only one subscriber"));
+                return;
+            }
+            this.subscriber = subscriber;
+        }
+        subscriber.onSubscribe(new Subscription());
+        // Under the lock, so a cancel from onSubscribe or another thread either comes first and nothing starts,
+        // or comes after and finds the receiver started
+        synchronized (this) {
+            if (cancelled)
+                return;
+            started = true;
+            start.run();
+        }
+    }
+
+    // Called from the receiver, false when the message was dropped
+    public boolean offer(T item) {
+        synchronized (this) {
+            if (cancelled)
+                return false;
+            if (buffer.size() >= capacity) {
+                dropped++;
+                return false;
+            }
+            buffer.add(item);
+        }
+        drain();
+        return true;
+    }
+
+    public synchronized int getBuffered() {
+        return buffer.size();
+    }
+
+    public synchronized long getDropped() {
+        return dropped;
+    }
+
+    public synchronized boolean isPaused() {
+        return paused;
+    }
+
+    private void drain() {
+        if (wip.getAndIncrement() != 0)
+            return;
+        int missed = 1;
+        do {
+            while (true) {
+                Flow.Subscriber<? super T> current;
+                T item;
+                synchronized (this) {
+                    if (cancelled || demand == 0 || buffer.isEmpty())
+                        break;
+                    current = subscriber;
+                    item = buffer.poll();
+                    if (demand != Long.MAX_VALUE)
+                        demand--;
+                }
+                current.onNext(item);
+            }
+            boolean pauseNow = false;
+            boolean resumeNow = false;
+            synchronized (this) {
+                if (!cancelled && !paused && buffer.size() >= capacity) {
+                    paused = pauseNow = true;
+                } else if (!cancelled && paused && demand > 0 && buffer.size() <= capacity / 2) {
+                    paused = false;
+                    resumeNow = true;
+                }
+            }
+            if (pauseNow)
+                pause.run();
+            // Does not block, the receiver joins the channel again on its own thread once the paused run left it
+            if (resumeNow)
+                resume.run();
+            missed = wip.addAndGet(-missed);
+        } while (missed != 0);
+    }
+
+    private final class Subscription implements Flow.Subscription {
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                Flow.Subscriber<? super T> current;
+                synchronized (ReceiverPublisher.this) {
+                    current = subscriber;
+                }
+                cancel();
+                if (current != null)
+                    current.onError(new IllegalArgumentException("Requested " + n + " items, the demand must be positive"));
+                return;
+            }
+            synchronized (ReceiverPublisher.this) {
+                demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+            }
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            boolean stopNow;
+            synchronized (ReceiverPublisher.this) {
+                if (cancelled)
+                    return;
+                cancelled = true;
+                stopNow = started;
+                buffer.clear();
+            }
+            if (stopNow)
+                stop.run();
+        }
+
+    }
+
+}
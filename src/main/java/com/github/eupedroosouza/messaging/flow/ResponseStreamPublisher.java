@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2024 Pedro Souza
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package com.github.eupedroosouza.messaging.flow;
+
+import com.github.eupedroosouza.messaging.sender.ResponseStream;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Pulls chunks from a response stream only while there is demand, the stream's credit then holds back the receiver
+public class ResponseStreamPublisher implements Flow.Publisher<byte[]> {
+
+    private final ResponseStream stream;
+    private final AtomicBoolean subscribed = new AtomicBoolean();
+
+    public ResponseStreamPublisher(ResponseStream stream) {
+        this.stream = stream;
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super byte[]> subscriber) {
+        if (!subscribed.compareAndSet(false, true)) {
+            subscriber.onSubscribe(ReceiverPublisher.REJECTED);
+            subscriber.onError(new IllegalStateException("A response stream allows only one subscriber"));
+            return;
+        }
+        subscriber.onSubscribe(new Subscription(subscriber));
+    }
+
+    private final class Subscription implements Flow.Subscription {
+
+        private final Flow.Subscriber<? super byte[]> subscriber;
+        private final AtomicLong demand = new AtomicLong();
+        private final AtomicInteger wip = new AtomicInteger();
+        private volatile boolean done;
+
+        private Subscription(Flow.Subscriber<? super byte[]> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                cancel();
+                subscriber.onError(new IllegalArgumentException("Requested " + n + " items, the demand must be positive"));
+                return;
+            }
+            demand.getAndAccumulate(n, (current, added) -> current + added < 0 ? Long.MAX_VALUE : current + added);
+            // The stream blocks while waiting for chunks, so it is read on a pool thread
+            if (wip.getAndIncrement() == 0)
+                CompletableFuture.runAsync(this::drain);
+        }
+
+        @Override
+        public void cancel() {
+            done = true;
+            stream.close();
+        }
+
+        private void drain() {
+            int missed = 1;
+            do {
+                while (!done && demand.get() > 0) {
+                    boolean hasNext;
+                    try {
+                        hasNext = stream.hasNext();
+                    } catch (RuntimeException ex) {
+                        done = true;
+                        subscriber.onError(ex);
+                        return;
+                    }
+                    if (!hasNext) {
+                        done = true;
+                        subscriber.onComplete();
+                        return;
+                    }
+                    subscriber.onNext(stream.next());
+                    demand.getAndUpdate((current) -> current == Long.MAX_VALUE ? current : current - 1);
+                }
+                missed = wip.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+    }
+
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright (c) 2024 Pedro Souza
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package com.github.eupedroosouza.messaging.frame;
+
+class FrameFormat {
+
+    static final byte MAGIC = (byte) 0xB7;
+    static final byte VERSION = 0x01;
+
+    // magic (1), version (1), flags (4), header fields length (2)
+    static final int FIXED_HEADER_SIZE = 8;
+    static final int MAX_HEADER_FIELDS_SIZE = 0xFFFF;
+
+    // Header fields are written in the order of their flag bits
+    static final int CORRELATION_ID = 1;
+    static final int TYPE_ID = 1 << 1;
+    static final int CLASS_NAME = 1 << 2;
+    static final int DEADLINE = 1 << 3;
+    static final int REMOTE_TIMEOUT = 1 << 4;
+    static final int ERROR = 1 << 5;
+    static final int BINARY_BODY = 1 << 6;
+    static final int PRIORITY = 1 << 7;
+    static final int MESSAGE_ID = 1 << 8;
+    static final int SEQUENCE = 1 << 9;
+    static final int TRACE = 1 << 10;
+    // received at, replied at, dispatch, decode, handler, reply
+    static final int TRACE_TIMINGS = 1 << 11;
+    static final int TRACE_TIMINGS_SIZE = 48;
+    // Item count, the body holds that many length prefixed frames
+    static final int BATCH = 1 << 12;
+    // Signal (1), value (4), source (8)
+    static final int STREAM = 1 << 13;
+    // Message count, the body holds that many length prefixed messages published together
+    static final int BUNDLE = 1 << 14;
+
+}
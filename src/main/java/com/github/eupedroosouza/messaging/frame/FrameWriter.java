@@ -0,0 +1,296 @@
+/*
+ * Copyright (c) 2024 Pedro Souza
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package com.github.eupedroosouza.messaging.frame;
+
+import com.github.eupedroosouza.messaging.codec.MessageFormat;
+import com.github.eupedroosouza.messaging.codec.MessageWriter;
+import com.github.eupedroosouza.messaging.codec.binary.BinaryMessageWriter;
+import com.github.eupedroosouza.messaging.codec.json.JsonMessageWriter;
+import com.github.eupedroosouza.messaging.data.DataKeys;
+import com.github.eupedroosouza.messaging.exception.ChannelException;
+import com.github.eupedroosouza.messaging.message.priority.MessagePriority;
+import com.github.eupedroosouza.messaging.trace.Trace;
+import com.github.eupedroosouza.messaging.trace.TraceStage;
+import com.github.eupedroosouza.messaging.util.BufferUtil;
+import com.github.eupedroosouza.messaging.util.ByteArrayBuffer;
+import com.google.gson.JsonElement;
+
+import java.util.Arrays;
+import java.util.UUID;
+
+import static com.github.eupedroosouza.messaging.frame.FrameFormat.*;
+
+public class FrameWriter {
+
+    private final ByteArrayBuffer buffer;
+    private final JsonMessageWriter jsonWriter;
+    private final BinaryMessageWriter binaryWriter;
+
+    private int flags;
+    private long correlationIdMostSigBits;
+    private long correlationIdLeastSigBits;
+    private int typeId;
+    private String className;
+    private long deadline;
+    private long remoteTimeout;
+    private MessagePriority priority;
+    private long messageId;
+    private long publisherId;
+    private long sequence;
+    private Trace trace;
+    private int traceTimingsOffset;
+    private int bodyOffset;
+    private int batchSize;
+    private StreamSignal streamSignal;
+    private int streamValue;
+    private long streamSource;
+    private int bundleSize;
+
+    public FrameWriter(ByteArrayBuffer buffer) {
+        this.buffer = buffer;
+        this.jsonWriter = new JsonMessageWriter(buffer);
+        this.binaryWriter = new BinaryMessageWriter(buffer);
+    }
+
+    public void reset() {
+        buffer.reset();
+        flags = 0;
+        className = null;
+        trace = null;
+    }
+
+    public void setCorrelationId(UUID correlationId) {
+        flags |= CORRELATION_ID;
+        correlationIdMostSigBits = correlationId.getMostSignificantBits();
+        correlationIdLeastSigBits = correlationId.getLeastSignificantBits();
+    }
+
+    public void setTypeId(int typeId) {
+        flags |= TYPE_ID;
+        this.typeId = typeId;
+    }
+
+    public void setClassName(String className) {
+        flags |= CLASS_NAME;
+        this.className = className;
+    }
+
+    public void setDeadline(long deadline) {
+        flags |= DEADLINE;
+        this.deadline = deadline;
+    }
+
+    public void setRemoteTimeout(long remoteTimeout) {
+        flags |= REMOTE_TIMEOUT;
+        this.remoteTimeout = remoteTimeout;
+    }
+
+    public void setPriority(MessagePriority priority) {
+        if (priority == MessagePriority.NORMAL) {
+            flags &= ~PRIORITY;
+            return;
+        }
+        flags |= PRIORITY;
+        this.priority = priority;
+    }
+
+    public void setMessageId(long messageId) {
+        flags |= MESSAGE_ID;
+        this.messageId = messageId;
+    }
+
+    public void setSequence(long publisherId, long sequence) {
+        flags |= SEQUENCE;
+        this.publisherId = publisherId;
+        this.sequence = sequence;
+    }
+
+    public void setTrace(Trace trace) {
+        flags |= TRACE;
+        this.trace = trace;
+    }
+
+    public void setTraceTimings(Trace trace) {
+        flags |= TRACE_TIMINGS;
+        this.trace = trace;
+    }
+
+    // Rewrites the timings in place once the body is written, so the reply stage can be included
+    public void updateTraceTimings() {
+        if ((flags & TRACE_TIMINGS) != 0)
+            writeTraceTimings(buffer.array(), traceTimingsOffset);
+    }
+
+    public void setBatch(int batchSize) {
+        flags |= BATCH;
+        this.batchSize = batchSize;
+    }
+
+    public void setStream(StreamSignal signal, int value, long source) {
+        flags |= STREAM;
+        this.streamSignal = signal;
+        this.streamValue = value;
+        this.streamSource = source;
+    }
+
+    public void setBundle(int bundleSize) {
+        flags |= BUNDLE;
+        this.bundleSize = bundleSize;
+    }
+
+    public void setFormat(MessageFormat format) {
+        if (format == MessageFormat.BINARY)
+            flags |= BINARY_BODY;
+        else flags &= ~BINARY_BODY;
+    }
+
+    public ByteArrayBuffer body() {
+        buffer.reset();
+        buffer.write(MAGIC);
+        buffer.write(VERSION);
+        buffer.writeInt(flags);
+        buffer.writeShort(0);
+        if ((flags & CORRELATION_ID) != 0) {
+            buffer.writeLong(correlationIdMostSigBits);
+            buffer.writeLong(correlationIdLeastSigBits);
+        }
+        if ((flags & TYPE_ID) != 0)
+            buffer.writeInt(typeId);
+        if ((flags & CLASS_NAME) != 0) {
+            buffer.writeShort(ByteArrayBuffer.utf8Length(className));
+            buffer.writeUtf8(className);
+        }
+        if ((flags & DEADLINE) != 0)
+            buffer.writeLong(deadline);
+        if ((flags & REMOTE_TIMEOUT) != 0)
+            buffer.writeLong(remoteTimeout);
+        if ((flags & PRIORITY) != 0)
+            buffer.write(priority.ordinal());
+        if ((flags & MESSAGE_ID) != 0)
+            buffer.writeLong(messageId);
+        if ((flags & SEQUENCE) != 0) {
+            buffer.writeLong(publisherId);
+            buffer.writeLong(sequence);
+        }
+        if ((flags & TRACE) != 0) {
+            buffer.writeLong(trace.getTraceId());
+            buffer.writeLong(trace.getSentAt());
+        }
+        if ((flags & TRACE_TIMINGS) != 0) {
+            traceTimingsOffset = buffer.size();
+            for (int i = 0; i < TRACE_TIMINGS_SIZE; i += 8)
+                buffer.writeLong(0);
+            writeTraceTimings(buffer.array(), traceTimingsOffset);
+        }
+        if ((flags & BATCH) != 0)
+            buffer.writeInt(batchSize);
+        if ((flags & STREAM) != 0) {
+            buffer.write(streamSignal.ordinal());
+            buffer.writeInt(streamValue);
+            buffer.writeLong(streamSource);
+        }
+        if ((flags & BUNDLE) != 0)
+            buffer.writeInt(bundleSize);
+
+        int fieldsSize = buffer.size() - FIXED_HEADER_SIZE;
+        if (fieldsSize > MAX_HEADER_FIELDS_SIZE)
+            throw new ChannelException("The frame header fields exceed " + MAX_HEADER_FIELDS_SIZE + " bytes");
+        BufferUtil.writeShort(buffer.array(), FIXED_HEADER_SIZE - 2, fieldsSize);
+        bodyOffset = buffer.size();
+        return buffer;
+    }
+
+    private void writeTraceTimings(byte[] array, int offset) {
+        BufferUtil.writeLong(array, offset, trace.getReceivedAt());
+        BufferUtil.writeLong(array, offset + 8, trace.getRepliedAt());
+        BufferUtil.writeLong(array, offset + 16, trace.getDuration(TraceStage.DISPATCH));
+        BufferUtil.writeLong(array, offset + 24, trace.getDuration(TraceStage.DECODE));
+        BufferUtil.writeLong(array, offset + 32, trace.getDuration(TraceStage.HANDLER));
+        BufferUtil.writeLong(array, offset + 40, trace.getDuration(TraceStage.REPLY));
+    }
+
+    public JsonMessageWriter jsonBody() {
+        body();
+        jsonWriter.resume();
+        return jsonWriter;
+    }
+
+    public BinaryMessageWriter binaryBody() {
+        body();
+        return binaryWriter;
+    }
+
+    public MessageWriter bodyWriter() {
+        return (flags & BINARY_BODY) != 0 ? binaryBody() : jsonBody();
+    }
+
+    public void treeBody(JsonElement element) {
+        if ((flags & BINARY_BODY) != 0)
+            binaryBody().value(element);
+        else jsonBody().value(element);
+    }
+
+    public ByteArrayBuffer error(String errorClassName, String errorMessage) {
+        flags |= ERROR;
+        setFormat(MessageFormat.JSON);
+        JsonMessageWriter writer = jsonBody();
+        writer.beginObject(2);
+        if (errorClassName != null) {
+            writer.name(DataKeys.ERROR_CLASS_NAME_KEY);
+            writer.value(errorClassName);
+        }
+        if (errorMessage != null) {
+            writer.name(DataKeys.ERROR_MESSAGE_KEY);
+            writer.value(errorMessage);
+        }
+        writer.endObject();
+        return buffer;
+    }
+
+    // Appends a frame written by another writer as the next item of this batch body
+    public void batchItem(FrameWriter item) {
+        ByteArrayBuffer itemBuffer = item.getBuffer();
+        buffer.writeInt(itemBuffer.size());
+        buffer.write(itemBuffer.array(), 0, itemBuffer.size());
+    }
+
+    public byte[] copyBody() {
+        return Arrays.copyOfRange(buffer.array(), bodyOffset, buffer.size());
+    }
+
+    // Copies a previously written frame, pointing it at another correlation id
+    public ByteArrayBuffer replay(byte[] frame, UUID correlationId) {
+        if ((BufferUtil.readInt(frame, 2) & CORRELATION_ID) == 0)
+            throw new ChannelException("The replayed frame has no correlation id");
+        buffer.reset();
+        buffer.write(frame);
+        BufferUtil.writeLong(buffer.array(), FIXED_HEADER_SIZE, correlationId.getMostSignificantBits());
+        BufferUtil.writeLong(buffer.array(), FIXED_HEADER_SIZE + 8, correlationId.getLeastSignificantBits());
+        return buffer;
+    }
+
+    public ByteArrayBuffer getBuffer() {
+        return buffer;
+    }
+
+}
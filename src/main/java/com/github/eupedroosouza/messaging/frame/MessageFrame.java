@@ -0,0 +1,406 @@
+/*
+ * Copyright (c) 2024 Pedro Souza
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package com.github.eupedroosouza.messaging.frame;
+
+import com.github.eupedroosouza.messaging.codec.MessageFormat;
+import com.github.eupedroosouza.messaging.codec.MessageReader;
+import com.github.eupedroosouza.messaging.codec.binary.BinaryMessageReader;
+import com.github.eupedroosouza.messaging.codec.json.JsonMessageReader;
+import com.github.eupedroosouza.messaging.data.DataKeys;
+import com.github.eupedroosouza.messaging.exception.ChannelException;
+import com.github.eupedroosouza.messaging.message.MessageError;
+import com.github.eupedroosouza.messaging.message.MessageObject;
+import com.github.eupedroosouza.messaging.message.priority.MessagePriority;
+import com.github.eupedroosouza.messaging.trace.Trace;
+import com.github.eupedroosouza.messaging.trace.TraceStage;
+import com.github.eupedroosouza.messaging.util.BufferUtil;
+import com.github.eupedroosouza.messaging.util.ObjectMessageUtil;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+import static com.github.eupedroosouza.messaging.frame.FrameFormat.*;
+
+public class MessageFrame {
+
+    private final byte[] data;
+    private final int flags;
+    private final int bodyOffset;
+
+    private long correlationIdMostSigBits;
+    private long correlationIdLeastSigBits;
+    private int typeId;
+    private int classNameOffset;
+    private int classNameLength;
+    private long deadline;
+    private long remoteTimeout;
+    private MessagePriority priority = MessagePriority.NORMAL;
+    private long messageId;
+    private long publisherId;
+    private long sequence;
+    private long traceId;
+    private long traceSentAt;
+    private int traceTimingsOffset;
+    private int batchSize;
+    private StreamSignal streamSignal;
+    private int streamValue;
+    private long streamSource;
+    private int bundleSize;
+
+    private UUID correlationId;
+    private String className;
+    private byte[] body;
+    private MessageObject messageObject;
+
+    private MessageFrame(byte[] data) throws ChannelException {
+        if (!isFrame(data))
+            throw new ChannelException("The received message is not a frame");
+        if (data[1] != VERSION)
+            throw new ChannelException("Unsupported frame version " + data[1]);
+        this.data = data;
+        this.flags = BufferUtil.readInt(data, 2);
+        this.bodyOffset = FIXED_HEADER_SIZE + BufferUtil.readShort(data, FIXED_HEADER_SIZE - 2);
+        if (bodyOffset > data.length)
+            throw new ChannelException("The frame header exceeds the message length");
+
+        int position = FIXED_HEADER_SIZE;
+        if (has(CORRELATION_ID)) {
+            correlationIdMostSigBits = BufferUtil.readLong(data, position);
+            correlationIdLeastSigBits = BufferUtil.readLong(data, position + 8);
+            position += 16;
+        }
+        if (has(TYPE_ID)) {
+            typeId = BufferUtil.readInt(data, position);
+            position += 4;
+        }
+        if (has(CLASS_NAME)) {
+            classNameLength = BufferUtil.readShort(data, position);
+            classNameOffset = position + 2;
+            position = classNameOffset + classNameLength;
+        }
+        if (has(DEADLINE)) {
+            deadline = BufferUtil.readLong(data, position);
+            position += 8;
+        }
+        if (has(REMOTE_TIMEOUT)) {
+            remoteTimeout = BufferUtil.readLong(data, position);
+            position += 8;
+        }
+        if (has(PRIORITY)) {
+            int ordinal = data[position++];
+            MessagePriority[] priorities = MessagePriority.values();
+            priority = priorities[Math.min(Math.max(ordinal, 0), priorities.length - 1)];
+        }
+        if (has(MESSAGE_ID)) {
+            messageId = BufferUtil.readLong(data, position);
+            position += 8;
+        }
+        if (has(SEQUENCE)) {
+            publisherId = BufferUtil.readLong(data, position);
+            sequence = BufferUtil.readLong(data, position + 8);
+            position += 16;
+        }
+        if (has(TRACE)) {
+            traceId = BufferUtil.readLong(data, position);
+            traceSentAt = BufferUtil.readLong(data, position + 8);
+            position += 16;
+        }
+        if (has(TRACE_TIMINGS)) {
+            traceTimingsOffset = position;
+            position += TRACE_TIMINGS_SIZE;
+        }
+        if (has(BATCH)) {
+            batchSize = BufferUtil.readInt(data, position);
+            position += 4;
+        }
+        if (has(STREAM)) {
+            int ordinal = data[position];
+            StreamSignal[] signals = StreamSignal.values();
+            if (ordinal < 0 || ordinal >= signals.length)
+                throw new ChannelException("Unknown stream signal " + ordinal);
+            streamSignal = signals[ordinal];
+            streamValue = BufferUtil.readInt(data, position + 1);
+            streamSource = BufferUtil.readLong(data, position + 5);
+            position += 13;
+        }
+        if (has(BUNDLE)) {
+            bundleSize = BufferUtil.readInt(data, position);
+            position += 4;
+        }
+        if (position > bodyOffset)
+            throw new ChannelException("The frame header fields exceed the declared header length");
+    }
+
+    public static boolean isFrame(byte[] data) {
+        return data.length >= FIXED_HEADER_SIZE && data[0] == MAGIC && data[1] == VERSION;
+    }
+
+    // Checked without parsing the header, so unframed messages stay on their fast path
+    public static boolean isBundle(byte[] data) {
+        return isFrame(data) && (BufferUtil.readInt(data, 2) & BUNDLE) != 0;
+    }
+
+    public static MessageFrame read(byte[] data) throws ChannelException {
+        try {
+            return new MessageFrame(data);
+        } catch (ArrayIndexOutOfBoundsException ex) {
+            throw new ChannelException("The frame header is truncated", ex);
+        }
+    }
+
+    public boolean hasCorrelationId() {
+        return has(CORRELATION_ID);
+    }
+
+    public UUID getCorrelationId() {
+        if (correlationId == null && hasCorrelationId())
+            correlationId = new UUID(correlationIdMostSigBits, correlationIdLeastSigBits);
+        return correlationId;
+    }
+
+    public boolean hasTypeId() {
+        return has(TYPE_ID);
+    }
+
+    public int getTypeId() {
+        return typeId;
+    }
+
+    public String getClassName() {
+        if (className == null && has(CLASS_NAME))
+            className = new String(data, classNameOffset, classNameLength, StandardCharsets.UTF_8);
+        return className;
+    }
+
+    public boolean hasDeadline() {
+        return has(DEADLINE);
+    }
+
+    public long getDeadline() {
+        return deadline;
+    }
+
+    public boolean isExpired() {
+        return hasDeadline() && System.currentTimeMillis() > deadline;
+    }
+
+    public long getRemoteTimeout() {
+        return remoteTimeout;
+    }
+
+    public MessagePriority getPriority() {
+        return priority;
+    }
+
+    public boolean hasMessageId() {
+        return has(MESSAGE_ID);
+    }
+
+    public long getMessageId() {
+        return messageId;
+    }
+
+    public boolean hasSequence() {
+        return has(SEQUENCE);
+    }
+
+    public long getPublisherId() {
+        return publisherId;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public boolean hasTrace() {
+        return has(TRACE);
+    }
+
+    public long getTraceId() {
+        return traceId;
+    }
+
+    public long getTraceSentAt() {
+        return traceSentAt;
+    }
+
+    public boolean hasTraceTimings() {
+        return has(TRACE_TIMINGS);
+    }
+
+    public void readTraceTimings(Trace trace) {
+        if (!hasTraceTimings())
+            return;
+        trace.setReceivedAt(BufferUtil.readLong(data, traceTimingsOffset));
+        trace.setRepliedAt(BufferUtil.readLong(data, traceTimingsOffset + 8));
+        trace.setDuration(TraceStage.DISPATCH, BufferUtil.readLong(data, traceTimingsOffset + 16));
+        trace.setDuration(TraceStage.DECODE, BufferUtil.readLong(data, traceTimingsOffset + 24));
+        trace.setDuration(TraceStage.HANDLER, BufferUtil.readLong(data, traceTimingsOffset + 32));
+        trace.setDuration(TraceStage.REPLY, BufferUtil.readLong(data, traceTimingsOffset + 40));
+    }
+
+    public boolean isError() {
+        return has(ERROR);
+    }
+
+    public MessageError getError() throws ChannelException {
+        JsonObject object = getJsonBody().getAsJsonObject();
+        return new MessageError(
+                object.has(DataKeys.ERROR_CLASS_NAME_KEY) ? object.get(DataKeys.ERROR_CLASS_NAME_KEY).getAsString() : null,
+                object.has(DataKeys.ERROR_MESSAGE_KEY) ? object.get(DataKeys.ERROR_MESSAGE_KEY).getAsString() : null);
+    }
+
+    public MessageFormat getFormat() {
+        return has(BINARY_BODY) ? MessageFormat.BINARY : MessageFormat.JSON;
+    }
+
+    public int getBodyLength() {
+        return data.length - bodyOffset;
+    }
+
+    public boolean isBatch() {
+        return has(BATCH);
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public List<MessageFrame> getBatchItems() throws ChannelException {
+        List<MessageFrame> items = new ArrayList<>(batchSize);
+        int position = bodyOffset;
+        for (int i = 0; i < batchSize; i++) {
+            if (position + 4 > data.length)
+                throw new ChannelException("The batch body is truncated");
+            int length = BufferUtil.readInt(data, position);
+            if (length < 0 || position + 4 + length > data.length)
+                throw new ChannelException("The batch body is truncated");
+            items.add(read(Arrays.copyOfRange(data, position + 4, position + 4 + length)));
+            position += 4 + length;
+        }
+        return items;
+    }
+
+    public boolean isBundle() {
+        return has(BUNDLE);
+    }
+
+    public int getBundleSize() {
+        return bundleSize;
+    }
+
+    // The messages as they would have been published one by one, framed or not
+    public List<byte[]> getBundleItems() throws ChannelException {
+        List<byte[]> items = new ArrayList<>(bundleSize);
+        int position = bodyOffset;
+        for (int i = 0; i < bundleSize; i++) {
+            if (position + 4 > data.length)
+                throw new ChannelException("The bundle body is truncated");
+            int length = BufferUtil.readInt(data, position);
+            if (length < 0 || position + 4 + length > data.length)
+                throw new ChannelException("The bundle body is truncated");
+            items.add(Arrays.copyOfRange(data, position + 4, position + 4 + length));
+            position += 4 + length;
+        }
+        return items;
+    }
+
+    public boolean isStream() {
+        return has(STREAM);
+    }
+
+    public StreamSignal getStreamSignal() {
+        return streamSignal;
+    }
+
+    public int getStreamValue() {
+        return streamValue;
+    }
+
+    public long getStreamSource() {
+        return streamSource;
+    }
+
+    public long hashBody() {
+        return BufferUtil.hash(data, bodyOffset, getBodyLength());
+    }
+
+    public boolean bodyEquals(byte[] other) {
+        if (other.length != getBodyLength())
+            return false;
+        for (int i = 0; i < other.length; i++) {
+            if (data[bodyOffset + i] != other[i])
+                return false;
+        }
+        return true;
+    }
+
+    public byte[] getBody() {
+        if (body == null)
+            body = Arrays.copyOfRange(data, bodyOffset, data.length);
+        return body;
+    }
+
+    // A read-only view over the received message, without copying the body
+    public ByteBuffer getBodyBuffer() {
+        return ByteBuffer.wrap(data, bodyOffset, getBodyLength()).slice().asReadOnlyBuffer();
+    }
+
+    public MessageReader getBodyReader() throws ChannelException {
+        if (has(BINARY_BODY))
+            return new BinaryMessageReader(data, bodyOffset, getBodyLength());
+        return new JsonMessageReader(data, bodyOffset, getBodyLength());
+    }
+
+    public JsonElement getJsonBody() throws ChannelException {
+        if (has(BINARY_BODY))
+            return new BinaryMessageReader(data, bodyOffset, getBodyLength()).nextTree();
+        try {
+            return JsonParser.parseReader(new InputStreamReader(
+                    new ByteArrayInputStream(data, bodyOffset, getBodyLength()), StandardCharsets.UTF_8));
+        } catch (JsonParseException ex) {
+            throw new ChannelException("The frame body is not valid JSON", ex);
+        }
+    }
+
+    public MessageObject getMessageObject() throws ChannelException {
+        if (messageObject == null)
+            messageObject = ObjectMessageUtil.deserialize(this);
+        return messageObject;
+    }
+
+    private boolean has(int flag) {
+        return (flags & flag) != 0;
+    }
+
+}
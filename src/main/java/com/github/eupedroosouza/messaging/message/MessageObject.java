@@ -22,11 +22,22 @@
 
 package com.github.eupedroosouza.messaging.message;
 
+import com.github.eupedroosouza.messaging.codec.MessageCodec;
+import com.github.eupedroosouza.messaging.codec.MessageCodecs;
+import com.github.eupedroosouza.messaging.exception.ChannelException;
 import com.google.gson.JsonObject;
 
 public interface MessageObject {
 
-    JsonObject serialize();
-    void deserialize(JsonObject object);
+    default JsonObject serialize() {
+        MessageCodec<? extends MessageObject> codec = MessageCodecs.forType(getClass());
+        if (codec == null)
+            throw new ChannelException("The class " + getClass().getName() + " must implement serialize() or be annotated with @Message");
+        return MessageCodecs.toJson(codec, this);
+    }
+
+    default void deserialize(JsonObject object) {
+        throw new ChannelException("The class " + getClass().getName() + " must implement deserialize(JsonObject) or be annotated with @Message");
+    }
 
 }
@@ -25,6 +25,7 @@ package com.github.eupedroosouza.messaging.message.rpc;
 import com.github.eupedroosouza.messaging.message.MessageError;
 import com.github.eupedroosouza.messaging.message.MessageObject;
 import com.github.eupedroosouza.messaging.message.status.MessageStatus;
+import com.github.eupedroosouza.messaging.trace.Trace;
 
 import java.util.concurrent.CompletableFuture;
 
@@ -34,6 +35,7 @@ public class RPCObjectChannelResponse<R extends MessageObject>  {
     private final CompletableFuture<Void> waitingResponse = new CompletableFuture<>();
     private R response = null;
     private MessageError error = null;
+    private Trace trace = null;
 
     public MessageStatus getStatus() {
         return status;
@@ -62,4 +64,12 @@ public class RPCObjectChannelResponse<R extends MessageObject>  {
     public void setError(MessageError error) {
         this.error = error;
     }
+
+    public Trace getTrace() {
+        return trace;
+    }
+
+    public void setTrace(Trace trace) {
+        this.trace = trace;
+    }
 }
@@ -27,5 +27,7 @@ public enum MessageStatus {
     SUCCESS,
     NOT_SUBSCRIBERS_CHANNEL,
     ERROR,
+    // Written to the local journal, published once the connection recovers
+    JOURNALED,
 
 }
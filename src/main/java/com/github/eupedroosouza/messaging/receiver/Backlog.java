@@ -0,0 +1,308 @@
+/*
+ * Copyright (c) 2024 Pedro Souza
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package com.github.eupedroosouza.messaging.receiver;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+// Absorbs bursts in front of a slow handler without blocking the subscriber thread: a small heap queue,
+// then an off-heap ring, then memory-mapped spill segments. Messages only go to the deepest tier in use,
+// so every tier holds older messages than the ones below it and draining tier by tier keeps the order
+public class Backlog {
+
+    private static final long SEGMENT_BYTES = 64L * 1024 * 1024;
+
+    private final Consumer<byte[]> handler;
+    private final int heapCapacity;
+    private final ArrayDeque<byte[]> heap;
+    private final ByteBuffer ring;
+    private final File spillDirectory;
+    private final long maxSpillBytes;
+    private final String name;
+    private final ArrayDeque<Segment> segments = new ArrayDeque<>();
+    private final Thread worker;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private long ringHead;
+    private long ringTail;
+    private int ringMessages;
+    private long spilledBytes;
+    private long spilledMessages;
+    private long dropped;
+    private volatile boolean running = true;
+
+    public Backlog(String name, int heapCapacity, int offHeapBytes, File spillDirectory, long maxSpillBytes, Consumer<byte[]> handler) {
+        this.name = name;
+        this.handler = handler;
+        this.heapCapacity = heapCapacity;
+        this.heap = new ArrayDeque<>(heapCapacity);
+        this.ring = offHeapBytes > 0 ? ByteBuffer.allocateDirect(offHeapBytes) : null;
+        this.spillDirectory = spillDirectory;
+        this.maxSpillBytes = spillDirectory != null ? maxSpillBytes : 0;
+        this.worker = new Thread(this::work, name + "-backlog");
+        this.worker.setDaemon(true);
+    }
+
+    public void start() {
+        worker.start();
+    }
+
+    public void shutdown() {
+        running = false;
+        worker.interrupt();
+        lock.lock();
+        try {
+            for (Segment segment : segments)
+                segment.delete();
+            segments.clear();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Never blocks, false when every tier is full and the message was dropped
+    public boolean offer(byte[] message) {
+        lock.lock();
+        try {
+            boolean added;
+            if (spilledMessages > 0)
+                added = spill(message);
+            else if (ringMessages > 0)
+                added = offerRing(message) || spill(message);
+            else added = offerHeap(message) || offerRing(message) || spill(message);
+            if (!added) {
+                dropped++;
+                return false;
+            }
+            notEmpty.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private boolean offerHeap(byte[] message) {
+        if (heap.size() >= heapCapacity)
+            return false;
+        heap.add(message);
+        return true;
+    }
+
+    private boolean offerRing(byte[] message) {
+        if (ring == null || ringTail - ringHead + 4 + message.length > ring.capacity())
+            return false;
+        byte[] length = {(byte) (message.length >>> 24), (byte) (message.length >>> 16), (byte) (message.length >>> 8), (byte) message.length};
+        ringWrite(length);
+        ringWrite(message);
+        ringMessages++;
+        return true;
+    }
+
+    private boolean spill(byte[] message) {
+        int recordSize = 4 + message.length;
+        if (spilledBytes + recordSize > maxSpillBytes)
+            return false;
+        Segment segment = segments.peekLast();
+        if (segment == null || !segment.fits(recordSize)) {
+            try {
+                segment = new Segment(File.createTempFile(name + "-", ".spill", spillDirectory),
+                        Math.max(Math.min(SEGMENT_BYTES, maxSpillBytes), recordSize));
+            } catch (IOException ex) {
+                return false;
+            }
+            segments.add(segment);
+        }
+        segment.write(message);
+        spilledBytes += recordSize;
+        spilledMessages++;
+        return true;
+    }
+
+    private void work() {
+        while (running) {
+            byte[] message;
+            try {
+                message = next();
+            } catch (InterruptedException ex) {
+                return;
+            }
+            try {
+                handler.accept(message);
+            } catch (RuntimeException ex) {
+                Thread thread = Thread.currentThread();
+                thread.getUncaughtExceptionHandler().uncaughtException(thread, ex);
+            }
+        }
+    }
+
+    private byte[] next() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (heap.isEmpty() && ringMessages == 0 && spilledMessages == 0)
+                notEmpty.await();
+            if (!heap.isEmpty())
+                return heap.poll();
+            if (ringMessages > 0) {
+                byte[] length = ringRead(new byte[4]);
+                ringMessages--;
+                return ringRead(new byte[((length[0] & 0xFF) << 24) | ((length[1] & 0xFF) << 16) | ((length[2] & 0xFF) << 8) | (length[3] & 0xFF)]);
+            }
+            Segment segment = segments.peekFirst();
+            byte[] message = segment.read();
+            spilledBytes -= 4 + message.length;
+            spilledMessages--;
+            // The last segment is kept for the next burst, older ones are deleted
+            if (segment.isDrained()) {
+                if (segments.size() > 1) {
+                    segments.pollFirst();
+                    segment.delete();
+                } else segment.rewind();
+            }
+            return message;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void ringWrite(byte[] source) {
+        int offset = (int) (ringTail % ring.capacity());
+        int first = Math.min(source.length, ring.capacity() - offset);
+        ByteBuffer view = ring.duplicate();
+        view.position(offset);
+        view.put(source, 0, first);
+        if (first < source.length) {
+            view.position(0);
+            view.put(source, first, source.length - first);
+        }
+        ringTail += source.length;
+    }
+
+    private byte[] ringRead(byte[] target) {
+        int offset = (int) (ringHead % ring.capacity());
+        int first = Math.min(target.length, ring.capacity() - offset);
+        ByteBuffer view = ring.duplicate();
+        view.position(offset);
+        view.get(target, 0, first);
+        if (first < target.length) {
+            view.position(0);
+            view.get(target, first, target.length - first);
+        }
+        ringHead += target.length;
+        return target;
+    }
+
+    public int getHeapMessages() {
+        lock.lock();
+        try {
+            return heap.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getOffHeapMessages() {
+        lock.lock();
+        try {
+            return ringMessages;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getSpilledMessages() {
+        lock.lock();
+        try {
+            return spilledMessages;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getDropped() {
+        lock.lock();
+        try {
+            return dropped;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static final class Segment {
+
+        private final File file;
+        private final MappedByteBuffer writer;
+        private final ByteBuffer reader;
+
+        private Segment(File file, long size) throws IOException {
+            this.file = file;
+            file.deleteOnExit();
+            try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+                this.writer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+            } catch (IOException ex) {
+                file.delete();
+                throw ex;
+            }
+            this.reader = writer.duplicate();
+        }
+
+        private boolean fits(int recordSize) {
+            return writer.remaining() >= recordSize;
+        }
+
+        private void write(byte[] message) {
+            writer.putInt(message.length);
+            writer.put(message);
+        }
+
+        private byte[] read() {
+            byte[] message = new byte[reader.getInt()];
+            reader.get(message);
+            return message;
+        }
+
+        private boolean isDrained() {
+            return reader.position() == writer.position();
+        }
+
+        private void rewind() {
+            writer.clear();
+            reader.clear();
+        }
+
+        // The mapping stays valid until collected, the file itself is gone right away
+        private void delete() {
+            file.delete();
+        }
+
+    }
+
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright (c) 2024 Pedro Souza
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package com.github.eupedroosouza.messaging.receiver;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+// Keeps only the newest pending value per key, so a lagging handler skips stale updates instead of replaying them.
+// Keys are spread over the workers by hash, the values of one key are handled one at a time and in arrival order
+public class Conflator<T> {
+
+    private final Function<? super T, ?> keyExtractor;
+    private final Consumer<? super T> handler;
+    private final Shard[] shards;
+    private final AtomicLong conflated = new AtomicLong();
+    private final AtomicLong delivered = new AtomicLong();
+    private volatile boolean running = true;
+
+    @SuppressWarnings("unchecked")
+    public Conflator(String name, Function<? super T, ?> keyExtractor, int workers, Consumer<? super T> handler) {
+        this.keyExtractor = keyExtractor;
+        this.handler = handler;
+        this.shards = (Shard[]) new Conflator.Shard[workers];
+        for (int i = 0; i < workers; i++)
+            shards[i] = new Shard(name + "-conflator-" + i);
+    }
+
+    public void start() {
+        for (Shard shard : shards)
+            shard.worker.start();
+    }
+
+    public void shutdown() {
+        running = false;
+        for (Shard shard : shards)
+            shard.worker.interrupt();
+    }
+
+    // Never blocks, a key already waiting keeps its place in line and only takes the new value
+    public void offer(T value) {
+        Object key = keyExtractor.apply(value);
+        int hash = key.hashCode();
+        Shard shard = shards[((hash ^ (hash >>> 16)) & 0x7FFFFFFF) % shards.length];
+        shard.lock.lock();
+        try {
+            if (shard.pending.put(key, value) != null)
+                conflated.incrementAndGet();
+            shard.notEmpty.signal();
+        } finally {
+            shard.lock.unlock();
+        }
+    }
+
+    public int getPending() {
+        int pending = 0;
+        for (Shard shard : shards) {
+            shard.lock.lock();
+            try {
+                pending += shard.pending.size();
+            } finally {
+                shard.lock.unlock();
+            }
+        }
+        return pending;
+    }
+
+    // Values replaced by a newer one before a worker got to them
+    public long getConflated() {
+        return conflated.get();
+    }
+
+    public long getDelivered() {
+        return delivered.get();
+    }
+
+    private final class Shard {
+
+        private final LinkedHashMap<Object, T> pending = new LinkedHashMap<>();
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition notEmpty = lock.newCondition();
+        private final Thread worker;
+
+        private Shard(String name) {
+            this.worker = new Thread(this::work, name);
+            this.worker.setDaemon(true);
+        }
+
+        private void work() {
+            while (running) {
+                T value;
+                try {
+                    value = next();
+                } catch (InterruptedException ex) {
+                    return;
+                }
+                try {
+                    handler.accept(value);
+                    delivered.incrementAndGet();
+                } catch (RuntimeException ex) {
+                    Thread thread = Thread.currentThread();
+                    thread.getUncaughtExceptionHandler().uncaughtException(thread, ex);
+                }
+            }
+        }
+
+        private T next() throws InterruptedException {
+            lock.lockInterruptibly();
+            try {
+                while (pending.isEmpty())
+                    notEmpty.await();
+                Iterator<Map.Entry<Object, T>> iterator = pending.entrySet().iterator();
+                T value = iterator.next().getValue();
+                iterator.remove();
+                return value;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+    }
+
+}
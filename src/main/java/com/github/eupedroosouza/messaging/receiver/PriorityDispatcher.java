@@ -0,0 +1,158 @@
+/*
+ * Copyright (c) 2024 Pedro Souza
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package com.github.eupedroosouza.messaging.receiver;
+
+import com.github.eupedroosouza.messaging.message.priority.MessagePriority;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+public class PriorityDispatcher {
+
+    // Consecutive turns a lane may take while a lower lane is waiting
+    private static final int[] DEFAULT_WEIGHTS = {16, 4, 1};
+
+    private final ArrayDeque<Runnable>[] lanes;
+    private final int laneCapacity;
+    private final int[] weights;
+    private final int[] credits;
+    private final Thread[] workers;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final Condition notFull = lock.newCondition();
+    private int size;
+    private volatile boolean running = true;
+
+    public PriorityDispatcher(String name, int laneCapacity, int workers) {
+        this(name, laneCapacity, workers, DEFAULT_WEIGHTS);
+    }
+
+    @SuppressWarnings("unchecked")
+    public PriorityDispatcher(String name, int laneCapacity, int workers, int[] weights) {
+        int laneCount = MessagePriority.values().length;
+        if (weights.length != laneCount)
+            throw new IllegalArgumentException("Expected " + laneCount + " lane weights");
+        this.lanes = new ArrayDeque[laneCount];
+        for (int i = 0; i < laneCount; i++)
+            lanes[i] = new ArrayDeque<>();
+        this.laneCapacity = laneCapacity;
+        this.weights = weights.clone();
+        this.credits = weights.clone();
+        this.workers = new Thread[workers];
+        for (int i = 0; i < workers; i++) {
+            this.workers[i] = new Thread(this::work, name + "-worker-" + i);
+            this.workers[i].setDaemon(true);
+        }
+    }
+
+    public void start() {
+        for (Thread worker : workers)
+            worker.start();
+    }
+
+    public void shutdown() {
+        running = false;
+        lock.lock();
+        try {
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        for (Thread worker : workers)
+            worker.interrupt();
+    }
+
+    public void dispatch(MessagePriority priority, Runnable task) {
+        ArrayDeque<Runnable> lane = lanes[priority.ordinal()];
+        lock.lock();
+        try {
+            // A full lane holds back the subscriber thread instead of growing without bound
+            while (lane.size() >= laneCapacity) {
+                if (!running)
+                    throw new RejectedExecutionException("The dispatcher is shut down");
+                notFull.awaitUninterruptibly();
+            }
+            lane.add(task);
+            size++;
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public Executor executor(MessagePriority priority) {
+        return (task) -> dispatch(priority, task);
+    }
+
+    private void work() {
+        while (running) {
+            Runnable task;
+            try {
+                task = next();
+            } catch (InterruptedException ex) {
+                return;
+            }
+            try {
+                task.run();
+            } catch (RuntimeException ex) {
+                Thread thread = Thread.currentThread();
+                thread.getUncaughtExceptionHandler().uncaughtException(thread, ex);
+            }
+        }
+    }
+
+    private Runnable next() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (size == 0)
+                notEmpty.await();
+            Runnable task = null;
+            for (int i = 0; i < lanes.length && task == null; i++) {
+                if (credits[i] > 0 && !lanes[i].isEmpty()) {
+                    credits[i]--;
+                    task = lanes[i].poll();
+                }
+            }
+            if (task == null) {
+                // Every waiting lane spent its turns, start a new round
+                System.arraycopy(weights, 0, credits, 0, weights.length);
+                for (int i = 0; i < lanes.length && task == null; i++) {
+                    if (!lanes[i].isEmpty()) {
+                        credits[i]--;
+                        task = lanes[i].poll();
+                    }
+                }
+            }
+            size--;
+            notFull.signalAll();
+            return task;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+}
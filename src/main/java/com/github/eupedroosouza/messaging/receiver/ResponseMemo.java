@@ -0,0 +1,85 @@
+/*
+ * Copyright (c) 2024 Pedro Souza
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package com.github.eupedroosouza.messaging.receiver;
+
+import com.github.eupedroosouza.messaging.codec.MessageFormat;
+import com.github.eupedroosouza.messaging.frame.MessageFrame;
+import com.github.eupedroosouza.messaging.util.ByteArrayBuffer;
+import com.github.eupedroosouza.messaging.util.TinyLfuCache;
+
+import java.util.Objects;
+
+// Serialized replies of idempotent handlers, keyed by the request body before it is decoded
+public class ResponseMemo {
+
+    private final TinyLfuCache<Long, Entry> cache;
+
+    public ResponseMemo(int maxEntries, long ttlMillis) {
+        this.cache = new TinyLfuCache<>(maxEntries, ttlMillis);
+    }
+
+    public byte[] lookup(MessageFrame request) {
+        Entry entry = cache.get(key(request));
+        if (entry == null || !entry.matches(request))
+            return null;
+        return entry.reply;
+    }
+
+    public void store(MessageFrame request, ByteArrayBuffer reply) {
+        cache.put(key(request), new Entry(request, reply.toByteArray()));
+    }
+
+    public int size() {
+        return cache.size();
+    }
+
+    private static long key(MessageFrame request) {
+        long key = request.hashBody() * 31 + request.getFormat().ordinal();
+        key = key * 31 + request.getTypeId();
+        return key * 31 + Objects.hashCode(request.getClassName());
+    }
+
+    private static class Entry {
+
+        private final MessageFormat format;
+        private final int typeId;
+        private final String className;
+        private final byte[] request;
+        private final byte[] reply;
+
+        private Entry(MessageFrame request, byte[] reply) {
+            this.format = request.getFormat();
+            this.typeId = request.getTypeId();
+            this.className = request.getClassName();
+            this.request = request.getBody();
+            this.reply = reply;
+        }
+
+        private boolean matches(MessageFrame frame) {
+            return format == frame.getFormat() && typeId == frame.getTypeId() && Objects.equals(className, frame.getClassName())
+                    && frame.bodyEquals(request);
+        }
+
+    }
+
+}
@@ -0,0 +1,240 @@
+/*
+ * Copyright (c) 2024 Pedro Souza
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package com.github.eupedroosouza.messaging.receiver;
+
+import com.github.eupedroosouza.messaging.util.FutureUtil;
+
+import java.util.ArrayDeque;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+public class SequenceTracker {
+
+    private static final int MAX_PUBLISHERS = 4096;
+
+    private final int window;
+    private final long maxDelayMillis;
+    private final Executor executor;
+    // Least recently seen publishers are forgotten first, restarted publishers come back with a new id
+    private final Map<Long, Publisher> publishers = new LinkedHashMap<Long, Publisher>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Publisher> eldest) {
+            return size() > MAX_PUBLISHERS;
+        }
+    };
+
+    // Deliveries released under the lock run outside it, one at a time and in release order
+    private final ArrayDeque<Runnable> ready = new ArrayDeque<>();
+    private boolean delivering;
+
+    private long received;
+    private long lost;
+    private long late;
+    private ScheduledFuture<?> expiry;
+
+    public SequenceTracker() {
+        this(0, 0);
+    }
+
+    public SequenceTracker(int window, long maxDelayMillis) {
+        this(window, maxDelayMillis, null);
+    }
+
+    // Deliveries released by the delay run on the executor, the common pool when null
+    public SequenceTracker(int window, long maxDelayMillis, Executor executor) {
+        this.window = window;
+        this.maxDelayMillis = maxDelayMillis;
+        this.executor = executor != null ? executor : CompletableFuture::runAsync;
+    }
+
+    public void accept(long publisherId, long sequence, Runnable delivery) {
+        synchronized (this) {
+            track(publisherId, sequence, delivery);
+        }
+        deliver();
+    }
+
+    private void track(long publisherId, long sequence, Runnable delivery) {
+        received++;
+        Publisher publisher = publishers.get(publisherId);
+        if (publisher == null) {
+            publisher = new Publisher(sequence, window);
+            publishers.put(publisherId, publisher);
+        }
+        if (window == 0) {
+            if (sequence < publisher.next) {
+                late++;
+            } else {
+                skip(publisher, sequence - publisher.next);
+                publisher.next = sequence + 1;
+            }
+            ready.add(delivery);
+            return;
+        }
+
+        if (sequence < publisher.next) {
+            late++;
+            return;
+        }
+        // Give up on the oldest gaps once the sequence no longer fits the window
+        if (sequence - publisher.next >= window)
+            advance(publisher, sequence - window + 1);
+        int slot = (int) Long.remainderUnsigned(sequence, window);
+        if (publisher.pending[slot] != null)
+            return; // Handle this
+        if (publisher.pendingCount++ == 0)
+            publisher.pendingSince = System.currentTimeMillis();
+        publisher.pending[slot] = delivery;
+        drain(publisher);
+        if (publisher.pendingCount > 0 && expiry == null && maxDelayMillis > 0)
+            scheduleExpiry(maxDelayMillis);
+    }
+
+    // Whoever finds the queue idle runs it, the others return at once and their deliveries run in turn
+    private void deliver() {
+        while (true) {
+            Runnable delivery;
+            synchronized (this) {
+                if (delivering || ready.isEmpty())
+                    return;
+                delivering = true;
+                delivery = ready.poll();
+            }
+            try {
+                delivery.run();
+            } finally {
+                synchronized (this) {
+                    delivering = false;
+                }
+            }
+        }
+    }
+
+    public synchronized long getReceived() {
+        return received;
+    }
+
+    public synchronized long getLost() {
+        return lost;
+    }
+
+    public synchronized long getLate() {
+        return late;
+    }
+
+    public synchronized long getLost(long publisherId) {
+        Publisher publisher = publishers.get(publisherId);
+        return publisher == null ? 0 : publisher.lost;
+    }
+
+    public synchronized int getPublishers() {
+        return publishers.size();
+    }
+
+    // The scheduler thread only hands the expiry over, deliveries never run on it
+    private void scheduleExpiry(long delayMillis) {
+        expiry = FutureUtil.scheduler().schedule(() -> executor.execute(this::expire), delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private void expire() {
+        synchronized (this) {
+            release();
+        }
+        deliver();
+    }
+
+    private void release() {
+        expiry = null;
+        long now = System.currentTimeMillis();
+        long nextExpiry = Long.MAX_VALUE;
+        for (Publisher publisher : publishers.values()) {
+            if (publisher.pendingCount == 0)
+                continue;
+            if (now - publisher.pendingSince >= maxDelayMillis) {
+                // Skip the gap in front of the oldest buffered message
+                while (publisher.pending[(int) Long.remainderUnsigned(publisher.next, window)] == null) {
+                    skip(publisher, 1);
+                    publisher.next++;
+                }
+                drain(publisher);
+                publisher.pendingSince = now;
+            }
+            if (publisher.pendingCount > 0)
+                nextExpiry = Math.min(nextExpiry, publisher.pendingSince + maxDelayMillis - now);
+        }
+        if (nextExpiry != Long.MAX_VALUE)
+            scheduleExpiry(Math.max(1, nextExpiry));
+    }
+
+    private void advance(Publisher publisher, long next) {
+        while (publisher.next < next) {
+            int slot = (int) Long.remainderUnsigned(publisher.next++, window);
+            Runnable delivery = publisher.pending[slot];
+            if (delivery == null) {
+                skip(publisher, 1);
+                continue;
+            }
+            publisher.pending[slot] = null;
+            publisher.pendingCount--;
+            ready.add(delivery);
+        }
+    }
+
+    private void drain(Publisher publisher) {
+        while (publisher.pendingCount > 0) {
+            int slot = (int) Long.remainderUnsigned(publisher.next, window);
+            Runnable delivery = publisher.pending[slot];
+            if (delivery == null)
+                return;
+            publisher.pending[slot] = null;
+            publisher.pendingCount--;
+            publisher.next++;
+            ready.add(delivery);
+        }
+    }
+
+    private void skip(Publisher publisher, long count) {
+        publisher.lost += count;
+        lost += count;
+    }
+
+    private static class Publisher {
+
+        private final Runnable[] pending;
+        private long next;
+        private long lost;
+        private int pendingCount;
+        private long pendingSince;
+
+        private Publisher(long next, int window) {
+            this.next = next;
+            this.pending = window == 0 ? null : new Runnable[window];
+        }
+
+    }
+
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 2024 Pedro Souza
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package com.github.eupedroosouza.messaging.receiver;
+
+import com.github.eupedroosouza.messaging.connection.JedisExecutions;
+import com.github.eupedroosouza.messaging.connection.SubscriptionSupervisor;
+import com.github.eupedroosouza.messaging.util.FutureUtil;
+import com.github.eupedroosouza.messaging.util.ShardUtil;
+import redis.clients.jedis.JedisPubSub;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+// Receivers announce themselves on channel:members and each one claims the shards it owns among the live members
+public class ShardCoordinator {
+
+    private static final String JOIN = "join:";
+    private static final String HEARTBEAT = "heartbeat:";
+    private static final String LEAVE = "leave:";
+
+    private final JedisExecutions executions;
+    private final String membersChannel;
+    private final String instanceId;
+    private final int shards;
+    private final long heartbeatMillis;
+    private final Consumer<int[]> onAssignment;
+    private final ConcurrentHashMap<String, Long> members = new ConcurrentHashMap<>();
+    private final JedisPubSub pubSub;
+    private final SubscriptionSupervisor supervisor;
+    private ScheduledFuture<?> heartbeat;
+    private int[] ownedShards = new int[0];
+
+    public ShardCoordinator(JedisExecutions executions, String channel, String instanceId, int shards, long heartbeatMillis, Consumer<int[]> onAssignment) {
+        this.executions = executions;
+        this.membersChannel = channel + ":members";
+        this.instanceId = instanceId;
+        this.shards = shards;
+        this.heartbeatMillis = heartbeatMillis;
+        this.onAssignment = onAssignment;
+        this.pubSub = new JedisPubSub() {
+            @Override
+            public void onMessage(String channel, String message) {
+                int separator = message.indexOf(':');
+                if (separator < 0)
+                    return; // Handle this
+                String member = message.substring(separator + 1);
+                if (member.equals(instanceId))
+                    return;
+                if (message.startsWith(LEAVE)) {
+                    if (members.remove(member) != null)
+                        rebalance();
+                    return;
+                }
+                if (members.put(member, System.currentTimeMillis()) == null)
+                    rebalance();
+                // Answer right away so the new member does not wait a heartbeat to learn about us
+                if (message.startsWith(JOIN))
+                    executions.pub(membersChannel, HEARTBEAT + instanceId);
+            }
+
+            @Override
+            public void onSubscribe(String channel, int subscribedChannels) {
+                supervisor.onSubscribed();
+                executions.pub(membersChannel, JOIN + instanceId);
+            }
+        };
+        this.supervisor = new SubscriptionSupervisor(channel + "-members", () -> {
+            executions.sub(pubSub, membersChannel);
+        });
+    }
+
+    public void start() {
+        rebalance();
+        supervisor.start();
+        heartbeat = FutureUtil.scheduler().scheduleAtFixedRate(this::heartbeat, heartbeatMillis, heartbeatMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public void shutdown() {
+        if (heartbeat != null)
+            heartbeat.cancel(false);
+        executions.pub(membersChannel, LEAVE + instanceId);
+        supervisor.shutdown();
+        executions.unsub(pubSub);
+    }
+
+    public synchronized int[] getOwnedShards() {
+        return ownedShards.clone();
+    }
+
+    private void heartbeat() {
+        executions.pub(membersChannel, HEARTBEAT + instanceId);
+        long expiredBefore = System.currentTimeMillis() - heartbeatMillis * 3;
+        boolean changed = false;
+        for (Iterator<Long> iterator = members.values().iterator(); iterator.hasNext();) {
+            if (iterator.next() < expiredBefore) {
+                iterator.remove();
+                changed = true;
+            }
+        }
+        if (changed)
+            rebalance();
+    }
+
+    private synchronized void rebalance() {
+        TreeSet<String> liveMembers = new TreeSet<>(members.keySet());
+        liveMembers.add(instanceId);
+        int[] owned = new int[shards];
+        int count = 0;
+        for (int shard = 0; shard < shards; shard++) {
+            if (ShardUtil.owner(shard, liveMembers).equals(instanceId))
+                owned[count++] = shard;
+        }
+        owned = Arrays.copyOf(owned, count);
+        if (Arrays.equals(owned, ownedShards))
+            return;
+        ownedShards = owned;
+        onAssignment.accept(owned.clone());
+    }
+
+}
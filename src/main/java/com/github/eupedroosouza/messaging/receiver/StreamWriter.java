@@ -0,0 +1,134 @@
+/*
+ * Copyright (c) 2024 Pedro Souza
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package com.github.eupedroosouza.messaging.receiver;
+
+import com.github.eupedroosouza.messaging.connection.JedisExecutions;
+import com.github.eupedroosouza.messaging.exception.ChannelException;
+import com.github.eupedroosouza.messaging.frame.FrameWriter;
+import com.github.eupedroosouza.messaging.frame.MessageFrame;
+import com.github.eupedroosouza.messaging.frame.StreamSignal;
+import com.github.eupedroosouza.messaging.util.ByteArrayBuffer;
+import com.github.eupedroosouza.messaging.util.FutureUtil;
+
+import java.util.UUID;
+import java.util.concurrent.ThreadLocalRandom;
+
+public class StreamWriter {
+
+    // Larger writes are split, so no single publish holds a whole response
+    public static final int MAX_CHUNK_SIZE = 64 * 1024;
+
+    private final JedisExecutions executions;
+    private final byte[] channel;
+    private final UUID correlationId;
+    private final long source;
+    private final long creditTimeoutMillis;
+    private final FrameWriter frame = new FrameWriter(new ByteArrayBuffer());
+
+    private int credits;
+    private int sequence;
+    private boolean cancelled;
+
+    public StreamWriter(JedisExecutions executions, byte[] channel, UUID correlationId, int credits, long creditTimeoutMillis) {
+        this.executions = executions;
+        this.channel = channel;
+        this.correlationId = correlationId;
+        // Tells this receiver's chunks apart when several answer the same request
+        this.source = ThreadLocalRandom.current().nextLong() | 1;
+        this.credits = credits;
+        this.creditTimeoutMillis = creditTimeoutMillis;
+    }
+
+    public void write(byte[] chunk) throws ChannelException {
+        write(chunk, 0, chunk.length);
+    }
+
+    // Blocks while the sender has no room for another chunk
+    public void write(byte[] array, int offset, int length) throws ChannelException {
+        while (length > 0) {
+            int size = Math.min(length, MAX_CHUNK_SIZE);
+            awaitCredit();
+            startFrame(StreamSignal.CHUNK, sequence++).write(array, offset, size);
+            publish();
+            offset += size;
+            length -= size;
+        }
+    }
+
+    public synchronized boolean isCancelled() {
+        return cancelled;
+    }
+
+    // Credit and cancel frames from the sender, ignored when addressed to another receiver
+    public synchronized void control(MessageFrame frame) {
+        if (frame.getStreamSource() != 0 && frame.getStreamSource() != source)
+            return;
+        if (frame.getStreamSignal() == StreamSignal.CREDIT)
+            credits += frame.getStreamValue();
+        else if (frame.getStreamSignal() == StreamSignal.CANCEL)
+            cancelled = true;
+        notifyAll();
+    }
+
+    public void finish(Throwable throwable) {
+        if (isCancelled())
+            return;
+        startFrame(StreamSignal.END, sequence);
+        if (throwable != null) {
+            throwable = FutureUtil.unwrap(throwable);
+            frame.error(throwable.getClass().getCanonicalName(), throwable.getMessage());
+        }
+        publish();
+    }
+
+    private synchronized void awaitCredit() throws ChannelException {
+        long deadline = System.currentTimeMillis() + creditTimeoutMillis;
+        while (credits == 0 && !cancelled) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0)
+                throw new ChannelException("No credit from the sender after " + creditTimeoutMillis + "ms");
+            try {
+                wait(remaining);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new ChannelException("Interrupted while waiting for credit", ex);
+            }
+        }
+        if (cancelled)
+            throw new ChannelException("The stream was cancelled by the sender");
+        credits--;
+    }
+
+    private ByteArrayBuffer startFrame(StreamSignal signal, int value) {
+        frame.reset();
+        frame.setCorrelationId(correlationId);
+        frame.setStream(signal, value, source);
+        return frame.body();
+    }
+
+    private void publish() {
+        ByteArrayBuffer buffer = frame.getBuffer();
+        executions.pubBinary(channel, buffer.array(), 0, buffer.size());
+    }
+
+}
@@ -23,30 +23,55 @@
 package com.github.eupedroosouza.messaging.receiver.binary;
 
 import com.github.eupedroosouza.messaging.connection.JedisExecutions;
+import com.github.eupedroosouza.messaging.connection.SubscriptionSupervisor;
+import com.github.eupedroosouza.messaging.exception.ChannelException;
+import com.github.eupedroosouza.messaging.frame.MessageFrame;
+import com.github.eupedroosouza.messaging.receiver.Backlog;
+import com.github.eupedroosouza.messaging.receiver.SequenceTracker;
+import com.github.eupedroosouza.messaging.util.DuplicateFilter;
 import redis.clients.jedis.BinaryJedisPubSub;
 
+import java.io.File;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.Executor;
 import java.util.function.Consumer;
 
 public abstract class ByteArrayMessageReceiver {
 
+    private final JedisExecutions executions;
+    private final String channel;
     private final BinaryJedisPubSub pubSub;
-    private final Thread thread;
+    private final SubscriptionSupervisor supervisor;
+    private DuplicateFilter duplicateFilter;
+    private SequenceTracker sequenceTracker;
+    private boolean byteBufferViews;
+    private boolean bundles;
+    private Backlog backlog;
 
     public ByteArrayMessageReceiver(JedisExecutions executions, String channel) {
         this(executions, channel, (i) -> {}, (i) -> {});
     }
 
     public ByteArrayMessageReceiver(JedisExecutions executions, String channel, Consumer<Integer> onSubscribe, Consumer<Integer> onUnsubscribe) {
+        this.executions = executions;
+        this.channel = channel;
         this.pubSub = new BinaryJedisPubSub() {
             @Override
             public void onMessage(byte[] channel, byte[] message) {
-                receive(message);
+                if (backlog != null)
+                    backlog.offer(message);
+                else handle(message);
             }
 
             @Override
             public void onSubscribe(byte[] channel, int subscribedChannels) {
+                supervisor.onSubscribed();
                 onSubscribe.accept(subscribedChannels);
+                // Paused or shut down while subscribing
+                if (!supervisor.isActive())
+                    executions.unsubBinary(this);
             }
 
             @Override
@@ -54,27 +79,143 @@ public abstract class ByteArrayMessageReceiver {
                 onUnsubscribe.accept(subscribedChannels);
             }
         };
-        thread = new Thread(() -> {
+        supervisor = new SubscriptionSupervisor(channel + "-receiver", () -> {
             executions.subBinary(pubSub, channel.getBytes(StandardCharsets.UTF_8));
-        }, channel + "-receiver");
+        });
+    }
+
+    // Pairs with ByteArrayMessageSender#enableMessageIds, whose messages are framed
+    public void enableDuplicateSuppression(long windowMillis, int expectedPerWindow) {
+        this.duplicateFilter = new DuplicateFilter(windowMillis, expectedPerWindow);
+    }
+
+    // Pairs with ByteArrayMessageSender#enableSequencing
+    public void enableSequenceTracking() {
+        this.sequenceTracker = new SequenceTracker();
+    }
+
+    public void enableSequenceTracking(int reorderWindow, long maxDelayMillis) {
+        this.sequenceTracker = new SequenceTracker(reorderWindow, maxDelayMillis);
+    }
+
+    // Messages released by maxDelayMillis are handed to receive(...) on the executor, the common pool when null
+    public void enableSequenceTracking(int reorderWindow, long maxDelayMillis, Executor executor) {
+        this.sequenceTracker = new SequenceTracker(reorderWindow, maxDelayMillis, executor);
+    }
+
+    // Pairs with ByteArrayMessageSender#enableBundling. Only then are payloads checked for a bundle header,
+    // a plain sender's payloads are never split
+    public void enableBundling() {
+        this.bundles = true;
+    }
+
+    // Delivers to receive(ByteBuffer) read-only views over the received message instead of copying framed bodies
+    public void enableByteBufferViews() {
+        this.byteBufferViews = true;
+    }
+
+    // Queues messages for a slower receive(...) so the subscriber thread never blocks, spillDirectory may be null
+    public void enableBacklog(int heapMessages, int offHeapBytes, File spillDirectory, long maxSpillBytes) {
+        this.backlog = new Backlog(channel, heapMessages, offHeapBytes, spillDirectory, maxSpillBytes, this::handle);
+    }
+
+    public Backlog getBacklog() {
+        return backlog;
+    }
+
+    public SequenceTracker getSequenceTracker() {
+        return sequenceTracker;
     }
 
     public void start() {
-        thread.start();
+        if (backlog != null)
+            backlog.start();
+        supervisor.start();
     }
 
     public void shutdown() {
-        pubSub.unsubscribe();
-        thread.interrupt();
+        supervisor.shutdown();
+        executions.unsubBinary(pubSub);
+        if (backlog != null)
+            backlog.shutdown();
+    }
+
+    // Leaves the channel until resume(), messages published meanwhile are not received
+    public void pause() {
+        supervisor.shutdown();
+        executions.unsubBinary(pubSub);
+    }
+
+    // Returns at once, the subscription is joined again on the receiver's own thread
+    public void resume() {
+        supervisor.start();
+    }
+
+    private void handle(byte[] message) {
+        if (bundles && MessageFrame.isBundle(message)) {
+            List<byte[]> items;
+            try {
+                items = MessageFrame.read(message).getBundleItems();
+            } catch (ChannelException ex) {
+                // Reported instead of thrown, so the subscription survives a malformed bundle
+                Thread thread = Thread.currentThread();
+                thread.getUncaughtExceptionHandler().uncaughtException(thread, ex);
+                return;
+            }
+            for (byte[] item : items)
+                handle(item);
+            return;
+        }
+        MessageFrame frame = duplicateFilter != null || sequenceTracker != null ? readFrame(message) : null;
+        // ByteArrayMessageSender only frames messages to carry an id or a sequence, anything else is a plain payload
+        if (frame == null || (!frame.hasMessageId() && !frame.hasSequence())) {
+            if (byteBufferViews)
+                receive(ByteBuffer.wrap(message).asReadOnlyBuffer());
+            else receive(message);
+            return;
+        }
+        if (duplicateFilter != null && frame.hasMessageId() && !duplicateFilter.firstSeen(frame.getMessageId()))
+            return;
+        if (sequenceTracker != null && frame.hasSequence())
+            sequenceTracker.accept(frame.getPublisherId(), frame.getSequence(), () -> deliver(frame));
+        else deliver(frame);
+    }
+
+    // Null unless the message is a frame of this version, plain senders' payloads are delivered as they are
+    private static MessageFrame readFrame(byte[] message) {
+        if (!MessageFrame.isFrame(message))
+            return null;
+        try {
+            return MessageFrame.read(message);
+        } catch (ChannelException ex) {
+            return null;
+        }
+    }
+
+    private void deliver(MessageFrame frame) {
+        if (byteBufferViews)
+            receive(frame.getBodyBuffer());
+        else receive(frame.getBody());
     }
 
     public abstract void receive(byte[] message);
 
+    // Only called once views are enabled. The view is valid until this returns, copy what must be kept
+    public void receive(ByteBuffer message) {
+        byte[] copy = new byte[message.remaining()];
+        message.get(copy);
+        receive(copy);
+    }
+
     public BinaryJedisPubSub getPubSub() {
         return pubSub;
     }
 
     public Thread getThread() {
-        return thread;
+        return supervisor.getThread();
+    }
+
+    public SubscriptionSupervisor getSupervisor() {
+        return supervisor;
     }
 }
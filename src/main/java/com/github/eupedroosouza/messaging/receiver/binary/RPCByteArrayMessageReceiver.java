@@ -23,27 +23,52 @@
 package com.github.eupedroosouza.messaging.receiver.binary;
 
 import com.github.eupedroosouza.messaging.connection.JedisExecutions;
-import com.github.eupedroosouza.messaging.data.DataKeys;
+import com.github.eupedroosouza.messaging.connection.SubscriptionSupervisor;
+import com.github.eupedroosouza.messaging.exception.ChannelException;
+import com.github.eupedroosouza.messaging.exception.EmptyResponseException;
+import com.github.eupedroosouza.messaging.frame.FrameWriter;
+import com.github.eupedroosouza.messaging.frame.MessageFrame;
+import com.github.eupedroosouza.messaging.frame.StreamSignal;
+import com.github.eupedroosouza.messaging.receiver.PriorityDispatcher;
+import com.github.eupedroosouza.messaging.receiver.ResponseMemo;
+import com.github.eupedroosouza.messaging.receiver.StreamWriter;
+import com.github.eupedroosouza.messaging.util.BufferUtil;
+import com.github.eupedroosouza.messaging.util.ByteArrayBuffer;
 import com.github.eupedroosouza.messaging.util.FutureUtil;
-import com.github.eupedroosouza.messaging.util.GsonUtil;
-import com.google.gson.JsonObject;
-import com.google.gson.JsonParseException;
 import redis.clients.jedis.BinaryJedisPubSub;
 
 import java.nio.charset.StandardCharsets;
-import java.util.Base64;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.BiConsumer;
 
 public abstract class RPCByteArrayMessageReceiver {
 
+    private static final long STREAM_CREDIT_TIMEOUT = 30_000;
+    private static final int STREAM_THREADS = 16;
+
     private final JedisExecutions executions;
     private final byte[] binarySenderChannel;
     private final byte[] binaryReceiverChannel;
     private final BinaryJedisPubSub receiverPubSub;
-    private final Thread receiverThread;
+    private final SubscriptionSupervisor supervisor;
+    private final String channel;
+    private PriorityDispatcher dispatcher;
+    private ResponseMemo responseMemo;
+    private final ConcurrentHashMap<UUID, StreamWriter> streams = new ConcurrentHashMap<>();
+    // Stream handlers block while the sender's window is full, they get their own threads rather than the common pool's or the lanes'.
+    // Streams past the thread count wait in the queue, idle threads exit
+    private final ThreadPoolExecutor streamExecutor;
 
     public RPCByteArrayMessageReceiver(JedisExecutions executions, String channel) {
         this(executions, channel, (s, i) -> {}, (s, i) -> {});
@@ -52,67 +77,49 @@ public abstract class RPCByteArrayMessageReceiver {
     public RPCByteArrayMessageReceiver(JedisExecutions executions, String channel,
                                        BiConsumer<String, Integer> onReceiverSubscribe, BiConsumer<String, Integer> onReceiverUnsubscribe) {
         this.executions = executions;
+        this.channel = channel;
         this.binarySenderChannel = (channel + ":sender").getBytes(StandardCharsets.UTF_8);
         this.binaryReceiverChannel = (channel + ":receiver").getBytes(StandardCharsets.UTF_8);
         this.receiverPubSub = new BinaryJedisPubSub() {
             @Override
             public void onMessage(byte[] channel, byte[] message) {
-                JsonObject object;
-                try {
-                    object = GsonUtil.GSON.fromJson(new String(message, StandardCharsets.UTF_8), JsonObject.class);
-                } catch (JsonParseException ex) {
-                    throw ex; // Handle the exception
-                }
-
-                if (!object.has(DataKeys.CORRELATION_ID_KEY))
+                if (!MessageFrame.isFrame(message))
                     return; // Handle this
-                UUID correlationId;
-                try {
-                    correlationId = UUID.fromString(object.get(DataKeys.CORRELATION_ID_KEY).getAsString());
-                } catch (IllegalArgumentException ex) {
-                    throw ex; // Handle the exception
+                MessageFrame frame = MessageFrame.read(message);
+                if (!frame.hasCorrelationId())
+                    return; // Handle this
+                if (frame.isStream() && frame.getStreamSignal() != StreamSignal.OPEN) {
+                    StreamWriter writer = streams.get(frame.getCorrelationId());
+                    if (writer != null)
+                        writer.control(frame);
+                    return;
                 }
-
-                JsonObject responseObject = new JsonObject();
-                responseObject.addProperty(DataKeys.CORRELATION_ID_KEY, correlationId.toString());
-
-                if (!object.has(DataKeys.MESSAGE_KEY)) {
-                    responseObject.addProperty(DataKeys.ERROR_MESSAGE_KEY, "Empty message received");
-                    send(responseObject);
+                if (frame.isExpired())
+                    return; // The sender is no longer waiting for this response
+                if (frame.isBatch()) {
+                    onBatch(frame);
                     return;
                 }
-
-                byte[] messageReceived;
-                try {
-                    messageReceived = Base64.getDecoder().decode(object.get(DataKeys.MESSAGE_KEY).getAsString());
-                } catch (IllegalArgumentException ex) {
-                    responseObject.addProperty(DataKeys.ERROR_CLASS_NAME_KEY, ex.getClass().getCanonicalName());
-                    responseObject.addProperty(DataKeys.ERROR_MESSAGE_KEY, ex.getMessage());
-                    send(responseObject);
+                if (frame.isStream()) {
+                    onStream(frame);
                     return;
                 }
-
-                long remoteTimeout = object.has(DataKeys.REMOTE_TIMEOUT_KEY) ? object.get(DataKeys.REMOTE_TIMEOUT_KEY).getAsLong() : 0;
-                FutureUtil.exceptionAsyncFuture(() -> {
-                    byte[] response = remoteTimeout > 0 ?
-                            receive(messageReceived).get(remoteTimeout, TimeUnit.MILLISECONDS) :
-                            receive(messageReceived).get();
-
-                    responseObject.addProperty(DataKeys.RESPONSE_KEY, Base64.getEncoder().encodeToString(response));
-                    send(responseObject);
-                    return null;
-                }).whenComplete((unused, throwable) -> {
-                    if (throwable != null) {
-                        responseObject.addProperty(DataKeys.ERROR_CLASS_NAME_KEY, throwable.getClass().getCanonicalName());
-                        responseObject.addProperty(DataKeys.ERROR_MESSAGE_KEY, throwable.getMessage());
-                        send(responseObject);
+                if (responseMemo != null) {
+                    byte[] cached = responseMemo.lookup(frame);
+                    if (cached != null) {
+                        send(BufferUtil.frameWriter().replay(cached, frame.getCorrelationId()));
+                        return;
                     }
-                });
+                }
 
+                Executor executor = dispatcher != null ? dispatcher.executor(frame.getPriority()) : null;
+                FutureUtil.within(FutureUtil.composeAsync(() -> receive(frame.getBody()), executor), frame.getRemoteTimeout(), TimeUnit.MILLISECONDS, executor)
+                        .whenComplete((response, throwable) -> reply(frame, response, throwable));
             }
 
             @Override
             public void onSubscribe(byte[] channel, int subscribedChannels) {
+                supervisor.onSubscribed();
                 onReceiverSubscribe.accept(new String(channel, StandardCharsets.UTF_8), subscribedChannels);
             }
 
@@ -121,24 +128,159 @@ public abstract class RPCByteArrayMessageReceiver {
                 onReceiverUnsubscribe.accept(new String(channel, StandardCharsets.UTF_8), subscribedChannels);
             }
         };
-        this.receiverThread = new Thread(() -> {
+        this.supervisor = new SubscriptionSupervisor(new String(binarySenderChannel, StandardCharsets.UTF_8) + "-receiver", () -> {
             executions.subBinary(receiverPubSub, binarySenderChannel);
-        }, new String(binarySenderChannel, StandardCharsets.UTF_8) + "-receiver");
+        });
+        AtomicInteger streamThreads = new AtomicInteger();
+        this.streamExecutor = new ThreadPoolExecutor(STREAM_THREADS, STREAM_THREADS, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), (runnable) -> {
+            Thread thread = new Thread(runnable, channel + "-stream-" + streamThreads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.streamExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    public void enablePriorityLanes(int laneCapacity, int workers) {
+        this.dispatcher = new PriorityDispatcher(channel + "-priority", laneCapacity, workers);
+    }
+
+    // Only for handlers whose reply depends on nothing but the request, hits skip the handler
+    public void enableResponseCache(int maxEntries, long ttlMillis) {
+        this.responseMemo = new ResponseMemo(maxEntries, ttlMillis);
+    }
+
+    public SubscriptionSupervisor getSupervisor() {
+        return supervisor;
     }
 
     public void start() {
-        receiverThread.start();
+        if (dispatcher != null)
+            dispatcher.start();
+        supervisor.start();
     }
 
     public void shutdown() {
-        receiverPubSub.unsubscribe();
-        receiverThread.interrupt();
+        supervisor.shutdown();
+        executions.unsubBinary(receiverPubSub);
+        if (dispatcher != null)
+            dispatcher.shutdown();
+        streamExecutor.shutdown();
+    }
+
+    private void onStream(MessageFrame frame) {
+        UUID correlationId = frame.getCorrelationId();
+        StreamWriter writer = new StreamWriter(executions, binaryReceiverChannel, correlationId, frame.getStreamValue(),
+                frame.getRemoteTimeout() > 0 ? frame.getRemoteTimeout() : STREAM_CREDIT_TIMEOUT);
+        streams.put(correlationId, writer);
+        Runnable task = () -> {
+            Throwable failure = null;
+            try {
+                receiveStream(frame.getBody(), writer);
+            } catch (Exception ex) {
+                failure = ex;
+            }
+            try {
+                writer.finish(failure);
+            } finally {
+                streams.remove(correlationId, writer);
+            }
+        };
+        try {
+            streamExecutor.execute(task);
+        } catch (RejectedExecutionException ex) {
+            // Shut down, the sender's stream ends with the error instead of waiting out its idle timeout
+            try {
+                writer.finish(ex);
+            } finally {
+                streams.remove(correlationId, writer);
+            }
+        }
+    }
+
+    private void onBatch(MessageFrame frame) {
+        List<MessageFrame> items;
+        try {
+            items = frame.getBatchItems();
+        } catch (ChannelException ex) {
+            return; // Handle this
+        }
+        Executor executor = dispatcher != null ? dispatcher.executor(frame.getPriority()) : null;
+        List<CompletableFuture<byte[]>> results = new ArrayList<>(Collections.nCopies(items.size(), null));
+        FutureUtil.within(FutureUtil.composeAsync(() -> handleBatch(items, results), executor), frame.getRemoteTimeout(), TimeUnit.MILLISECONDS, executor)
+                .whenComplete((unused, throwable) -> replyBatch(frame, results, throwable));
+    }
+
+    private CompletableFuture<Void> handleBatch(List<MessageFrame> items, List<CompletableFuture<byte[]>> results) {
+        List<byte[]> messages = new ArrayList<>(items.size());
+        for (MessageFrame item : items)
+            messages.add(item.getBody());
+        List<CompletableFuture<byte[]>> handled = receiveBatch(messages);
+        for (int i = 0; i < handled.size() && i < items.size(); i++)
+            results.set(i, handled.get(i));
+        return CompletableFuture.allOf(handled.toArray(new CompletableFuture[0])).handle((unused, throwable) -> null);
     }
 
-    private void send(JsonObject object) {
-        executions.pubBinary(binaryReceiverChannel, GsonUtil.GSON.toJson(object).getBytes(StandardCharsets.UTF_8));
+    // One reply for the whole batch, items that failed or did not finish in time carry their own error
+    private void replyBatch(MessageFrame request, List<CompletableFuture<byte[]>> results, Throwable throwable) {
+        FrameWriter responseFrame = BufferUtil.frameWriter();
+        responseFrame.setCorrelationId(request.getCorrelationId());
+        responseFrame.setBatch(results.size());
+        responseFrame.body();
+        FrameWriter itemFrame = new FrameWriter(new ByteArrayBuffer());
+        for (CompletableFuture<byte[]> result : results) {
+            Throwable error = result == null || !result.isDone()
+                    ? (throwable != null ? throwable : new EmptyResponseException("Empty response"))
+                    : FutureUtil.failure(result);
+            if (error == null && result.join() == null)
+                error = new EmptyResponseException("Empty response");
+            itemFrame.reset();
+            if (error != null) {
+                error = FutureUtil.unwrap(error);
+                itemFrame.error(error.getClass().getCanonicalName(), error.getMessage());
+            } else itemFrame.body().write(result.join());
+            responseFrame.batchItem(itemFrame);
+        }
+        send(responseFrame.getBuffer());
+    }
+
+    private void reply(MessageFrame request, byte[] response, Throwable throwable) {
+        FrameWriter responseFrame = BufferUtil.frameWriter();
+        responseFrame.setCorrelationId(request.getCorrelationId());
+        if (throwable == null && response == null)
+            throwable = new EmptyResponseException("Empty response");
+        if (throwable != null) {
+            throwable = FutureUtil.unwrap(throwable);
+            send(responseFrame.error(throwable.getClass().getCanonicalName(), throwable.getMessage()));
+            return;
+        }
+        ByteArrayBuffer buffer = responseFrame.body();
+        buffer.write(response);
+        if (responseMemo != null)
+            responseMemo.store(request, buffer);
+        send(buffer);
+    }
+
+    private void send(ByteArrayBuffer buffer) {
+        executions.pubBinary(binaryReceiverChannel, buffer.array(), 0, buffer.size());
     }
 
     public abstract CompletableFuture<byte[]> receive(byte[] message);
 
+    // Override to answer a sendStream in chunks, writes block while the sender's window is full.
+    // Runs on the receiver's stream threads, never on the common pool
+    public void receiveStream(byte[] message, StreamWriter writer) throws Exception {
+        byte[] response = receive(message).get();
+        if (response == null)
+            throw new EmptyResponseException("Empty response");
+        writer.write(response);
+    }
+
+    // Override to handle a sendBatch as a whole, one result per message in the same order
+    public List<CompletableFuture<byte[]>> receiveBatch(List<byte[]> messages) {
+        List<CompletableFuture<byte[]>> results = new ArrayList<>(messages.size());
+        for (byte[] message : messages)
+            results.add(receive(message));
+        return results;
+    }
+
 }
@@ -23,79 +23,195 @@
 package com.github.eupedroosouza.messaging.receiver.object;
 
 import com.github.eupedroosouza.messaging.connection.JedisExecutions;
-import com.github.eupedroosouza.messaging.data.DataKeys;
-import com.github.eupedroosouza.messaging.exception.ChannelException;
+import com.github.eupedroosouza.messaging.connection.MessageObjectListener;
+import com.github.eupedroosouza.messaging.connection.SubscriptionSupervisor;
+import com.github.eupedroosouza.messaging.frame.MessageFrame;
 import com.github.eupedroosouza.messaging.message.MessageObject;
-import com.github.eupedroosouza.messaging.util.GsonUtil;
-import com.github.eupedroosouza.messaging.util.ObjectMessageUtil;
-import com.google.gson.JsonObject;
-import com.google.gson.JsonParseException;
-import redis.clients.jedis.JedisPubSub;
-
+import com.github.eupedroosouza.messaging.receiver.Backlog;
+import com.github.eupedroosouza.messaging.receiver.Conflator;
+import com.github.eupedroosouza.messaging.receiver.PriorityDispatcher;
+import com.github.eupedroosouza.messaging.receiver.SequenceTracker;
+import com.github.eupedroosouza.messaging.util.DuplicateFilter;
+import redis.clients.jedis.BinaryJedisPubSub;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executor;
 import java.util.function.Consumer;
+import java.util.function.Function;
 
 public abstract class ObjectMessageReceiver {
 
-    private final JedisPubSub pubSub;
-    private final Thread thread;
+    private final JedisExecutions executions;
+    private final BinaryJedisPubSub pubSub;
+    private final SubscriptionSupervisor supervisor;
+    private final String channel;
+    private PriorityDispatcher dispatcher;
+    private DuplicateFilter duplicateFilter;
+    private SequenceTracker sequenceTracker;
+    private Backlog backlog;
+    private Conflator<MessageObject> conflator;
 
     public ObjectMessageReceiver(JedisExecutions executions, String channel) {
         this(executions, channel, (i) -> {}, (i) -> {});
     }
 
     public ObjectMessageReceiver(JedisExecutions executions, String channel, Consumer<Integer> onSubscribe, Consumer<Integer> onUnsubscribe) {
-        this.pubSub = new JedisPubSub() {
+        this.executions = executions;
+        this.channel = channel;
+        class ReceiverPubSub extends BinaryJedisPubSub implements MessageObjectListener {
             @Override
-            public void onMessage(String channel, String message) {
-                JsonObject object;
-                try {
-                    object = GsonUtil.GSON.fromJson(message, JsonObject.class);
-                } catch (JsonParseException ex) {
-                    throw ex; // Handle the exception
-                }
-
-                if (!object.has(DataKeys.CLASS_NAME_KEY))
-                    return; // Handle this
-
-                if (!object.has(DataKeys.MESSAGE_KEY))
-                    return; // Handle this
-
-                String className = object.get(DataKeys.CLASS_NAME_KEY).getAsString();
-                JsonObject messageReceived = object.get(DataKeys.MESSAGE_KEY).getAsJsonObject();
-                try {
-                    Class<? extends MessageObject> clazz = Class.forName(className).asSubclass(MessageObject.class);
-                    receive((MessageObject) ObjectMessageUtil.deserialize(clazz, messageReceived));
-                } catch (ClassNotFoundException ex) {
-                    throw new ChannelException("Class " + className + " of received message not found", ex);  // Handle the exception
-                } catch (ClassCastException ex) {
-                    throw new ChannelException("The class " + className + " is not assignable from MessageObject", ex); // Handle the exception
-                } catch(Exception ex) {
-                    throw ex; // Handle the exception
-                }
+            public void onMessage(byte[] channel, byte[] message) {
+                if (backlog != null)
+                    backlog.offer(message);
+                else handle(message);
             }
 
             @Override
-            public void onSubscribe(String channel, int subscribedChannels) {
+            public void onSubscribe(byte[] channel, int subscribedChannels) {
+                supervisor.onSubscribed();
                 onSubscribe.accept(subscribedChannels);
+                // Paused or shut down while subscribing
+                if (!supervisor.isActive())
+                    executions.unsubBinary(this);
             }
 
             @Override
-            public void onUnsubscribe(String channel, int subscribedChannels) {
+            public void onUnsubscribe(byte[] channel, int subscribedChannels) {
                 onUnsubscribe.accept(subscribedChannels);
             }
-        };
-        this.thread = new Thread(() -> {
-            executions.sub(pubSub, channel);
+
+            @Override
+            public void onMessageObject(String channel, MessageObject messageObject) {
+                if (conflator != null)
+                    conflator.offer(messageObject);
+                else receive(messageObject);
+            }
+
+            @Override
+            public boolean acceptsMessageObjects() {
+                return duplicateFilter == null && sequenceTracker == null && backlog == null;
+            }
+        }
+        this.pubSub = new ReceiverPubSub();
+        this.supervisor = new SubscriptionSupervisor(channel + "-receiver", () -> {
+            executions.subBinary(pubSub, channel.getBytes(StandardCharsets.UTF_8));
         });
     }
 
+    public void enablePriorityLanes(int laneCapacity, int workers) {
+        this.dispatcher = new PriorityDispatcher(channel + "-priority", laneCapacity, workers);
+    }
+
+    public void enableDuplicateSuppression(long windowMillis, int expectedPerWindow) {
+        this.duplicateFilter = new DuplicateFilter(windowMillis, expectedPerWindow);
+    }
+
+    public void enableSequenceTracking() {
+        this.sequenceTracker = new SequenceTracker();
+    }
+
+    // Restores publisher order after the dispatch stage, within the window or until the delay runs out
+    public void enableSequenceTracking(int reorderWindow, long maxDelayMillis) {
+        this.sequenceTracker = new SequenceTracker(reorderWindow, maxDelayMillis);
+    }
+
+    // Messages released by maxDelayMillis are handed to receive(...) on the executor, the common pool when null
+    public void enableSequenceTracking(int reorderWindow, long maxDelayMillis, Executor executor) {
+        this.sequenceTracker = new SequenceTracker(reorderWindow, maxDelayMillis, executor);
+    }
+
+    // Queues encoded messages for a slower receive(...) so the subscriber thread never blocks, spillDirectory may be null
+    public void enableBacklog(int heapMessages, int offHeapBytes, File spillDirectory, long maxSpillBytes) {
+        this.backlog = new Backlog(channel, heapMessages, offHeapBytes, spillDirectory, maxSpillBytes, this::handle);
+    }
+
+    // For state channels where only the newest update per key matters, handler load is bounded by the number of keys.
+    // Replaces priority lanes and sequence tracking, the workers already keep each key in arrival order
+    public void enableConflation(Function<MessageObject, ?> keyExtractor, int workers) {
+        this.conflator = new Conflator<>(channel, keyExtractor, workers, this::receive);
+    }
+
+    public Conflator<MessageObject> getConflator() {
+        return conflator;
+    }
+
+    public Backlog getBacklog() {
+        return backlog;
+    }
+
+    public SubscriptionSupervisor getSupervisor() {
+        return supervisor;
+    }
+
+    public SequenceTracker getSequenceTracker() {
+        return sequenceTracker;
+    }
+
     public void start() {
-        thread.start();
+        if (dispatcher != null)
+            dispatcher.start();
+        if (conflator != null)
+            conflator.start();
+        if (backlog != null)
+            backlog.start();
+        supervisor.start();
     }
 
     public void shutdown() {
-        pubSub.unsubscribe();
-        thread.interrupt();
+        supervisor.shutdown();
+        executions.unsubBinary(pubSub);
+        if (backlog != null)
+            backlog.shutdown();
+        if (dispatcher != null)
+            dispatcher.shutdown();
+        if (conflator != null)
+            conflator.shutdown();
+    }
+
+    // Leaves the channel until resume(), messages published meanwhile are not received
+    public void pause() {
+        supervisor.shutdown();
+        executions.unsubBinary(pubSub);
+    }
+
+    // Returns at once, the subscription is joined again on the receiver's own thread
+    public void resume() {
+        supervisor.start();
+    }
+
+    private void handle(byte[] message) {
+        if (!MessageFrame.isFrame(message))
+            return; // Handle this
+        MessageFrame frame = MessageFrame.read(message);
+        if (frame.isBundle()) {
+            for (byte[] item : frame.getBundleItems())
+                handle(item);
+            return;
+        }
+        if (frame.isExpired())
+            return;
+        if (duplicateFilter != null && frame.hasMessageId() && !duplicateFilter.firstSeen(frame.getMessageId()))
+            return;
+        if (conflator != null)
+            conflator.offer(frame.getMessageObject());
+        else if (dispatcher != null)
+            dispatcher.dispatch(frame.getPriority(), () -> deliver(frame));
+        else deliver(frame);
+    }
+
+    private void deliver(MessageFrame frame) {
+        if (sequenceTracker == null || !frame.hasSequence()) {
+            receive(frame);
+            return;
+        }
+        // Decoding stays parallel, only the hand-off to the handler is ordered
+        frame.getMessageObject();
+        sequenceTracker.accept(frame.getPublisherId(), frame.getSequence(), () -> receive(frame));
+    }
+
+    public void receive(MessageFrame frame) {
+        receive(frame.getMessageObject());
     }
 
     public abstract <T extends MessageObject> void receive(T messageObject);
@@ -0,0 +1,128 @@
+/*
+ * Copyright (c) 2024 Pedro Souza
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package com.github.eupedroosouza.messaging.receiver.object;
+
+import com.github.eupedroosouza.messaging.connection.JedisExecutions;
+import com.github.eupedroosouza.messaging.connection.MessageObjectListener;
+import com.github.eupedroosouza.messaging.connection.SubscriptionSupervisor;
+import com.github.eupedroosouza.messaging.frame.MessageFrame;
+import com.github.eupedroosouza.messaging.message.MessageObject;
+import com.github.eupedroosouza.messaging.util.PatternTrie;
+import redis.clients.jedis.BinaryJedisPubSub;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.function.BiConsumer;
+
+public class PatternObjectMessageReceiver {
+
+    private final JedisExecutions executions;
+    private final PatternTrie<BiConsumer<String, MessageObject>> handlers;
+    private final BinaryJedisPubSub pubSub;
+    private final SubscriptionSupervisor supervisor;
+
+    public PatternObjectMessageReceiver(JedisExecutions executions, String... patterns) {
+        this(executions, patterns, (s, i) -> {}, (s, i) -> {});
+    }
+
+    public PatternObjectMessageReceiver(JedisExecutions executions, String[] patterns,
+                                        BiConsumer<String, Integer> onSubscribe, BiConsumer<String, Integer> onUnsubscribe) {
+        this(executions, patterns, 4096, onSubscribe, onUnsubscribe);
+    }
+
+    public PatternObjectMessageReceiver(JedisExecutions executions, String[] patterns, int routeCacheSize,
+                                        BiConsumer<String, Integer> onSubscribe, BiConsumer<String, Integer> onUnsubscribe) {
+        this.executions = executions;
+        this.handlers = new PatternTrie<>(routeCacheSize);
+        class ReceiverPubSub extends BinaryJedisPubSub implements MessageObjectListener {
+            @Override
+            public void onPMessage(byte[] pattern, byte[] channel, byte[] message) {
+                String channelName = new String(channel, StandardCharsets.UTF_8);
+                List<BiConsumer<String, MessageObject>> channelHandlers = handlers.match(channelName);
+                if (channelHandlers.isEmpty())
+                    return; // No handler for this channel, dropped without decoding the body
+                if (!MessageFrame.isFrame(message))
+                    return; // Handle this
+                MessageFrame frame = MessageFrame.read(message);
+                if (frame.isBundle()) {
+                    for (byte[] item : frame.getBundleItems())
+                        onPMessage(pattern, channel, item);
+                    return;
+                }
+                if (frame.isExpired())
+                    return;
+                dispatch(channelHandlers, channelName, frame.getMessageObject());
+            }
+
+            @Override
+            public void onPSubscribe(byte[] pattern, int subscribedChannels) {
+                supervisor.onSubscribed();
+                onSubscribe.accept(new String(pattern, StandardCharsets.UTF_8), subscribedChannels);
+            }
+
+            @Override
+            public void onPUnsubscribe(byte[] pattern, int subscribedChannels) {
+                onUnsubscribe.accept(new String(pattern, StandardCharsets.UTF_8), subscribedChannels);
+            }
+
+            @Override
+            public void onMessageObject(String channel, MessageObject messageObject) {
+                dispatch(handlers.match(channel), channel, messageObject);
+            }
+        }
+        this.pubSub = new ReceiverPubSub();
+        byte[][] binaryPatterns = new byte[patterns.length][];
+        for (int i = 0; i < patterns.length; i++)
+            binaryPatterns[i] = patterns[i].getBytes(StandardCharsets.UTF_8);
+        this.supervisor = new SubscriptionSupervisor(String.join(",", patterns) + "-receiver", () -> {
+            executions.psubBinary(pubSub, binaryPatterns);
+        });
+    }
+
+    public void start() {
+        supervisor.start();
+    }
+
+    public void shutdown() {
+        supervisor.shutdown();
+        executions.punsubBinary(pubSub);
+    }
+
+    public SubscriptionSupervisor getSupervisor() {
+        return supervisor;
+    }
+
+    public void register(String pattern, BiConsumer<String, MessageObject> handler) {
+        handlers.add(pattern, handler);
+    }
+
+    public boolean unregister(String pattern, BiConsumer<String, MessageObject> handler) {
+        return handlers.remove(pattern, handler);
+    }
+
+    private static void dispatch(List<BiConsumer<String, MessageObject>> channelHandlers, String channel, MessageObject messageObject) {
+        for (BiConsumer<String, MessageObject> handler : channelHandlers)
+            handler.accept(channel, messageObject);
+    }
+
+}
@@ -22,28 +22,52 @@
 
 package com.github.eupedroosouza.messaging.receiver.object;
 
+import com.github.eupedroosouza.messaging.codec.MessageFormat;
+import com.github.eupedroosouza.messaging.exception.ChannelException;
+import com.github.eupedroosouza.messaging.exception.EmptyResponseException;
 import com.github.eupedroosouza.messaging.connection.JedisExecutions;
-import com.github.eupedroosouza.messaging.data.DataKeys;
+import com.github.eupedroosouza.messaging.connection.SubscriptionSupervisor;
+import com.github.eupedroosouza.messaging.frame.FrameWriter;
+import com.github.eupedroosouza.messaging.frame.MessageFrame;
 import com.github.eupedroosouza.messaging.message.MessageObject;
+import com.github.eupedroosouza.messaging.receiver.PriorityDispatcher;
+import com.github.eupedroosouza.messaging.receiver.ResponseMemo;
+import com.github.eupedroosouza.messaging.receiver.ShardCoordinator;
+import com.github.eupedroosouza.messaging.trace.Trace;
+import com.github.eupedroosouza.messaging.trace.TraceStage;
+import com.github.eupedroosouza.messaging.trace.Tracer;
+import com.github.eupedroosouza.messaging.util.BufferUtil;
+import com.github.eupedroosouza.messaging.util.ByteArrayBuffer;
 import com.github.eupedroosouza.messaging.util.FutureUtil;
-import com.github.eupedroosouza.messaging.util.GsonUtil;
 import com.github.eupedroosouza.messaging.util.ObjectMessageUtil;
-import com.google.gson.JsonObject;
-import com.google.gson.JsonParseException;
-import redis.clients.jedis.JedisPubSub;
+import redis.clients.jedis.BinaryJedisPubSub;
 
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
 import java.util.function.BiConsumer;
 
 public abstract class RPCObjectMessageReceiver {
 
     private final JedisExecutions executions;
-    private final String receiverChannel;
+    private final byte[] binaryReceiverChannel;
 
-    private final JedisPubSub receiverPubSub;
-    private final Thread receiverThread;
+    private final BinaryJedisPubSub receiverPubSub;
+    private final SubscriptionSupervisor supervisor;
+    private final String channel;
+    private PriorityDispatcher dispatcher;
+    private Tracer tracer;
+    private String instanceId;
+    private ShardCoordinator shardCoordinator;
+    private BinaryJedisPubSub shardPubSub;
+    private volatile SubscriptionSupervisor shardSupervisor;
+    private ResponseMemo responseMemo;
 
     public RPCObjectMessageReceiver(JedisExecutions executions, String channel) {
         this(executions, channel, (c, sc) -> {}, (c, sc) -> {});
@@ -52,89 +76,300 @@ public abstract class RPCObjectMessageReceiver {
     public RPCObjectMessageReceiver(JedisExecutions executions, String channel, BiConsumer<String, Integer> onReceiverSubscribe,
                                     BiConsumer<String, Integer> onReceiverUnsubscribe) {
         this.executions = executions;
-        String senderChannel = (channel + ":sender");
-        this.receiverChannel = (channel + ":receiver");
-        this.receiverPubSub = new JedisPubSub() {
+        this.channel = channel;
+        byte[] binarySenderChannel = (channel + ":sender").getBytes(StandardCharsets.UTF_8);
+        this.binaryReceiverChannel = (channel + ":receiver").getBytes(StandardCharsets.UTF_8);
+        this.receiverPubSub = new BinaryJedisPubSub() {
             @Override
-            public void onMessage(String channel, String message) {
-                JsonObject object;
-                try {
-                    object = GsonUtil.GSON.fromJson(message, JsonObject.class);
-                } catch (JsonParseException ex) {
-                    throw ex; // Handle the exception
-                }
-
-                if (!object.has(DataKeys.CORRELATION_ID_KEY))
-                    return; // Handle this
-                UUID correlationId;
-                try {
-                    correlationId = UUID.fromString(object.get(DataKeys.CORRELATION_ID_KEY).getAsString());
-                } catch (IllegalArgumentException ex) {
-                    throw ex; // Handle the exception
-                }
-
-                JsonObject responseObject = new JsonObject();
-                responseObject.addProperty(DataKeys.CORRELATION_ID_KEY, correlationId.toString());
-
-                if (!object.has(DataKeys.MESSAGE_KEY)) {
-                    responseObject.addProperty(DataKeys.ERROR_MESSAGE_KEY, "Empty message received");
-                    send(responseObject);
-                    return;
-                }
-
-                JsonObject messageReceived = object.get(DataKeys.MESSAGE_KEY).getAsJsonObject();
-                String className = messageReceived.get(DataKeys.CLASS_NAME_KEY).getAsString();
-                long timeout = messageReceived.has(DataKeys.REMOTE_TIMEOUT_KEY) ? messageReceived.get(DataKeys.REMOTE_TIMEOUT_KEY).getAsLong() : 0;
-                FutureUtil.exceptionAsyncFuture(() -> {
-                    Class<? extends MessageObject> clazz = Class.forName(className).asSubclass(MessageObject.class);
-                    Object o = ObjectMessageUtil.deserialize(clazz, messageReceived);
-                    CompletableFuture<? extends MessageObject> future = receive((MessageObject) o);
-                    Object response = timeout > 0 ?
-                            future.get(timeout, TimeUnit.MILLISECONDS) :
-                            future.get();
-
-                    responseObject.addProperty(DataKeys.CLASS_NAME_KEY, response.getClass().getCanonicalName());
-                    responseObject.add(DataKeys.RESPONSE_KEY, ((MessageObject)response).serialize());
-                    send(responseObject);
-                    return null;
-                }).whenComplete((unused, throwable) -> {
-                    if (throwable != null) {
-                        responseObject.addProperty(DataKeys.ERROR_CLASS_NAME_KEY, throwable.getClass().getName());
-                        responseObject.addProperty(DataKeys.ERROR_MESSAGE_KEY, throwable.getMessage());
-                        send(responseObject);
-                    }
-
-                });
+            public void onMessage(byte[] channel, byte[] message) {
+                onRequest(message);
             }
 
             @Override
-            public void onSubscribe(String channel, int subscribedChannels) {
-                onReceiverSubscribe.accept(channel, subscribedChannels);
+            public void onSubscribe(byte[] channel, int subscribedChannels) {
+                supervisor.onSubscribed();
+                onReceiverSubscribe.accept(new String(channel, StandardCharsets.UTF_8), subscribedChannels);
             }
 
             @Override
-            public void onUnsubscribe(String channel, int subscribedChannels) {
-                onReceiverUnsubscribe.accept(channel, subscribedChannels);
+            public void onUnsubscribe(byte[] channel, int subscribedChannels) {
+                onReceiverUnsubscribe.accept(new String(channel, StandardCharsets.UTF_8), subscribedChannels);
             }
         };
-        this.receiverThread = new Thread(() -> {
-            executions.sub(receiverPubSub, receiverChannel);
-        }, channel + "-receiver");
+        this.supervisor = new SubscriptionSupervisor(channel + "-receiver", () -> {
+            if (instanceId == null)
+                executions.subBinary(receiverPubSub, binarySenderChannel);
+            else executions.subBinary(receiverPubSub, binarySenderChannel, (channel + ":sender:instance:" + instanceId).getBytes(StandardCharsets.UTF_8));
+        });
+    }
+
+    public void enablePriorityLanes(int laneCapacity, int workers) {
+        this.dispatcher = new PriorityDispatcher(channel + "-priority", laneCapacity, workers);
+    }
+
+    // Traces are sampled by the sender, this only records the receiver side stages of those into histograms
+    public void enableTracing(Tracer tracer) {
+        this.tracer = tracer;
+    }
+
+    // Also receives requests addressed to this instance only, such as hedged duplicates
+    public void setInstanceId(String instanceId) {
+        this.instanceId = instanceId;
+    }
+
+    // Only for handlers whose reply depends on nothing but the request, hits skip decoding, the handler and encoding
+    public void enableResponseCache(int maxEntries, long ttlMillis) {
+        this.responseMemo = new ResponseMemo(maxEntries, ttlMillis);
+    }
+
+    public void enableSharding(int shards) {
+        enableSharding(shards, 1000);
+    }
+
+    // Claims a share of the channel:sender:{n} shards, rebalanced as receivers join or leave
+    public void enableSharding(int shards, long heartbeatMillis) {
+        if (instanceId == null)
+            instanceId = UUID.randomUUID().toString();
+        this.shardCoordinator = new ShardCoordinator(executions, channel, instanceId, shards, heartbeatMillis, this::claimShards);
+    }
+
+    public SubscriptionSupervisor getSupervisor() {
+        return supervisor;
+    }
+
+    public ShardCoordinator getShardCoordinator() {
+        return shardCoordinator;
     }
 
     public void start() {
-        receiverThread.start();
+        if (dispatcher != null)
+            dispatcher.start();
+        supervisor.start();
+        if (shardCoordinator != null)
+            shardCoordinator.start();
     }
 
     public void shutdown() {
-        receiverPubSub.unsubscribe();
-        receiverThread.interrupt();
+        if (shardCoordinator != null) {
+            shardCoordinator.shutdown();
+            claimShards(new int[0]);
+        }
+        supervisor.shutdown();
+        executions.unsubBinary(receiverPubSub);
+        if (dispatcher != null)
+            dispatcher.shutdown();
     }
 
-    private void send(JsonObject object) {
-        executions.pub(receiverChannel, GsonUtil.GSON.toJson(object));
+    private void onRequest(byte[] message) {
+        if (!MessageFrame.isFrame(message))
+            return; // Handle this
+        MessageFrame frame = MessageFrame.read(message);
+        if (!frame.hasCorrelationId())
+            return; // Handle this
+        if (frame.isExpired())
+            return; // The sender is no longer waiting for this response
+        if (frame.isBatch()) {
+            onBatch(frame);
+            return;
+        }
+        if (responseMemo != null) {
+            byte[] cached = responseMemo.lookup(frame);
+            if (cached != null) {
+                send(BufferUtil.frameWriter().replay(cached, frame.getCorrelationId()));
+                return;
+            }
+        }
+
+        Trace trace = frame.hasTrace() ? receivedTrace(frame) : null;
+        Executor executor = dispatcher != null ? dispatcher.executor(frame.getPriority()) : null;
+        FutureUtil.within(FutureUtil.composeAsync(() -> handle(frame, trace), executor), frame.getRemoteTimeout(), TimeUnit.MILLISECONDS, executor)
+                .whenComplete((response, throwable) -> reply(frame, trace, response, throwable));
+    }
+
+    private void onBatch(MessageFrame frame) {
+        List<MessageFrame> items;
+        try {
+            items = frame.getBatchItems();
+        } catch (ChannelException ex) {
+            return; // Handle this
+        }
+        Executor executor = dispatcher != null ? dispatcher.executor(frame.getPriority()) : null;
+        List<CompletableFuture<? extends MessageObject>> results = new ArrayList<>(Collections.nCopies(items.size(), null));
+        FutureUtil.within(FutureUtil.composeAsync(() -> handleBatch(items, results), executor), frame.getRemoteTimeout(), TimeUnit.MILLISECONDS, executor)
+                .whenComplete((unused, throwable) -> replyBatch(frame, items, results, throwable));
+    }
+
+    private CompletableFuture<Void> handleBatch(List<MessageFrame> items, List<CompletableFuture<? extends MessageObject>> results) {
+        List<MessageObject> messageObjects = new ArrayList<>(items.size());
+        int[] indexes = new int[items.size()];
+        for (int i = 0; i < items.size(); i++) {
+            try {
+                messageObjects.add(items.get(i).getMessageObject());
+                indexes[messageObjects.size() - 1] = i;
+            } catch (RuntimeException ex) {
+                results.set(i, FutureUtil.failed(ex));
+            }
+        }
+        List<CompletableFuture<? extends MessageObject>> handled = receiveBatch(messageObjects);
+        for (int i = 0; i < handled.size() && i < messageObjects.size(); i++)
+            results.set(indexes[i], handled.get(i));
+        return CompletableFuture.allOf(handled.toArray(new CompletableFuture[0])).handle((unused, throwable) -> null);
+    }
+
+    // One reply for the whole batch, items that failed or did not finish in time carry their own error
+    private void replyBatch(MessageFrame request, List<MessageFrame> items, List<CompletableFuture<? extends MessageObject>> results,
+                            Throwable throwable) {
+        FrameWriter responseFrame = BufferUtil.frameWriter();
+        responseFrame.setFormat(request.getFormat());
+        responseFrame.setCorrelationId(request.getCorrelationId());
+        responseFrame.setBatch(items.size());
+        responseFrame.body();
+        FrameWriter itemFrame = new FrameWriter(new ByteArrayBuffer());
+        for (int i = 0; i < items.size(); i++) {
+            CompletableFuture<? extends MessageObject> result = results.get(i);
+            Throwable error = result == null || !result.isDone()
+                    ? (throwable != null ? throwable : new EmptyResponseException("Empty response"))
+                    : FutureUtil.failure(result);
+            itemFrame.reset();
+            itemFrame.setFormat(items.get(i).getFormat());
+            if (error == null) {
+                try {
+                    ObjectMessageUtil.serialize(itemFrame, result.join());
+                } catch (RuntimeException ex) {
+                    error = ex;
+                    itemFrame.reset();
+                    itemFrame.setFormat(items.get(i).getFormat());
+                }
+            }
+            if (error != null) {
+                error = FutureUtil.unwrap(error);
+                itemFrame.error(error.getClass().getName(), error.getMessage());
+            }
+            responseFrame.batchItem(itemFrame);
+        }
+        send(responseFrame.getBuffer());
+    }
+
+    private synchronized void claimShards(int[] shards) {
+        BinaryJedisPubSub previousPubSub = shardPubSub;
+        SubscriptionSupervisor previousSupervisor = shardSupervisor;
+        shardPubSub = null;
+        shardSupervisor = null;
+        if (shards.length > 0) {
+            byte[][] shardChannels = new byte[shards.length][];
+            for (int i = 0; i < shards.length; i++)
+                shardChannels[i] = (channel + ":sender:" + shards[i]).getBytes(StandardCharsets.UTF_8);
+            CountDownLatch subscribed = new CountDownLatch(shards.length);
+            shardPubSub = new BinaryJedisPubSub() {
+                @Override
+                public void onMessage(byte[] channel, byte[] message) {
+                    onRequest(message);
+                }
+
+                @Override
+                public void onSubscribe(byte[] channel, int subscribedChannels) {
+                    subscribed.countDown();
+                    SubscriptionSupervisor current = shardSupervisor;
+                    if (current != null)
+                        current.onSubscribed();
+                }
+            };
+            BinaryJedisPubSub pubSub = shardPubSub;
+            shardSupervisor = new SubscriptionSupervisor(channel + "-shards", () -> {
+                executions.subBinary(pubSub, shardChannels);
+            });
+            shardSupervisor.start();
+            // Overlapping the old and new subscriptions may answer a moved request twice, but does not drop it
+            try {
+                subscribed.await(1, TimeUnit.SECONDS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        if (previousPubSub != null) {
+            previousSupervisor.shutdown();
+            executions.unsubBinary(previousPubSub);
+        }
+    }
+
+    private Trace receivedTrace(MessageFrame frame) {
+        Trace trace = new Trace(frame.getTraceId(), channel);
+        trace.setSentAt(frame.getTraceSentAt());
+        trace.setReceivedAt(System.currentTimeMillis());
+        return trace;
+    }
+
+    private CompletableFuture<? extends MessageObject> handle(MessageFrame frame, Trace trace) {
+        if (trace == null)
+            return receive(frame);
+        long dispatched = System.nanoTime();
+        trace.setDuration(TraceStage.DISPATCH, dispatched - trace.getStartNanos());
+        frame.getMessageObject();
+        trace.setDuration(TraceStage.DECODE, System.nanoTime() - dispatched);
+        return receive(frame);
+    }
+
+    private void reply(MessageFrame request, Trace trace, MessageObject response, Throwable throwable) {
+        UUID correlationId = request.getCorrelationId();
+        MessageFormat format = request.getFormat();
+        long replyStart = System.nanoTime();
+        if (trace != null) {
+            trace.setDuration(TraceStage.HANDLER, replyStart - trace.getStartNanos()
+                    - trace.getDuration(TraceStage.DISPATCH) - trace.getDuration(TraceStage.DECODE));
+        }
+        FrameWriter responseFrame = responseFrame(correlationId, format, trace);
+        if (throwable == null) {
+            try {
+                ObjectMessageUtil.serialize(responseFrame, response);
+                // Traced replies carry timings of this one request, so they are not reused
+                if (responseMemo != null && trace == null)
+                    responseMemo.store(request, responseFrame.getBuffer());
+            } catch (RuntimeException ex) {
+                throwable = ex;
+                responseFrame = responseFrame(correlationId, format, trace);
+            }
+        }
+        if (throwable != null) {
+            throwable = FutureUtil.unwrap(throwable);
+            responseFrame.error(throwable.getClass().getName(), throwable.getMessage());
+        }
+        if (trace != null) {
+            trace.setDuration(TraceStage.REPLY, System.nanoTime() - replyStart);
+            trace.setRepliedAt(System.currentTimeMillis());
+            responseFrame.updateTraceTimings();
+        }
+        send(responseFrame.getBuffer());
+        if (trace != null && tracer != null) {
+            trace.setDuration(TraceStage.TOTAL, System.nanoTime() - trace.getStartNanos());
+            tracer.record(trace);
+        }
+    }
+
+    private static FrameWriter responseFrame(UUID correlationId, MessageFormat format, Trace trace) {
+        FrameWriter responseFrame = BufferUtil.frameWriter();
+        responseFrame.setFormat(format);
+        responseFrame.setCorrelationId(correlationId);
+        if (trace != null)
+            responseFrame.setTraceTimings(trace);
+        return responseFrame;
+    }
+
+    private void send(ByteArrayBuffer buffer) {
+        executions.pubBinary(binaryReceiverChannel, buffer.array(), 0, buffer.size());
+    }
+
+    public CompletableFuture<? extends MessageObject> receive(MessageFrame frame) {
+        return receive(frame.getMessageObject());
     }
 
     public abstract <T extends MessageObject> CompletableFuture<? extends MessageObject> receive(T messageObject);
 
+    // Override to handle a sendBatch as a whole, one result per message in the same order
+    public List<CompletableFuture<? extends MessageObject>> receiveBatch(List<MessageObject> messageObjects) {
+        List<CompletableFuture<? extends MessageObject>> results = new ArrayList<>(messageObjects.size());
+        for (MessageObject messageObject : messageObjects)
+            results.add(receive(messageObject));
+        return results;
+    }
+
 }
@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2024 Pedro Souza
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package com.github.eupedroosouza.messaging.sender;
+
+import com.github.eupedroosouza.messaging.trace.LatencyHistogram;
+
+import java.util.concurrent.TimeUnit;
+
+public class HedgePolicy {
+
+    // Lets a burst of slow replies hedge right away after a quiet period
+    private static final double MAX_CREDITS = 10;
+    private static final int MIN_SAMPLES = 100;
+
+    private final long delayMillis;
+    private final double percentile;
+    private final double budget;
+    private final LatencyHistogram latencies = new LatencyHistogram();
+    private double credits;
+
+    public HedgePolicy(long delayMillis, double budget) {
+        this(0, delayMillis, budget);
+    }
+
+    // Hedges after the observed percentile, using the delay until enough replies were seen.
+    // The delay must be positive, hedging every request at once only doubles the load
+    public HedgePolicy(double percentile, long minDelayMillis, double budget) {
+        if (minDelayMillis <= 0)
+            throw new IllegalArgumentException("The hedge delay must be positive");
+        this.percentile = percentile;
+        this.delayMillis = minDelayMillis;
+        this.budget = budget;
+    }
+
+    public long getDelayMillis() {
+        if (percentile <= 0 || latencies.getCount() < MIN_SAMPLES)
+            return delayMillis;
+        return Math.max(delayMillis, TimeUnit.NANOSECONDS.toMillis(latencies.getPercentile(percentile)));
+    }
+
+    public synchronized void onRequest() {
+        credits = Math.min(MAX_CREDITS, credits + budget);
+    }
+
+    public synchronized boolean tryHedge() {
+        if (credits < 1)
+            return false;
+        credits--;
+        return true;
+    }
+
+    public void record(long latencyNanos) {
+        latencies.record(latencyNanos);
+    }
+
+    public LatencyHistogram getLatencies() {
+        return latencies;
+    }
+
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright (c) 2024 Pedro Souza
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package com.github.eupedroosouza.messaging.sender;
+
+import com.github.eupedroosouza.messaging.frame.FrameWriter;
+import com.github.eupedroosouza.messaging.message.status.MessageStatus;
+import com.github.eupedroosouza.messaging.util.BufferUtil;
+import com.github.eupedroosouza.messaging.util.ByteArrayBuffer;
+import com.github.eupedroosouza.messaging.util.FutureUtil;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+// Collects encoded messages for one channel and publishes them as a single bundle frame,
+// once the linger window ends or the bundle reaches its size cap. Receivers unpack it into one receive(...) per message
+public class MessageBundler {
+
+    private final Function<ByteArrayBuffer, MessageStatus> publisher;
+    private final long lingerMillis;
+    private final int maxBytes;
+
+    private final Object lock = new Object();
+    private final ArrayDeque<Bundle> ready = new ArrayDeque<>();
+    private Bundle pending;
+    private boolean publishing;
+
+    // The publisher is called on a pool thread with a reused buffer, one bundle at a time
+    public MessageBundler(Function<ByteArrayBuffer, MessageStatus> publisher, long lingerMillis, int maxBytes) {
+        this.publisher = publisher;
+        this.lingerMillis = lingerMillis;
+        this.maxBytes = maxBytes;
+    }
+
+    // Copied before returning, every message of a bundle completes with the status of its publish
+    public CompletableFuture<MessageStatus> add(byte[] array, int offset, int length) {
+        CompletableFuture<MessageStatus> future = new CompletableFuture<>();
+        boolean drain;
+        synchronized (lock) {
+            if (pending != null && pending.items.size() + 4 + length > maxBytes)
+                detach();
+            if (pending == null) {
+                Bundle bundle = new Bundle();
+                bundle.lingerTask = FutureUtil.scheduler().schedule(() -> flush(bundle), lingerMillis, TimeUnit.MILLISECONDS);
+                pending = bundle;
+            }
+            pending.items.writeInt(length);
+            pending.items.write(array, offset, length);
+            pending.futures.add(future);
+            if (pending.items.size() >= maxBytes)
+                detach();
+            drain = startDrain();
+        }
+        if (drain)
+            drainAsync();
+        return future;
+    }
+
+    public void flush() {
+        boolean drain;
+        synchronized (lock) {
+            detach();
+            drain = startDrain();
+        }
+        if (drain)
+            drainAsync();
+    }
+
+    private void flush(Bundle lingered) {
+        boolean drain = false;
+        synchronized (lock) {
+            if (pending == lingered) {
+                detach();
+                drain = startDrain();
+            }
+        }
+        if (drain)
+            drainAsync();
+    }
+
+    // Queued in the order the bundles closed, which is the order their messages were added
+    private void detach() {
+        Bundle bundle = pending;
+        pending = null;
+        if (bundle != null) {
+            bundle.lingerTask.cancel(false);
+            ready.add(bundle);
+        }
+    }
+
+    private boolean startDrain() {
+        if (publishing || ready.isEmpty())
+            return false;
+        publishing = true;
+        return true;
+    }
+
+    // A single drain publishes the closed bundles one after another, off the shared scheduler thread
+    private void drainAsync() {
+        CompletableFuture.runAsync(() -> {
+            while (true) {
+                Bundle bundle;
+                synchronized (lock) {
+                    bundle = ready.poll();
+                    if (bundle == null) {
+                        publishing = false;
+                        return;
+                    }
+                }
+                publish(bundle);
+            }
+        });
+    }
+
+    private void publish(Bundle bundle) {
+        MessageStatus status;
+        try {
+            ByteArrayBuffer buffer;
+            if (bundle.futures.size() == 1) {
+                // Alone in its window, published as it is
+                buffer = BufferUtil.frameWriter().getBuffer();
+                buffer.reset();
+                buffer.write(bundle.items.array(), 4, bundle.items.size() - 4);
+            } else {
+                FrameWriter frame = BufferUtil.frameWriter();
+                frame.setBundle(bundle.futures.size());
+                buffer = frame.body();
+                buffer.write(bundle.items.array(), 0, bundle.items.size());
+            }
+            status = publisher.apply(buffer);
+        } catch (RuntimeException ex) {
+            for (CompletableFuture<MessageStatus> future : bundle.futures)
+                future.completeExceptionally(ex);
+            return;
+        }
+        for (CompletableFuture<MessageStatus> future : bundle.futures)
+            future.complete(status);
+    }
+
+    private static final class Bundle {
+
+        private final ByteArrayBuffer items = new ByteArrayBuffer();
+        private final List<CompletableFuture<MessageStatus>> futures = new ArrayList<>();
+        private ScheduledFuture<?> lingerTask;
+
+    }
+
+}
@@ -0,0 +1,376 @@
+/*
+ * Copyright (c) 2024 Pedro Souza
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package com.github.eupedroosouza.messaging.sender;
+
+import com.github.eupedroosouza.messaging.connection.JedisExecutions;
+import com.github.eupedroosouza.messaging.exception.ChannelException;
+import com.github.eupedroosouza.messaging.message.status.MessageStatus;
+import com.github.eupedroosouza.messaging.util.ByteArrayBuffer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+// Memory-mapped segments holding the publishes that could not reach Redis, replayed in order by a background thread.
+// A record is only removed after it was published, so a crash in between publishes it again: at least once
+public class PublishJournal {
+
+    private static final long SEGMENT_BYTES = 64L * 1024 * 1024;
+    // The committed read position of the segment
+    private static final int HEADER_SIZE = 8;
+    private static final int BATCH_SIZE = 64;
+    private static final String SUFFIX = ".journal";
+
+    private final JedisExecutions executions;
+    private final byte[] channel;
+    private final File directory;
+    private final long maxBytes;
+    private final long segmentBytes;
+    private final ArrayDeque<Segment> segments = new ArrayDeque<>();
+    private final Thread worker;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private long nextSegmentId;
+    private long diskBytes;
+    private long pendingMessages;
+    private long replayed;
+    private volatile Throwable lastError;
+    private volatile boolean running = true;
+
+    // The directory belongs to this journal, segments left there by a previous run are replayed
+    public PublishJournal(JedisExecutions executions, String channel, File directory, long maxBytes) throws ChannelException {
+        this.executions = executions;
+        this.channel = channel.getBytes(StandardCharsets.UTF_8);
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        this.segmentBytes = Math.min(SEGMENT_BYTES, maxBytes);
+        if (!directory.isDirectory() && !directory.mkdirs())
+            throw new ChannelException("Could not create the journal directory " + directory);
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(SUFFIX));
+        if (files != null) {
+            Arrays.sort(files);
+            for (File file : files) {
+                try {
+                    Segment segment = Segment.open(file);
+                    nextSegmentId = Math.max(nextSegmentId, Long.parseLong(file.getName().substring(0, file.getName().length() - SUFFIX.length())) + 1);
+                    if (segment.isDrained()) {
+                        segment.delete();
+                        continue;
+                    }
+                    segments.add(segment);
+                    diskBytes += segment.capacity();
+                    pendingMessages += segment.messages;
+                } catch (IOException | NumberFormatException ex) {
+                    throw new ChannelException("Could not recover the journal segment " + file, ex);
+                }
+            }
+        }
+        this.worker = new Thread(this::replay, channel + "-journal");
+        this.worker.setDaemon(true);
+    }
+
+    public void start() {
+        worker.start();
+    }
+
+    public void shutdown() {
+        running = false;
+        worker.interrupt();
+    }
+
+    // Journals instead of publishing while older messages are still waiting, so the order is kept.
+    // A full journal fails the publish rather than letting it overtake them
+    public MessageStatus publish(LongSupplier publisher, Supplier<ByteArrayBuffer> encoder) {
+        if (!isEmpty()) {
+            ByteArrayBuffer buffer = encoder.get();
+            if (append(buffer.array(), 0, buffer.size()))
+                return MessageStatus.JOURNALED;
+            if (!isEmpty())
+                throw new ChannelException("The journal is full, " + getPendingMessages() + " messages are waiting for replay");
+        }
+        try {
+            return publisher.getAsLong() == 0 ? MessageStatus.NOT_SUBSCRIBERS_CHANNEL : MessageStatus.SUCCESS;
+        } catch (RuntimeException ex) {
+            lastError = ex;
+            ByteArrayBuffer buffer = encoder.get();
+            if (append(buffer.array(), 0, buffer.size()))
+                return MessageStatus.JOURNALED;
+            throw ex;
+        }
+    }
+
+    // False once the journal reached its disk bound
+    public boolean append(byte[] array, int offset, int length) {
+        lock.lock();
+        try {
+            Segment segment = segments.peekLast();
+            if (segment == null || !segment.fits(length)) {
+                long size = Math.max(segmentBytes, HEADER_SIZE + 4L + length);
+                if (diskBytes + size > maxBytes)
+                    return false;
+                try {
+                    segment = Segment.create(new File(directory, String.format("%019d", nextSegmentId++) + SUFFIX), size);
+                } catch (IOException ex) {
+                    lastError = ex;
+                    return false;
+                }
+                segments.add(segment);
+                diskBytes += size;
+            }
+            segment.append(array, offset, length);
+            pendingMessages++;
+            notEmpty.signal();
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void replay() {
+        int failures = 0;
+        while (running) {
+            List<byte[]> batch;
+            try {
+                batch = nextBatch();
+            } catch (InterruptedException ex) {
+                return;
+            }
+            int published = 0;
+            try {
+                for (byte[] message : batch) {
+                    executions.pubBinary(channel, message);
+                    published++;
+                }
+                failures = 0;
+            } catch (RuntimeException ex) {
+                lastError = ex;
+            }
+            commit(published);
+            if (published < batch.size()) {
+                try {
+                    Thread.sleep(Math.min(5000, 100L << Math.min(failures++, 6)));
+                } catch (InterruptedException ex) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private List<byte[]> nextBatch() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (pendingMessages == 0)
+                notEmpty.await();
+            List<byte[]> batch = new ArrayList<>(BATCH_SIZE);
+            for (Segment segment : segments) {
+                int position = segment.readPosition;
+                while (batch.size() < BATCH_SIZE && position < segment.writePosition) {
+                    byte[] message = segment.read(position);
+                    batch.add(message);
+                    position += 4 + message.length;
+                }
+                if (batch.size() == BATCH_SIZE)
+                    break;
+            }
+            return batch;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void commit(int published) {
+        lock.lock();
+        try {
+            while (published > 0) {
+                Segment segment = segments.peekFirst();
+                int position = segment.readPosition;
+                while (published > 0 && position < segment.writePosition) {
+                    position += 4 + segment.length(position);
+                    published--;
+                    pendingMessages--;
+                    replayed++;
+                }
+                segment.commit(position);
+                // A drained segment is deleted, appends start a new zero-filled one
+                if (segment.isDrained()) {
+                    segments.pollFirst();
+                    segment.delete();
+                    diskBytes -= segment.capacity();
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public boolean isEmpty() {
+        lock.lock();
+        try {
+            return pendingMessages == 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getPendingMessages() {
+        lock.lock();
+        try {
+            return pendingMessages;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getDiskBytes() {
+        lock.lock();
+        try {
+            return diskBytes;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getReplayed() {
+        lock.lock();
+        try {
+            return replayed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public Throwable getLastError() {
+        return lastError;
+    }
+
+    private static final class Segment {
+
+        private final File file;
+        private final MappedByteBuffer buffer;
+        private int readPosition;
+        private int writePosition;
+        private long messages;
+
+        private Segment(File file, long size) throws IOException {
+            this.file = file;
+            try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw")) {
+                this.buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+            }
+        }
+
+        private static Segment create(File file, long size) throws IOException {
+            Segment segment = new Segment(file, size);
+            segment.commit(HEADER_SIZE);
+            segment.writePosition = HEADER_SIZE;
+            return segment;
+        }
+
+        // Records end at the first zero length. A crash may leave a torn record there, whose body is zeroed
+        // so that later appends over it never leave stray bytes that read as a record
+        private static Segment open(File file) throws IOException {
+            Segment segment = new Segment(file, file.length());
+            int capacity = segment.capacity();
+            long committed = capacity >= HEADER_SIZE ? segment.buffer.getLong(0) : 0;
+            if (committed < HEADER_SIZE || committed > capacity)
+                throw new IOException("Invalid committed position " + committed);
+            segment.readPosition = (int) committed;
+            int position = segment.readPosition;
+            while (position + 4 <= capacity) {
+                int stored = segment.buffer.getInt(position);
+                if (stored <= 0 || position + 4L + stored - 1 > capacity)
+                    break;
+                position += 4 + stored - 1;
+                segment.messages++;
+            }
+            segment.writePosition = position;
+            segment.zeroTail();
+            return segment;
+        }
+
+        private void zeroTail() {
+            byte[] zeros = new byte[(int) Math.min(64 * 1024, Math.max(0, capacity() - writePosition))];
+            ByteBuffer view = buffer.duplicate();
+            view.position(writePosition);
+            while (view.hasRemaining())
+                view.put(zeros, 0, Math.min(zeros.length, view.remaining()));
+        }
+
+        private int capacity() {
+            return buffer.capacity();
+        }
+
+        private boolean fits(int length) {
+            return writePosition + 4L + length <= capacity();
+        }
+
+        // The length goes in last and is stored plus one, so a torn or empty record never reads as one
+        private void append(byte[] array, int offset, int length) {
+            ByteBuffer view = buffer.duplicate();
+            view.position(writePosition + 4);
+            view.put(array, offset, length);
+            buffer.putInt(writePosition, length + 1);
+            writePosition += 4 + length;
+        }
+
+        private int length(int position) {
+            return buffer.getInt(position) - 1;
+        }
+
+        private byte[] read(int position) {
+            byte[] message = new byte[length(position)];
+            ByteBuffer view = buffer.duplicate();
+            view.position(position + 4);
+            view.get(message);
+            return message;
+        }
+
+        private void commit(int position) {
+            readPosition = position;
+            buffer.putLong(0, position);
+        }
+
+        private boolean isDrained() {
+            return readPosition == writePosition;
+        }
+
+        // The mapping stays valid until collected, the file itself is gone right away
+        private void delete() {
+            file.delete();
+        }
+
+    }
+
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright (c) 2024 Pedro Souza
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package com.github.eupedroosouza.messaging.sender;
+
+import com.github.eupedroosouza.messaging.connection.JedisExecutions;
+import com.github.eupedroosouza.messaging.exception.ChannelException;
+import com.github.eupedroosouza.messaging.frame.FrameWriter;
+import com.github.eupedroosouza.messaging.frame.MessageFrame;
+import com.github.eupedroosouza.messaging.frame.StreamSignal;
+import com.github.eupedroosouza.messaging.message.MessageError;
+import com.github.eupedroosouza.messaging.util.ByteArrayBuffer;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.UUID;
+
+public class ResponseStream implements Iterator<byte[]>, AutoCloseable {
+
+    private final JedisExecutions executions;
+    private final byte[] controlChannel;
+    private final UUID correlationId;
+    private final int window;
+    private final long idleTimeoutMillis;
+    private final Runnable onClose;
+    private final ArrayDeque<byte[]> chunks;
+    private final FrameWriter controlFrame = new FrameWriter(new ByteArrayBuffer());
+
+    private long source;
+    private int sequence;
+    private int consumed;
+    private boolean ended;
+    private boolean closed;
+    private MessageError error;
+    private ChannelException failure;
+
+    public ResponseStream(JedisExecutions executions, byte[] controlChannel, UUID correlationId, int window, long idleTimeoutMillis, Runnable onClose) {
+        this.executions = executions;
+        this.controlChannel = controlChannel;
+        this.correlationId = correlationId;
+        this.window = window;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.onClose = onClose;
+        this.chunks = new ArrayDeque<>(window);
+    }
+
+    public int getWindow() {
+        return window;
+    }
+
+    // Set when the receiver's handler failed
+    public synchronized MessageError getError() {
+        return error;
+    }
+
+    // Called from the response thread, never blocks on the consumer
+    public synchronized void accept(MessageFrame frame) {
+        if (ended || closed)
+            return;
+        if (source == 0)
+            source = frame.getStreamSource();
+        else if (frame.getStreamSource() != source) {
+            // Another receiver answered the same request, the first one keeps the stream
+            signal(StreamSignal.CANCEL, 0, frame.getStreamSource());
+            return;
+        }
+        if (frame.getStreamSignal() == StreamSignal.CHUNK) {
+            if (frame.getStreamValue() != sequence++)
+                fail(new ChannelException("Stream chunk " + (sequence - 1) + " was lost"));
+            else if (chunks.size() >= window)
+                fail(new ChannelException("The receiver sent more chunks than it had credit for"));
+            else chunks.add(frame.getBody());
+        } else if (frame.getStreamSignal() == StreamSignal.END) {
+            if (frame.isError()) {
+                error = frame.getError();
+                failure = new ChannelException(error.getErrorClassName() + ": " + error.getErrorMessage());
+            } else if (frame.getStreamValue() != sequence)
+                failure = new ChannelException("The stream ended after " + frame.getStreamValue() + " chunks, " + sequence + " were received");
+            ended = true;
+            onClose.run();
+        }
+        notifyAll();
+    }
+
+    // Ends the stream with an error that hasNext rethrows once the buffered chunks are consumed
+    public synchronized void fail(ChannelException ex) {
+        if (ended || closed)
+            return;
+        failure = ex;
+        ended = true;
+        signal(StreamSignal.CANCEL, 0, source);
+        onClose.run();
+        notifyAll();
+    }
+
+    @Override
+    public synchronized boolean hasNext() throws ChannelException {
+        long deadline = System.currentTimeMillis() + idleTimeoutMillis;
+        while (chunks.isEmpty() && !ended && !closed) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                fail(new ChannelException("No stream chunk after " + idleTimeoutMillis + "ms"));
+                break;
+            }
+            try {
+                wait(remaining);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new ChannelException("Interrupted while waiting for a stream chunk", ex);
+            }
+        }
+        if (!chunks.isEmpty())
+            return true;
+        if (failure != null && !closed)
+            throw failure;
+        return false;
+    }
+
+    @Override
+    public synchronized byte[] next() throws ChannelException {
+        if (!hasNext())
+            throw new NoSuchElementException();
+        byte[] chunk = chunks.poll();
+        // Credit goes back in halves of the window, so the receiver rarely stalls and this rarely publishes
+        if (!ended && ++consumed >= Math.max(1, window / 2)) {
+            signal(StreamSignal.CREDIT, consumed, source);
+            consumed = 0;
+        }
+        return chunk;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (closed)
+            return;
+        if (!ended)
+            signal(StreamSignal.CANCEL, 0, source);
+        closed = true;
+        chunks.clear();
+        onClose.run();
+        notifyAll();
+    }
+
+    private void signal(StreamSignal signal, int value, long source) {
+        controlFrame.reset();
+        controlFrame.setCorrelationId(correlationId);
+        controlFrame.setStream(signal, value, source);
+        ByteArrayBuffer buffer = controlFrame.body();
+        executions.pubBinary(controlChannel, buffer.array(), 0, buffer.size());
+    }
+
+}
@@ -23,29 +23,186 @@
 package com.github.eupedroosouza.messaging.sender.binary;
 
 import com.github.eupedroosouza.messaging.connection.JedisExecutions;
+import com.github.eupedroosouza.messaging.exception.ChannelException;
+import com.github.eupedroosouza.messaging.frame.FrameWriter;
 import com.github.eupedroosouza.messaging.message.status.MessageStatus;
+import com.github.eupedroosouza.messaging.sender.MessageBundler;
+import com.github.eupedroosouza.messaging.sender.PublishJournal;
+import com.github.eupedroosouza.messaging.util.BufferUtil;
+import com.github.eupedroosouza.messaging.util.ByteArrayBuffer;
 import com.github.eupedroosouza.messaging.util.FutureUtil;
+import com.github.eupedroosouza.messaging.util.SerialExecutor;
 
+import java.io.File;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
 
 public class ByteArrayMessageSender {
 
+    private static final ToLongFunction<byte[]> RANDOM_IDS = (message) -> ThreadLocalRandom.current().nextLong();
+
     private final JedisExecutions executions;
     private final byte[] byteChannel;
+    private ToLongFunction<byte[]> messageIds;
+    private long publisherId;
+    private AtomicLong sequence;
+    private SerialExecutor sequencer;
+    private PublishJournal journal;
+    private MessageBundler bundler;
 
     public ByteArrayMessageSender(JedisExecutions executions, String channel) {
         this.executions = executions;
         this.byteChannel = channel.getBytes(StandardCharsets.UTF_8);
     }
 
+    // Messages are framed once ids are enabled, see ByteArrayMessageReceiver#enableDuplicateSuppression
+    public void enableMessageIds() {
+        enableMessageIds(RANDOM_IDS);
+    }
+
+    public void enableMessageIds(ToLongFunction<byte[]> messageIds) {
+        this.messageIds = messageIds;
+    }
+
+    // Messages are framed once sequencing is enabled, see ByteArrayMessageReceiver#enableSequenceTracking.
+    // They are published one at a time in the order they were numbered, so receivers see no gap that is only reordering
+    public void enableSequencing() {
+        this.publisherId = ThreadLocalRandom.current().nextLong();
+        this.sequence = new AtomicLong();
+        this.sequencer = new SerialExecutor(CompletableFuture::runAsync);
+    }
+
+    // Failed publishes are written to the directory and replayed once Redis answers again, at least once.
+    // Later messages queue behind them while any are left, see PublishJournal
+    public void enableJournal(File directory, long maxBytes) throws ChannelException {
+        String channel = new String(byteChannel, StandardCharsets.UTF_8);
+        this.journal = new PublishJournal(executions, channel, directory, maxBytes);
+        this.journal.start();
+    }
+
+    public void shutdownJournal() {
+        if (journal != null)
+            journal.shutdown();
+    }
+
+    public PublishJournal getJournal() {
+        return journal;
+    }
+
+    // Publishes the messages of each linger window as one bundle frame, or earlier once it reaches maxBytes.
+    // Pairs with ByteArrayMessageReceiver#enableBundling. Messages join a bundle on the calling thread and bundles are
+    // published one at a time, so the messages of one calling thread keep their order
+    public void enableBundling(long lingerMillis, int maxBytes) {
+        this.bundler = new MessageBundler((buffer) -> publish(() -> executions.pubBinary(byteChannel, buffer.array(), 0, buffer.size()), () -> buffer), lingerMillis, maxBytes);
+    }
+
+    // Publishes the open bundle without waiting for its linger window
+    public void flush() {
+        if (bundler != null)
+            bundler.flush();
+    }
+
     public CompletableFuture<MessageStatus> send(byte[] message) {
+        if (sequence == null)
+            return send(message, 0);
+        // Numbered and queued together, so the publish order is the sequence order
+        synchronized (sequence) {
+            return send(message, sequence.getAndIncrement());
+        }
+    }
+
+    private CompletableFuture<MessageStatus> send(byte[] message, long sequenceNumber) {
+        if (bundler != null) {
+            if (messageIds == null && sequence == null)
+                return bundler.add(message, 0, message.length);
+            ByteArrayBuffer buffer = frame(message, sequenceNumber);
+            return bundler.add(buffer.array(), 0, buffer.size());
+        }
+        return FutureUtil.exceptionAsyncFuture(() -> {
+            if (messageIds != null || sequence != null) {
+                ByteArrayBuffer buffer = frame(message, sequenceNumber);
+                return publish(() -> executions.pubBinary(byteChannel, buffer.array(), 0, buffer.size()), () -> buffer);
+            }
+            return publish(() -> executions.pubBinary(byteChannel, message), () -> {
+                ByteArrayBuffer buffer = new ByteArrayBuffer(message.length);
+                buffer.write(message);
+                return buffer;
+            });
+        }, sequencer);
+    }
+
+    // Gathers the buffers into the publishing thread's reused frame buffer, without an exact size array per message.
+    // They are read after this returns, so their content must not change until the future completes, their positions are not moved
+    public CompletableFuture<MessageStatus> send(ByteBuffer... gather) {
+        if (sequence == null)
+            return send(gather, 0);
+        synchronized (sequence) {
+            return send(gather, sequence.getAndIncrement());
+        }
+    }
+
+    private CompletableFuture<MessageStatus> send(ByteBuffer[] gather, long sequenceNumber) {
+        if (bundler != null) {
+            // Copied into the bundle right away, the buffers are free once this returns
+            ByteArrayBuffer buffer = gather(gather, sequenceNumber);
+            return bundler.add(buffer.array(), 0, buffer.size());
+        }
         return FutureUtil.exceptionAsyncFuture(() -> {
-            long status = executions.pubBinary(byteChannel, message);
-            if (status == 0)
-                return MessageStatus.NOT_SUBSCRIBERS_CHANNEL;
-            return MessageStatus.SUCCESS;
-        });
+            ByteArrayBuffer buffer = gather(gather, sequenceNumber);
+            return publish(() -> executions.pubBinary(byteChannel, buffer.array(), 0, buffer.size()), () -> buffer);
+        }, sequencer);
+    }
+
+    private ByteArrayBuffer frame(byte[] message, long sequenceNumber) {
+        FrameWriter frame = BufferUtil.frameWriter();
+        if (messageIds != null)
+            frame.setMessageId(messageIds.applyAsLong(message));
+        if (sequence != null)
+            frame.setSequence(publisherId, sequenceNumber);
+        ByteArrayBuffer buffer = frame.body();
+        buffer.write(message);
+        return buffer;
+    }
+
+    private ByteArrayBuffer gather(ByteBuffer[] gather, long sequenceNumber) {
+        FrameWriter frame = BufferUtil.frameWriter();
+        ByteArrayBuffer buffer;
+        if (messageIds != null || sequence != null) {
+            // Only custom ids need the message as one array
+            if (messageIds != null)
+                frame.setMessageId(messageIds == RANDOM_IDS ? RANDOM_IDS.applyAsLong(null) : messageIds.applyAsLong(toArray(gather)));
+            if (sequence != null)
+                frame.setSequence(publisherId, sequenceNumber);
+            buffer = frame.body();
+        } else {
+            buffer = frame.getBuffer();
+            buffer.reset();
+        }
+        for (ByteBuffer part : gather)
+            buffer.write(part);
+        return buffer;
+    }
+
+    private MessageStatus publish(LongSupplier publisher, Supplier<ByteArrayBuffer> encoder) {
+        if (journal != null)
+            return journal.publish(publisher, encoder);
+        if (publisher.getAsLong() == 0)
+            return MessageStatus.NOT_SUBSCRIBERS_CHANNEL;
+        return MessageStatus.SUCCESS;
+    }
+
+    private static byte[] toArray(ByteBuffer[] gather) {
+        ByteArrayBuffer buffer = new ByteArrayBuffer();
+        for (ByteBuffer part : gather)
+            buffer.write(part);
+        return Arrays.copyOf(buffer.array(), buffer.size());
     }
 
 }
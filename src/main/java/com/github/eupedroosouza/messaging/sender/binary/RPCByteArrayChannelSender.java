@@ -23,22 +23,27 @@
 package com.github.eupedroosouza.messaging.sender.binary;
 
 import com.github.eupedroosouza.messaging.connection.JedisExecutions;
-import com.github.eupedroosouza.messaging.data.DataKeys;
-import com.github.eupedroosouza.messaging.exception.EmptyResponseException;
-import com.github.eupedroosouza.messaging.message.MessageError;
+import com.github.eupedroosouza.messaging.connection.SubscriptionSupervisor;
+import com.github.eupedroosouza.messaging.exception.ChannelException;
+import com.github.eupedroosouza.messaging.frame.FrameWriter;
+import com.github.eupedroosouza.messaging.frame.MessageFrame;
+import com.github.eupedroosouza.messaging.frame.StreamSignal;
+import com.github.eupedroosouza.messaging.message.priority.MessagePriority;
 import com.github.eupedroosouza.messaging.message.rpc.RPCByteArrayChannelResponse;
 import com.github.eupedroosouza.messaging.message.status.MessageStatus;
+import com.github.eupedroosouza.messaging.sender.ResponseStream;
+import com.github.eupedroosouza.messaging.util.BufferUtil;
+import com.github.eupedroosouza.messaging.util.ByteArrayBuffer;
 import com.github.eupedroosouza.messaging.util.FutureUtil;
-import com.github.eupedroosouza.messaging.util.GsonUtil;
-import com.google.gson.JsonObject;
-import com.google.gson.JsonParseException;
 import redis.clients.jedis.BinaryJedisPubSub;
 
 import java.nio.charset.StandardCharsets;
-import java.util.Base64;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 import java.util.function.BiConsumer;
 
@@ -47,9 +52,11 @@ public class RPCByteArrayChannelSender {
     private final JedisExecutions executions;
     private final byte[] binarySenderChannel;
     private final BinaryJedisPubSub responseReceiverPubSub;
-    private final Thread responseReceiverThread;
+    private final SubscriptionSupervisor supervisor;
 
-    private final HashMap<UUID, RPCByteArrayChannelResponse> messagesWaitingResponse = new HashMap<>();
+    private final ConcurrentHashMap<UUID, RPCByteArrayChannelResponse> messagesWaitingResponse = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<UUID, List<RPCByteArrayChannelResponse>> batchesWaitingResponse = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<UUID, ResponseStream> streamsWaitingResponse = new ConcurrentHashMap<>();
 
     public RPCByteArrayChannelSender(JedisExecutions executions, String channel) {
         this(executions, channel, (c, sc) -> {}, (c, sc) -> {});
@@ -63,51 +70,32 @@ public class RPCByteArrayChannelSender {
         this.responseReceiverPubSub = new BinaryJedisPubSub() {
             @Override
             public void onMessage(byte[] channel, byte[] message) {
-                JsonObject object;
-                try {
-                    object = GsonUtil.GSON.fromJson(new String(message, StandardCharsets.UTF_8), JsonObject.class);
-                } catch (JsonParseException ex) {
-                    throw ex; // Handle the exception
-                }
-
-                if (!object.has(DataKeys.CORRELATION_ID_KEY))
+                if (!MessageFrame.isFrame(message))
                     return; // Handle this
-                UUID correlationId;
-                try {
-                    correlationId = UUID.fromString(object.get(DataKeys.CORRELATION_ID_KEY).getAsString());
-                } catch (IllegalArgumentException ex) {
-                    throw ex; // Handle the exception
-                }
-
-                if (!messagesWaitingResponse.containsKey(correlationId))
+                MessageFrame frame = MessageFrame.read(message);
+                if (!frame.hasCorrelationId())
                     return; // Handle this
-
-                RPCByteArrayChannelResponse channelResponse = messagesWaitingResponse.get(correlationId);
-                if (object.has(DataKeys.ERROR_CLASS_NAME_KEY) || object.has(DataKeys.ERROR_MESSAGE_KEY)) {
-                    String errorClassName = object.has(DataKeys.ERROR_CLASS_NAME_KEY) ? object.get(DataKeys.ERROR_CLASS_NAME_KEY).getAsString() : null;
-                    String errorMessage = object.has(DataKeys.ERROR_MESSAGE_KEY) ? object.get(DataKeys.ERROR_MESSAGE_KEY).getAsString() : null;
-                    channelResponse.setStatus(MessageStatus.ERROR);
-                    channelResponse.setError(new MessageError(errorClassName, errorMessage));
-                    channelResponse.getWaitingResponse().complete(null);
+                if (frame.isStream()) {
+                    ResponseStream stream = streamsWaitingResponse.get(frame.getCorrelationId());
+                    if (stream != null)
+                        stream.accept(frame);
                     return;
                 }
-
-                if (!object.has(DataKeys.RESPONSE_KEY)) {
-                    channelResponse.getWaitingResponse().completeExceptionally(new EmptyResponseException("Empty response received"));
+                if (frame.isBatch()) {
+                    completeBatch(frame);
                     return;
                 }
 
-                try {
-                    channelResponse.setResponse(Base64.getDecoder().decode(object.get(DataKeys.RESPONSE_KEY).getAsString()));
-                    channelResponse.setStatus(MessageStatus.SUCCESS);
-                    channelResponse.getWaitingResponse().complete(null);
-                } catch (IllegalArgumentException ex) {
-                    channelResponse.getWaitingResponse().completeExceptionally(ex);
-                }
+                RPCByteArrayChannelResponse channelResponse = messagesWaitingResponse.get(frame.getCorrelationId());
+                if (channelResponse == null)
+                    return; // Response addressed to another sender, dropped without decoding the body
+
+                complete(channelResponse, frame);
             }
 
             @Override
             public void onSubscribe(byte[] channel, int subscribedChannels) {
+                supervisor.onSubscribed();
                 onResponseChannelSubscribe.accept(new String(channel, StandardCharsets.UTF_8), subscribedChannels);
             }
 
@@ -116,18 +104,22 @@ public class RPCByteArrayChannelSender {
                 onResponseChannelUnsubscribe.accept(new String(channel, StandardCharsets.UTF_8), subscribedChannels);
             }
         };
-        this.responseReceiverThread = new Thread(() -> {
+        this.supervisor = new SubscriptionSupervisor(channel + "-response-receiver", () -> {
             executions.subBinary(responseReceiverPubSub, binaryReceiverChannel);
-        }, channel + "-response-receiver");
+        });
     }
 
     public void start() {
-        responseReceiverThread.start();
+        supervisor.start();
     }
 
     public void shutdown() {
-        responseReceiverPubSub.unsubscribe();
-        responseReceiverThread.interrupt();
+        supervisor.shutdown();
+        executions.unsubBinary(responseReceiverPubSub);
+    }
+
+    public SubscriptionSupervisor getSupervisor() {
+        return supervisor;
     }
 
     public CompletableFuture<RPCByteArrayChannelResponse> send(byte[] message) {
@@ -142,17 +134,30 @@ public class RPCByteArrayChannelSender {
         return send(message, 0, remoteTimeout);
     }
 
+    public CompletableFuture<RPCByteArrayChannelResponse> send(byte[] message, MessagePriority priority) {
+        return send(message, 0, 0, priority);
+    }
+
     public CompletableFuture<RPCByteArrayChannelResponse> send(byte[] message, long timeout, long remoteTimeout) {
+        return send(message, timeout, remoteTimeout, MessagePriority.NORMAL);
+    }
+
+    public CompletableFuture<RPCByteArrayChannelResponse> send(byte[] message, long timeout, long remoteTimeout, MessagePriority priority) {
         return FutureUtil.exceptionAsyncFuture(() -> {
             UUID correlationId = generateCorrelationId();
             RPCByteArrayChannelResponse channelResponse = new RPCByteArrayChannelResponse();
             messagesWaitingResponse.put(correlationId, channelResponse);
             try {
-                JsonObject object = new JsonObject();
-                object.addProperty(DataKeys.CORRELATION_ID_KEY, correlationId.toString());
-                object.addProperty(DataKeys.MESSAGE_KEY, Base64.getEncoder().encodeToString(message));
-                object.addProperty(DataKeys.REMOTE_TIMEOUT_KEY, remoteTimeout);
-                long status = executions.pubBinary(binarySenderChannel, GsonUtil.GSON.toJson(object).getBytes(StandardCharsets.UTF_8));
+                FrameWriter frame = BufferUtil.frameWriter();
+                frame.setCorrelationId(correlationId);
+                frame.setPriority(priority);
+                if (timeout > 0)
+                    frame.setDeadline(System.currentTimeMillis() + timeout);
+                if (remoteTimeout > 0)
+                    frame.setRemoteTimeout(remoteTimeout);
+                ByteArrayBuffer buffer = frame.body();
+                buffer.write(message);
+                long status = executions.pubBinary(binarySenderChannel, buffer.array(), 0, buffer.size());
                 if (status == 0)  {
                     channelResponse.setStatus(MessageStatus.NOT_SUBSCRIBERS_CHANNEL);
                     return channelResponse;
@@ -167,11 +172,132 @@ public class RPCByteArrayChannelSender {
         });
     }
 
+    public List<CompletableFuture<RPCByteArrayChannelResponse>> sendBatch(List<byte[]> messages) {
+        return sendBatch(messages, 0, 0);
+    }
+
+    public List<CompletableFuture<RPCByteArrayChannelResponse>> sendBatch(List<byte[]> messages, long timeout) {
+        return sendBatch(messages, timeout, 0);
+    }
+
+    // One publish and one reply frame for all messages, each still completes its own future
+    public List<CompletableFuture<RPCByteArrayChannelResponse>> sendBatch(List<byte[]> messages, long timeout, long remoteTimeout) {
+        UUID correlationId = generateCorrelationId();
+        List<RPCByteArrayChannelResponse> channelResponses = new ArrayList<>(messages.size());
+        List<CompletableFuture<RPCByteArrayChannelResponse>> futures = new ArrayList<>(messages.size());
+        for (int i = 0; i < messages.size(); i++) {
+            RPCByteArrayChannelResponse channelResponse = new RPCByteArrayChannelResponse();
+            channelResponses.add(channelResponse);
+            futures.add(FutureUtil.within(channelResponse.getWaitingResponse().thenApply((unused) -> channelResponse), timeout, TimeUnit.MILLISECONDS));
+        }
+        batchesWaitingResponse.put(correlationId, channelResponses);
+        if (timeout > 0)
+            FutureUtil.scheduler().schedule(() -> batchesWaitingResponse.remove(correlationId), timeout, TimeUnit.MILLISECONDS);
+        FutureUtil.exceptionAsyncFuture(() -> {
+            FrameWriter frame = BufferUtil.frameWriter();
+            frame.setCorrelationId(correlationId);
+            if (timeout > 0)
+                frame.setDeadline(System.currentTimeMillis() + timeout);
+            if (remoteTimeout > 0)
+                frame.setRemoteTimeout(remoteTimeout);
+            frame.setBatch(messages.size());
+            frame.body();
+            FrameWriter itemFrame = new FrameWriter(new ByteArrayBuffer());
+            for (byte[] message : messages) {
+                itemFrame.reset();
+                itemFrame.body().write(message);
+                frame.batchItem(itemFrame);
+            }
+            ByteArrayBuffer buffer = frame.getBuffer();
+            if (executions.pubBinary(binarySenderChannel, buffer.array(), 0, buffer.size()) == 0) {
+                batchesWaitingResponse.remove(correlationId);
+                for (RPCByteArrayChannelResponse channelResponse : channelResponses) {
+                    channelResponse.setStatus(MessageStatus.NOT_SUBSCRIBERS_CHANNEL);
+                    channelResponse.getWaitingResponse().complete(null);
+                }
+            }
+            return null;
+        }).whenComplete((unused, throwable) -> {
+            if (throwable == null)
+                return;
+            batchesWaitingResponse.remove(correlationId);
+            for (RPCByteArrayChannelResponse channelResponse : channelResponses)
+                channelResponse.getWaitingResponse().completeExceptionally(throwable);
+        });
+        return futures;
+    }
+
+    public ResponseStream sendStream(byte[] message) {
+        return sendStream(message, 16, 30_000);
+    }
+
+    // The window bounds the chunks buffered here or in flight, a receiver that gets no credit for idleTimeout gives up
+    public ResponseStream sendStream(byte[] message, int window, long idleTimeout) {
+        UUID correlationId = generateCorrelationId();
+        ResponseStream stream = new ResponseStream(executions, binarySenderChannel, correlationId, window, idleTimeout,
+                () -> streamsWaitingResponse.remove(correlationId));
+        streamsWaitingResponse.put(correlationId, stream);
+        FrameWriter frame = BufferUtil.frameWriter();
+        frame.setCorrelationId(correlationId);
+        frame.setRemoteTimeout(idleTimeout);
+        frame.setStream(StreamSignal.OPEN, window, 0);
+        ByteArrayBuffer buffer = frame.body();
+        buffer.write(message);
+        long status;
+        try {
+            status = executions.pubBinary(binarySenderChannel, buffer.array(), 0, buffer.size());
+        } catch (RuntimeException ex) {
+            streamsWaitingResponse.remove(correlationId);
+            throw ex;
+        }
+        if (status == 0)
+            stream.fail(new ChannelException("No receivers are subscribed to " + new String(binarySenderChannel, StandardCharsets.UTF_8)));
+        return stream;
+    }
+
+    private void completeBatch(MessageFrame frame) {
+        List<RPCByteArrayChannelResponse> channelResponses = batchesWaitingResponse.remove(frame.getCorrelationId());
+        if (channelResponses == null)
+            return; // Response addressed to another sender
+        List<MessageFrame> items;
+        try {
+            items = frame.getBatchItems();
+        } catch (ChannelException ex) {
+            for (RPCByteArrayChannelResponse channelResponse : channelResponses)
+                channelResponse.getWaitingResponse().completeExceptionally(ex);
+            return;
+        }
+        for (int i = 0; i < channelResponses.size(); i++) {
+            if (i < items.size())
+                complete(channelResponses.get(i), items.get(i));
+            else channelResponses.get(i).getWaitingResponse().completeExceptionally(new ChannelException("Missing batch response " + i));
+        }
+    }
+
+    private static void complete(RPCByteArrayChannelResponse channelResponse, MessageFrame frame) {
+        try {
+            if (frame.isError()) {
+                channelResponse.setStatus(MessageStatus.ERROR);
+                channelResponse.setError(frame.getError());
+                channelResponse.getWaitingResponse().complete(null);
+                return;
+            }
+
+            channelResponse.setResponse(frame.getBody());
+            channelResponse.setStatus(MessageStatus.SUCCESS);
+            channelResponse.getWaitingResponse().complete(null);
+        } catch (ChannelException ex) {
+            channelResponse.getWaitingResponse().completeExceptionally(ex);
+        }
+    }
+
     private UUID generateCorrelationId() {
         UUID generatedCorrelationId;
         do {
-            generatedCorrelationId = UUID.randomUUID();
-        } while (messagesWaitingResponse.containsKey(generatedCorrelationId));
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            generatedCorrelationId = new UUID(random.nextLong(), random.nextLong());
+        } while (messagesWaitingResponse.containsKey(generatedCorrelationId) || batchesWaitingResponse.containsKey(generatedCorrelationId)
+                || streamsWaitingResponse.containsKey(generatedCorrelationId));
         return generatedCorrelationId;
     }
 
@@ -22,36 +22,144 @@
 
 package com.github.eupedroosouza.messaging.sender.object;
 
+import com.github.eupedroosouza.messaging.codec.MessageFormat;
 import com.github.eupedroosouza.messaging.connection.JedisExecutions;
-import com.github.eupedroosouza.messaging.data.DataKeys;
+import com.github.eupedroosouza.messaging.exception.ChannelException;
+import com.github.eupedroosouza.messaging.frame.FrameWriter;
 import com.github.eupedroosouza.messaging.message.MessageObject;
+import com.github.eupedroosouza.messaging.message.priority.MessagePriority;
 import com.github.eupedroosouza.messaging.message.status.MessageStatus;
+import com.github.eupedroosouza.messaging.sender.MessageBundler;
+import com.github.eupedroosouza.messaging.sender.PublishJournal;
+import com.github.eupedroosouza.messaging.util.BufferUtil;
+import com.github.eupedroosouza.messaging.util.ByteArrayBuffer;
 import com.github.eupedroosouza.messaging.util.FutureUtil;
-import com.github.eupedroosouza.messaging.util.GsonUtil;
-import com.google.gson.JsonObject;
+import com.github.eupedroosouza.messaging.util.ObjectMessageUtil;
+import com.github.eupedroosouza.messaging.util.SerialExecutor;
 
+import java.io.File;
+import java.nio.charset.StandardCharsets;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+import java.util.function.ToLongFunction;
 
 public class ObjectMessageSender {
 
     private final JedisExecutions executions;
-    private final String channel;
+    private final byte[] byteChannel;
+    private final MessageFormat format;
+    private ToLongFunction<MessageObject> messageIds;
+    private long publisherId;
+    private AtomicLong sequence;
+    private SerialExecutor sequencer;
+    private PublishJournal journal;
+    private MessageBundler bundler;
 
     public ObjectMessageSender(JedisExecutions executions, String channel) {
+        this(executions, channel, MessageFormat.JSON);
+    }
+
+    public ObjectMessageSender(JedisExecutions executions, String channel, MessageFormat format) {
         this.executions = executions;
-        this.channel = channel;
+        this.byteChannel = channel.getBytes(StandardCharsets.UTF_8);
+        this.format = format;
+    }
+
+    public void enableMessageIds() {
+        enableMessageIds((messageObject) -> ThreadLocalRandom.current().nextLong());
+    }
+
+    // Redundant publishers should derive the id from the message so that every copy carries the same one
+    public void enableMessageIds(ToLongFunction<MessageObject> messageIds) {
+        this.messageIds = messageIds;
+    }
+
+    // Sequenced messages are published one at a time in the order they were numbered
+    public void enableSequencing() {
+        this.publisherId = ThreadLocalRandom.current().nextLong();
+        this.sequence = new AtomicLong();
+        this.sequencer = new SerialExecutor(CompletableFuture::runAsync);
+    }
+
+    // Failed publishes are encoded into the directory and replayed once Redis answers again, at least once.
+    // Later messages queue behind them while any are left, see PublishJournal
+    public void enableJournal(File directory, long maxBytes) throws ChannelException {
+        String channel = new String(byteChannel, StandardCharsets.UTF_8);
+        this.journal = new PublishJournal(executions, channel, directory, maxBytes);
+        this.journal.start();
+    }
+
+    public void shutdownJournal() {
+        if (journal != null)
+            journal.shutdown();
+    }
+
+    public PublishJournal getJournal() {
+        return journal;
+    }
+
+    // Publishes the messages of each linger window as one bundle frame, or earlier once it reaches maxBytes.
+    // Objects are encoded on the calling thread, in process receivers get decoded copies instead of the sent instance
+    public void enableBundling(long lingerMillis, int maxBytes) {
+        this.bundler = new MessageBundler((buffer) -> {
+            LongSupplier publisher = () -> executions.pubBinary(byteChannel, buffer.array(), 0, buffer.size());
+            if (journal != null)
+                return journal.publish(publisher, () -> buffer);
+            return publisher.getAsLong() == 0 ? MessageStatus.NOT_SUBSCRIBERS_CHANNEL : MessageStatus.SUCCESS;
+        }, lingerMillis, maxBytes);
+    }
+
+    // Publishes the open bundle without waiting for its linger window
+    public void flush() {
+        if (bundler != null)
+            bundler.flush();
     }
 
     public <T extends MessageObject> CompletableFuture<MessageStatus> send(T messageObject) {
+        return send(messageObject, MessagePriority.NORMAL);
+    }
+
+    public <T extends MessageObject> CompletableFuture<MessageStatus> send(T messageObject, MessagePriority priority) {
+        if (sequence == null)
+            return send(messageObject, priority, 0);
+        // Numbered and queued together, so the publish order is the sequence order
+        synchronized (sequence) {
+            return send(messageObject, priority, sequence.getAndIncrement());
+        }
+    }
+
+    private <T extends MessageObject> CompletableFuture<MessageStatus> send(T messageObject, MessagePriority priority, long sequenceNumber) {
+        Supplier<ByteArrayBuffer> encoder = () -> {
+            FrameWriter frame = BufferUtil.frameWriter();
+            frame.setFormat(format);
+            frame.setPriority(priority);
+            if (messageIds != null)
+                frame.setMessageId(messageIds.applyAsLong(messageObject));
+            if (sequence != null)
+                frame.setSequence(publisherId, sequenceNumber);
+            ObjectMessageUtil.serialize(frame, messageObject);
+            return frame.getBuffer();
+        };
+        if (bundler != null) {
+            ByteArrayBuffer buffer;
+            try {
+                buffer = encoder.get();
+            } catch (RuntimeException ex) {
+                return FutureUtil.failed(ex);
+            }
+            return bundler.add(buffer.array(), 0, buffer.size());
+        }
         return FutureUtil.exceptionAsyncFuture(() -> {
-            JsonObject object = new JsonObject();
-            object.addProperty(DataKeys.CLASS_NAME_KEY, messageObject.getClass().getCanonicalName());
-            object.add(DataKeys.MESSAGE_KEY, messageObject.serialize());
-            long status = executions.pub(channel, GsonUtil.GSON.toJson(object));
+            if (journal != null)
+                return journal.publish(() -> executions.pubObject(byteChannel, messageObject, encoder), encoder);
+            long status = executions.pubObject(byteChannel, messageObject, encoder);
             if (status == 0)
                 return MessageStatus.NOT_SUBSCRIBERS_CHANNEL;
             return MessageStatus.SUCCESS;
-        });
+        }, sequencer);
     }
 
 }
@@ -22,25 +22,40 @@
 
 package com.github.eupedroosouza.messaging.sender.object;
 
+import com.github.eupedroosouza.messaging.codec.MessageFormat;
 import com.github.eupedroosouza.messaging.connection.JedisExecutions;
-import com.github.eupedroosouza.messaging.data.DataKeys;
+import com.github.eupedroosouza.messaging.connection.SubscriptionSupervisor;
 import com.github.eupedroosouza.messaging.exception.ChannelException;
-import com.github.eupedroosouza.messaging.message.MessageError;
+import com.github.eupedroosouza.messaging.frame.FrameWriter;
+import com.github.eupedroosouza.messaging.frame.MessageFrame;
 import com.github.eupedroosouza.messaging.message.MessageObject;
+import com.github.eupedroosouza.messaging.message.priority.MessagePriority;
 import com.github.eupedroosouza.messaging.message.rpc.RPCObjectChannelResponse;
 import com.github.eupedroosouza.messaging.message.status.MessageStatus;
+import com.github.eupedroosouza.messaging.sender.HedgePolicy;
+import com.github.eupedroosouza.messaging.trace.Trace;
+import com.github.eupedroosouza.messaging.trace.TraceStage;
+import com.github.eupedroosouza.messaging.trace.Tracer;
+import com.github.eupedroosouza.messaging.util.BufferUtil;
+import com.github.eupedroosouza.messaging.util.ByteArrayBuffer;
 import com.github.eupedroosouza.messaging.util.FutureUtil;
-import com.github.eupedroosouza.messaging.util.GsonUtil;
 import com.github.eupedroosouza.messaging.util.ObjectMessageUtil;
-import com.google.gson.JsonObject;
-import com.google.gson.JsonParseException;
-import redis.clients.jedis.JedisPubSub;
+import com.github.eupedroosouza.messaging.util.ShardUtil;
+import com.github.eupedroosouza.messaging.util.TinyLfuCache;
+import redis.clients.jedis.BinaryJedisPubSub;
 
 import java.lang.reflect.Method;
-import java.util.HashMap;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.BiConsumer;
 
 public class RPCObjectMessageSender {
@@ -56,99 +71,127 @@ public class RPCObjectMessageSender {
     }
 
     private final JedisExecutions executions;
-    private final String senderChannel;
-    private final JedisPubSub responseReceiverPubSub;
-    private final Thread responseReceiverThread;
+    private final byte[] binarySenderChannel;
+    private final MessageFormat format;
+    private final BinaryJedisPubSub responseReceiverPubSub;
+    private final SubscriptionSupervisor supervisor;
+    private final String channel;
+    private Tracer tracer;
+    private HedgePolicy hedgePolicy;
+    private byte[][] instanceChannels;
+    private byte[][] shardChannels;
+    private final AtomicInteger nextInstance = new AtomicInteger();
+    private ConcurrentHashMap<RequestKey, Flight> inFlight;
+    private TinyLfuCache<RequestKey, RPCObjectChannelResponse<?>> responseCache;
 
-    private final HashMap<UUID, RPCObjectChannelResponse<?>> messagesWaitingResponse = new HashMap<>();
+    private final ConcurrentHashMap<UUID, RPCObjectChannelResponse<?>> messagesWaitingResponse = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<UUID, List<RPCObjectChannelResponse<?>>> batchesWaitingResponse = new ConcurrentHashMap<>();
 
     public RPCObjectMessageSender(JedisExecutions executions, String channel) {
         this(executions, channel, (c, sc) -> {}, (c, sc) -> {});
     }
 
+    public RPCObjectMessageSender(JedisExecutions executions, String channel, MessageFormat format) {
+        this(executions, channel, format, (c, sc) -> {}, (c, sc) -> {});
+    }
+
     public RPCObjectMessageSender(JedisExecutions executions, String channel, BiConsumer<String, Integer> onResponseChannelSubscribe,
                                   BiConsumer<String, Integer> onResponseChannelUnsubscribe) {
+        this(executions, channel, MessageFormat.JSON, onResponseChannelSubscribe, onResponseChannelUnsubscribe);
+    }
+
+    public RPCObjectMessageSender(JedisExecutions executions, String channel, MessageFormat format,
+                                  BiConsumer<String, Integer> onResponseChannelSubscribe, BiConsumer<String, Integer> onResponseChannelUnsubscribe) {
         this.executions = executions;
-        this.senderChannel = (channel + ":sender");
-        String receiverChannel = (channel + ":receiver");
-        this.responseReceiverPubSub = new JedisPubSub() {
+        this.format = format;
+        this.channel = channel;
+        this.binarySenderChannel = (channel + ":sender").getBytes(StandardCharsets.UTF_8);
+        byte[] binaryReceiverChannel = (channel + ":receiver").getBytes(StandardCharsets.UTF_8);
+        this.responseReceiverPubSub = new BinaryJedisPubSub() {
             @Override
-            public void onMessage(String channel, String message) {
-                JsonObject object;
-                try {
-                    object = GsonUtil.GSON.fromJson(message, JsonObject.class);
-                } catch (JsonParseException ex) {
-                    throw ex; // Handle the exception
-                }
-
-                if (!object.has(DataKeys.CORRELATION_ID_KEY))
+            public void onMessage(byte[] channel, byte[] message) {
+                if (!MessageFrame.isFrame(message))
                     return; // Handle this
-                UUID correlationId;
-                try {
-                    correlationId = UUID.fromString(object.get(DataKeys.CORRELATION_ID_KEY).getAsString());
-                } catch (IllegalArgumentException ex) {
-                    throw ex; // Handle the exception
-                }
-
-                if (!messagesWaitingResponse.containsKey(correlationId))
+                MessageFrame frame = MessageFrame.read(message);
+                if (!frame.hasCorrelationId())
                     return; // Handle this
-                RPCObjectChannelResponse<? extends MessageObject> channelResponse = messagesWaitingResponse.get(correlationId);
-                if (object.has(DataKeys.ERROR_CLASS_NAME_KEY) || object.has(DataKeys.ERROR_MESSAGE_KEY)) {
-                    String errorClassName = object.has(DataKeys.ERROR_CLASS_NAME_KEY) ? object.get(DataKeys.ERROR_CLASS_NAME_KEY).getAsString() : null;
-                    String errorMessage = object.has(DataKeys.ERROR_MESSAGE_KEY) ? object.get(DataKeys.ERROR_MESSAGE_KEY).getAsString() : null;
-                    channelResponse.setStatus(MessageStatus.ERROR);
-                    channelResponse.setError(new MessageError(errorClassName, errorMessage));
-                    channelResponse.getWaitingResponse().complete(null);
+                if (frame.isBatch()) {
+                    completeBatch(frame);
                     return;
                 }
 
-                if (!object.has(DataKeys.CLASS_NAME_KEY))
-                    return; // Handle this
+                // Removed by the first reply, a hedged request's slower reply then finds nothing
+                RPCObjectChannelResponse<? extends MessageObject> channelResponse = messagesWaitingResponse.remove(frame.getCorrelationId());
+                if (channelResponse == null)
+                    return; // Response addressed to another sender or already answered, dropped without decoding the body
 
-                if (!object.has(DataKeys.RESPONSE_KEY))
-                    return; // Handle this
-
-                String className = object.get(DataKeys.CLASS_NAME_KEY).getAsString();
-                JsonObject response = object.get(DataKeys.RESPONSE_KEY).getAsJsonObject();
-                try {
-                    Class<? extends MessageObject> clazz = Class.forName(className).asSubclass(MessageObject.class);
-                    Object o = ObjectMessageUtil.deserialize(clazz, response);
-                    SET_RESPONSE_METHOD.invoke(channelResponse, clazz.cast(o));
-                    channelResponse.setStatus(MessageStatus.SUCCESS);
-                    channelResponse.getWaitingResponse().complete(null);
-                } catch(Exception ex) {
-                    Throwable throwable;
-                    if (ex instanceof ClassNotFoundException)
-                        throwable = new ChannelException("Class " + className + " of received message not found", ex);  // Handle the exception
-                    else if (ex instanceof ClassCastException)
-                        throwable = new ChannelException("The class " + className + " is not assignable from MessageObject", ex); // Handle the exception
-                    else throwable = ex;
-                    channelResponse.getWaitingResponse().completeExceptionally(throwable);
+                Trace trace = channelResponse.getTrace();
+                long decodeStart = 0;
+                if (trace != null) {
+                    decodeStart = System.nanoTime();
+                    readTrace(trace, frame);
                 }
+                complete(channelResponse, frame, trace, decodeStart);
             }
 
             @Override
-            public void onSubscribe(String channel, int subscribedChannels) {
-                onResponseChannelSubscribe.accept(channel, subscribedChannels);
+            public void onSubscribe(byte[] channel, int subscribedChannels) {
+                supervisor.onSubscribed();
+                onResponseChannelSubscribe.accept(new String(channel, StandardCharsets.UTF_8), subscribedChannels);
             }
 
             @Override
-            public void onUnsubscribe(String channel, int subscribedChannels) {
-                onResponseChannelUnsubscribe.accept(channel, subscribedChannels);
+            public void onUnsubscribe(byte[] channel, int subscribedChannels) {
+                onResponseChannelUnsubscribe.accept(new String(channel, StandardCharsets.UTF_8), subscribedChannels);
             }
         };
-        this.responseReceiverThread = new Thread(() -> {
-            executions.sub(responseReceiverPubSub, receiverChannel);
-        }, channel + "-response-receiver");
+        this.supervisor = new SubscriptionSupervisor(channel + "-response-receiver", () -> {
+            executions.subBinary(responseReceiverPubSub, binaryReceiverChannel);
+        });
+    }
+
+    public void enableTracing(Tracer tracer) {
+        this.tracer = tracer;
+    }
+
+    // Only for idempotent requests, the duplicate goes to the next of at least two receiver instances.
+    // Keyed requests are never hedged, their shard has a single owner
+    public void enableHedging(HedgePolicy hedgePolicy, String... receiverInstances) {
+        if (receiverInstances.length < 2)
+            throw new IllegalArgumentException("Hedging needs at least two receiver instances to target");
+        this.hedgePolicy = hedgePolicy;
+        this.instanceChannels = new byte[receiverInstances.length][];
+        for (int i = 0; i < receiverInstances.length; i++)
+            instanceChannels[i] = (channel + ":sender:instance:" + receiverInstances[i]).getBytes(StandardCharsets.UTF_8);
+    }
+
+    // Identical concurrent requests share one round trip and receive the same response object
+    public void enableCoalescing() {
+        this.inFlight = new ConcurrentHashMap<>();
+    }
+
+    public void enableResponseCache(int maxEntries, long ttlMillis) {
+        this.responseCache = new TinyLfuCache<>(maxEntries, ttlMillis);
+    }
+
+    // Must match the shard count the receivers were given with RPCObjectMessageReceiver#enableSharding
+    public void enableSharding(int shards) {
+        this.shardChannels = new byte[shards][];
+        for (int i = 0; i < shards; i++)
+            shardChannels[i] = (channel + ":sender:" + i).getBytes(StandardCharsets.UTF_8);
     }
 
     public void start() {
-        responseReceiverThread.start();
+        supervisor.start();
     }
 
     public void shutdown() {
-        responseReceiverPubSub.unsubscribe();
-        responseReceiverThread.interrupt();
+        supervisor.shutdown();
+        executions.unsubBinary(responseReceiverPubSub);
+    }
+
+    public SubscriptionSupervisor getSupervisor() {
+        return supervisor;
     }
 
     public <S extends MessageObject> CompletableFuture<RPCObjectChannelResponse<? extends MessageObject>> send(S messageObject) {
@@ -163,37 +206,349 @@ public class RPCObjectMessageSender {
         return send(messageObject, 0, remoteTimeout);
     }
 
+    public <S extends MessageObject> CompletableFuture<RPCObjectChannelResponse<? extends MessageObject>> send(S messageObject, MessagePriority priority) {
+        return send(messageObject, 0, 0, priority);
+    }
+
     public <S extends MessageObject> CompletableFuture<RPCObjectChannelResponse<? extends MessageObject>> send(S messageObject, long timeout, long remoteTimeout) {
+        return send(messageObject, timeout, remoteTimeout, MessagePriority.NORMAL);
+    }
+
+    public <S extends MessageObject> CompletableFuture<RPCObjectChannelResponse<? extends MessageObject>> send(S messageObject, long timeout, long remoteTimeout, MessagePriority priority) {
+        return send((byte[]) null, messageObject, timeout, remoteTimeout, priority);
+    }
+
+    public <S extends MessageObject> CompletableFuture<RPCObjectChannelResponse<? extends MessageObject>> send(String routingKey, S messageObject) {
+        return send(routingKey, messageObject, 0, 0, MessagePriority.NORMAL);
+    }
+
+    public <S extends MessageObject> CompletableFuture<RPCObjectChannelResponse<? extends MessageObject>> send(String routingKey, S messageObject, long timeout) {
+        return send(routingKey, messageObject, timeout, 0, MessagePriority.NORMAL);
+    }
+
+    public <S extends MessageObject> CompletableFuture<RPCObjectChannelResponse<? extends MessageObject>> send(String routingKey, S messageObject, long timeout, long remoteTimeout, MessagePriority priority) {
+        if (shardChannels == null)
+            throw new ChannelException("Sharding is not enabled for " + channel);
+        return send(shardChannels[ShardUtil.shard(routingKey, shardChannels.length)], messageObject, timeout, remoteTimeout, priority);
+    }
+
+    private <S extends MessageObject> CompletableFuture<RPCObjectChannelResponse<? extends MessageObject>> send(byte[] targetChannel, S messageObject, long timeout, long remoteTimeout, MessagePriority priority) {
         return FutureUtil.exceptionAsyncFuture(() -> {
             UUID correlationId = generateCorrelationId();
             RPCObjectChannelResponse<?> channelResponse = new RPCObjectChannelResponse<>();
-            messagesWaitingResponse.put(correlationId, channelResponse);
+            // Unsampled requests allocate nothing for tracing
+            Trace trace = tracer != null && tracer.sample() ? tracer.start(channel) : null;
+            channelResponse.setTrace(trace);
+            boolean registered = false;
             try {
-                JsonObject object = new JsonObject();
-                object.addProperty(DataKeys.CORRELATION_ID_KEY, correlationId.toString());
-                object.addProperty(DataKeys.CLASS_NAME_KEY, messageObject.getClass().getName());
-                object.add(DataKeys.MESSAGE_KEY, messageObject.serialize());
-                object.addProperty(DataKeys.REMOTE_TIMEOUT_KEY, remoteTimeout);
-                long status = executions.pub(senderChannel, GsonUtil.GSON.toJson(object));
-                if (status == 0) {
-                    channelResponse.setStatus(MessageStatus.NOT_SUBSCRIBERS_CHANNEL);
-                    return channelResponse;
-                }
+                FrameWriter frame = BufferUtil.frameWriter();
+                if (trace != null)
+                    frame.setTrace(trace);
+                frame.setFormat(format);
+                frame.setCorrelationId(correlationId);
+                frame.setPriority(priority);
                 if (timeout > 0)
-                    channelResponse.getWaitingResponse().get(timeout, TimeUnit.MILLISECONDS);
-                else channelResponse.getWaitingResponse().join();
-                return channelResponse;
+                    frame.setDeadline(System.currentTimeMillis() + timeout);
+                if (remoteTimeout > 0)
+                    frame.setRemoteTimeout(remoteTimeout);
+                ObjectMessageUtil.serialize(frame, messageObject);
+                ByteArrayBuffer buffer = frame.getBuffer();
+                long serialized = trace != null || hedgePolicy != null ? System.nanoTime() : 0;
+
+                RequestKey key = null;
+                Flight flight = null;
+                if (inFlight != null || responseCache != null) {
+                    key = new RequestKey(targetChannel, messageObject.getClass().getName(), frame.copyBody());
+                    RPCObjectChannelResponse<?> cached = responseCache != null ? responseCache.get(key) : null;
+                    if (cached != null)
+                        return cached;
+                    if (inFlight != null) {
+                        flight = new Flight(correlationId);
+                        Flight leader = inFlight.putIfAbsent(key, flight);
+                        if (leader != null)
+                            return follow(key, leader, timeout);
+                    }
+                }
+                // Only the request actually published waits for a reply, followers never register
+                messagesWaitingResponse.put(correlationId, channelResponse);
+                registered = true;
+                RPCObjectChannelResponse<?> response;
+                try {
+                    response = exchange(targetChannel, channelResponse, buffer, trace, timeout, serialized);
+                } catch (TimeoutException ex) {
+                    if (flight != null) {
+                        // Followers keep their own timeout, the request stays registered until the reply or until the last of them gives up
+                        registered = false;
+                        RequestKey flightKey = key;
+                        Flight ownFlight = flight;
+                        channelResponse.getWaitingResponse().thenRun(() -> {
+                            inFlight.remove(flightKey, ownFlight);
+                            ownFlight.complete(channelResponse);
+                        });
+                        leave(key, flight);
+                    }
+                    throw ex;
+                } catch (Exception ex) {
+                    if (flight != null) {
+                        inFlight.remove(key, flight);
+                        flight.completeExceptionally(ex);
+                    }
+                    throw ex;
+                }
+                if (responseCache != null && response.getStatus() == MessageStatus.SUCCESS)
+                    responseCache.put(key, response);
+                if (flight != null) {
+                    inFlight.remove(key, flight);
+                    flight.complete(response);
+                }
+                return response;
             } finally {
-                messagesWaitingResponse.remove(correlationId);
+                if (registered)
+                    messagesWaitingResponse.remove(correlationId);
             }
         });
     }
 
+    private RPCObjectChannelResponse<?> follow(RequestKey key, Flight flight, long timeout) throws Exception {
+        flight.waiters.incrementAndGet();
+        if (timeout <= 0)
+            return flight.join();
+        try {
+            return flight.get(timeout, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException ex) {
+            leave(key, flight);
+            throw ex;
+        }
+    }
+
+    // The last caller to give up on an unanswered flight drops it, a later reply then finds nothing
+    private void leave(RequestKey key, Flight flight) {
+        if (flight.waiters.decrementAndGet() > 0)
+            return;
+        inFlight.remove(key, flight);
+        messagesWaitingResponse.remove(flight.correlationId);
+        flight.completeExceptionally(new TimeoutException());
+    }
+
+    public <S extends MessageObject> List<CompletableFuture<RPCObjectChannelResponse<? extends MessageObject>>> sendBatch(List<S> messageObjects) {
+        return sendBatch(messageObjects, 0, 0);
+    }
+
+    public <S extends MessageObject> List<CompletableFuture<RPCObjectChannelResponse<? extends MessageObject>>> sendBatch(List<S> messageObjects, long timeout) {
+        return sendBatch(messageObjects, timeout, 0);
+    }
+
+    // One publish and one reply frame for all messages, each still completes its own future
+    public <S extends MessageObject> List<CompletableFuture<RPCObjectChannelResponse<? extends MessageObject>>> sendBatch(List<S> messageObjects, long timeout, long remoteTimeout) {
+        UUID correlationId = generateCorrelationId();
+        List<RPCObjectChannelResponse<?>> channelResponses = new ArrayList<>(messageObjects.size());
+        List<CompletableFuture<RPCObjectChannelResponse<? extends MessageObject>>> futures = new ArrayList<>(messageObjects.size());
+        for (int i = 0; i < messageObjects.size(); i++) {
+            RPCObjectChannelResponse<?> channelResponse = new RPCObjectChannelResponse<>();
+            channelResponses.add(channelResponse);
+            futures.add(FutureUtil.within(channelResponse.getWaitingResponse().thenApply((unused) -> channelResponse), timeout, TimeUnit.MILLISECONDS));
+        }
+        batchesWaitingResponse.put(correlationId, channelResponses);
+        if (timeout > 0)
+            FutureUtil.scheduler().schedule(() -> batchesWaitingResponse.remove(correlationId), timeout, TimeUnit.MILLISECONDS);
+        FutureUtil.exceptionAsyncFuture(() -> {
+            FrameWriter frame = BufferUtil.frameWriter();
+            frame.setFormat(format);
+            frame.setCorrelationId(correlationId);
+            if (timeout > 0)
+                frame.setDeadline(System.currentTimeMillis() + timeout);
+            if (remoteTimeout > 0)
+                frame.setRemoteTimeout(remoteTimeout);
+            frame.setBatch(messageObjects.size());
+            frame.body();
+            FrameWriter itemFrame = new FrameWriter(new ByteArrayBuffer());
+            for (S messageObject : messageObjects) {
+                itemFrame.reset();
+                itemFrame.setFormat(format);
+                ObjectMessageUtil.serialize(itemFrame, messageObject);
+                frame.batchItem(itemFrame);
+            }
+            ByteArrayBuffer buffer = frame.getBuffer();
+            if (executions.pubBinary(binarySenderChannel, buffer.array(), 0, buffer.size()) == 0) {
+                batchesWaitingResponse.remove(correlationId);
+                for (RPCObjectChannelResponse<?> channelResponse : channelResponses) {
+                    channelResponse.setStatus(MessageStatus.NOT_SUBSCRIBERS_CHANNEL);
+                    channelResponse.getWaitingResponse().complete(null);
+                }
+            }
+            return null;
+        }).whenComplete((unused, throwable) -> {
+            if (throwable == null)
+                return;
+            batchesWaitingResponse.remove(correlationId);
+            for (RPCObjectChannelResponse<?> channelResponse : channelResponses)
+                channelResponse.getWaitingResponse().completeExceptionally(throwable);
+        });
+        return futures;
+    }
+
+    private void completeBatch(MessageFrame frame) {
+        List<RPCObjectChannelResponse<?>> channelResponses = batchesWaitingResponse.remove(frame.getCorrelationId());
+        if (channelResponses == null)
+            return; // Response addressed to another sender
+        List<MessageFrame> items;
+        try {
+            items = frame.getBatchItems();
+        } catch (ChannelException ex) {
+            for (RPCObjectChannelResponse<?> channelResponse : channelResponses)
+                channelResponse.getWaitingResponse().completeExceptionally(ex);
+            return;
+        }
+        for (int i = 0; i < channelResponses.size(); i++) {
+            if (i < items.size())
+                complete(channelResponses.get(i), items.get(i), null, 0);
+            else channelResponses.get(i).getWaitingResponse().completeExceptionally(new ChannelException("Missing batch response " + i));
+        }
+    }
+
+    private static void complete(RPCObjectChannelResponse<?> channelResponse, MessageFrame frame, Trace trace, long decodeStart) {
+        // Replies arrive on the one response thread, a completed response may already be read by the caller
+        if (channelResponse.getWaitingResponse().isDone())
+            return;
+        try {
+            if (frame.isError()) {
+                channelResponse.setStatus(MessageStatus.ERROR);
+                channelResponse.setError(frame.getError());
+                finishTrace(trace, decodeStart);
+                channelResponse.getWaitingResponse().complete(null);
+                return;
+            }
+
+            SET_RESPONSE_METHOD.invoke(channelResponse, frame.getMessageObject());
+            channelResponse.setStatus(MessageStatus.SUCCESS);
+            finishTrace(trace, decodeStart);
+            channelResponse.getWaitingResponse().complete(null);
+        } catch(Exception ex) {
+            channelResponse.getWaitingResponse().completeExceptionally(ex);
+        }
+    }
+
+    private RPCObjectChannelResponse<?> exchange(byte[] targetChannel, RPCObjectChannelResponse<?> channelResponse, ByteArrayBuffer buffer,
+                                                 Trace trace, long timeout, long serialized) throws Exception {
+        int instance = targetChannel == null && instanceChannels != null && instanceChannels.length > 0
+                ? Math.floorMod(nextInstance.getAndIncrement(), instanceChannels.length) : -1;
+        long status = executions.pubBinary(targetChannel != null ? targetChannel : instanceChannel(instance), buffer.array(), 0, buffer.size());
+        // A stopped instance has no subscriber left, the request goes to the next one and then to the shared channel
+        if (status == 0 && instance >= 0) {
+            status = executions.pubBinary(instanceChannel(++instance), buffer.array(), 0, buffer.size());
+            if (status == 0) {
+                instance = -1;
+                status = executions.pubBinary(binarySenderChannel, buffer.array(), 0, buffer.size());
+            }
+        }
+        // The buffer is this thread's reused frame buffer, other work the thread runs while blocked below may overwrite it.
+        // Nothing reads it past this point, only a copy outlives the publish
+        byte[] published = instance >= 0 && hedgePolicy != null ? Arrays.copyOf(buffer.array(), buffer.size()) : null;
+        if (trace != null) {
+            trace.setDuration(TraceStage.SERIALIZE, serialized - trace.getStartNanos());
+            trace.setDuration(TraceStage.PUBLISH, System.nanoTime() - serialized);
+        }
+        if (status == 0) {
+            channelResponse.setStatus(MessageStatus.NOT_SUBSCRIBERS_CHANNEL);
+            return channelResponse;
+        }
+        long waited = instance >= 0 && hedgePolicy != null ? awaitOrHedge(channelResponse, timeout, published, instanceChannel(instance + 1)) : 0;
+        if (timeout > 0)
+            channelResponse.getWaitingResponse().get(timeout - waited, TimeUnit.MILLISECONDS);
+        else channelResponse.getWaitingResponse().join();
+        if (hedgePolicy != null && channelResponse.getStatus() == MessageStatus.SUCCESS)
+            hedgePolicy.record(System.nanoTime() - serialized);
+        // Recorded here rather than on the reply thread, which may run before the serialize and publish stages are stamped
+        if (trace != null) {
+            // The send stamp is taken before serialization, which is measured locally
+            if (trace.getReceivedAt() != 0)
+                trace.setDuration(TraceStage.TRANSIT, TimeUnit.MILLISECONDS.toNanos(trace.getReceivedAt() - trace.getSentAt())
+                        - trace.getDuration(TraceStage.SERIALIZE));
+            trace.setDuration(TraceStage.TOTAL, System.nanoTime() - trace.getStartNanos());
+            tracer.record(trace);
+        }
+        return channelResponse;
+    }
+
+    private byte[] instanceChannel(int instance) {
+        return instance < 0 ? binarySenderChannel : instanceChannels[instance % instanceChannels.length];
+    }
+
+    private long awaitOrHedge(RPCObjectChannelResponse<?> channelResponse, long timeout, byte[] message, byte[] hedgeChannel) throws Exception {
+        hedgePolicy.onRequest();
+        long delay = hedgePolicy.getDelayMillis();
+        if (timeout > 0 && delay >= timeout)
+            return 0;
+        try {
+            channelResponse.getWaitingResponse().get(delay, TimeUnit.MILLISECONDS);
+        } catch (TimeoutException ex) {
+            // Same correlation id, the first reply removes it so the slower one is dropped as unknown
+            if (hedgePolicy.tryHedge())
+                executions.pubBinary(hedgeChannel, message);
+        }
+        return delay;
+    }
+
+    private static void readTrace(Trace trace, MessageFrame frame) {
+        if (!frame.hasTraceTimings())
+            return;
+        frame.readTraceTimings(trace);
+        trace.setWallDuration(TraceStage.RETURN, trace.getRepliedAt(), System.currentTimeMillis());
+    }
+
+    private static void finishTrace(Trace trace, long decodeStart) {
+        if (trace != null)
+            trace.setDuration(TraceStage.RESPONSE_DECODE, System.nanoTime() - decodeStart);
+    }
+
     private UUID generateCorrelationId() {
         UUID generatedCorrelationId;
         do {
-            generatedCorrelationId = UUID.randomUUID();
-        } while (messagesWaitingResponse.containsKey(generatedCorrelationId));
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            generatedCorrelationId = new UUID(random.nextLong(), random.nextLong());
+        } while (messagesWaitingResponse.containsKey(generatedCorrelationId) || batchesWaitingResponse.containsKey(generatedCorrelationId));
         return generatedCorrelationId;
     }
+
+    private static class Flight extends CompletableFuture<RPCObjectChannelResponse<?>> {
+
+        private final UUID correlationId;
+        // Callers still waiting, the leader included until its own timeout
+        private final AtomicInteger waiters = new AtomicInteger(1);
+
+        private Flight(UUID correlationId) {
+            this.correlationId = correlationId;
+        }
+
+    }
+
+    private static class RequestKey {
+
+        private final byte[] channel;
+        private final String className;
+        private final byte[] body;
+        private final int hash;
+
+        private RequestKey(byte[] channel, String className, byte[] body) {
+            this.channel = channel;
+            this.className = className;
+            this.body = body;
+            this.hash = 31 * (31 * Arrays.hashCode(channel) + className.hashCode()) + Long.hashCode(BufferUtil.hash(body, 0, body.length));
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            if (!(other instanceof RequestKey))
+                return false;
+            RequestKey key = (RequestKey) other;
+            return hash == key.hash && Arrays.equals(channel, key.channel) && className.equals(key.className) && Arrays.equals(body, key.body);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+    }
+
 }
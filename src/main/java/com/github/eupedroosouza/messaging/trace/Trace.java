@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2024 Pedro Souza
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package com.github.eupedroosouza.messaging.trace;
+
+import java.util.concurrent.TimeUnit;
+
+public class Trace {
+
+    private final long traceId;
+    private final String channel;
+    private final long startNanos;
+    private final long[] durations = new long[TraceStage.values().length];
+    private long sentAt;
+    private long receivedAt;
+    private long repliedAt;
+
+    public Trace(long traceId, String channel) {
+        this.traceId = traceId;
+        this.channel = channel;
+        this.startNanos = System.nanoTime();
+    }
+
+    public long getTraceId() {
+        return traceId;
+    }
+
+    public String getChannel() {
+        return channel;
+    }
+
+    public long getStartNanos() {
+        return startNanos;
+    }
+
+    public long getDuration(TraceStage stage) {
+        return durations[stage.ordinal()];
+    }
+
+    public void setDuration(TraceStage stage, long nanos) {
+        durations[stage.ordinal()] = Math.max(0, nanos);
+    }
+
+    public void setWallDuration(TraceStage stage, long fromMillis, long toMillis) {
+        setDuration(stage, TimeUnit.MILLISECONDS.toNanos(toMillis - fromMillis));
+    }
+
+    public long getSentAt() {
+        return sentAt;
+    }
+
+    public void setSentAt(long sentAt) {
+        this.sentAt = sentAt;
+    }
+
+    public long getReceivedAt() {
+        return receivedAt;
+    }
+
+    public void setReceivedAt(long receivedAt) {
+        this.receivedAt = receivedAt;
+    }
+
+    public long getRepliedAt() {
+        return repliedAt;
+    }
+
+    public void setRepliedAt(long repliedAt) {
+        this.repliedAt = repliedAt;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder("Trace{id=").append(Long.toHexString(traceId)).append(", channel=").append(channel);
+        for (TraceStage stage : TraceStage.values())
+            builder.append(", ").append(stage.name().toLowerCase()).append('=').append(durations[stage.ordinal()]).append("ns");
+        return builder.append('}').toString();
+    }
+
+}
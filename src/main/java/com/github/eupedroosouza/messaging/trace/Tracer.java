@@ -0,0 +1,80 @@
+/*
+ * Copyright (c) 2024 Pedro Souza
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package com.github.eupedroosouza.messaging.trace;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+public class Tracer {
+
+    private final double sampleRate;
+    private final TraceListener listener;
+    private final ConcurrentHashMap<String, LatencyHistogram[]> histograms = new ConcurrentHashMap<>();
+
+    public Tracer(double sampleRate) {
+        this(sampleRate, (trace) -> {});
+    }
+
+    public Tracer(double sampleRate, TraceListener listener) {
+        this.sampleRate = sampleRate;
+        this.listener = listener;
+    }
+
+    public boolean sample() {
+        return sampleRate >= 1 || (sampleRate > 0 && ThreadLocalRandom.current().nextDouble() < sampleRate);
+    }
+
+    public Trace start(String channel) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        Trace trace = new Trace(random.nextLong(), channel);
+        trace.setSentAt(System.currentTimeMillis());
+        return trace;
+    }
+
+    public void record(Trace trace) {
+        LatencyHistogram[] channelHistograms = histograms(trace.getChannel());
+        for (TraceStage stage : TraceStage.values()) {
+            long duration = trace.getDuration(stage);
+            if (duration > 0)
+                channelHistograms[stage.ordinal()].record(duration);
+        }
+        listener.onTrace(trace);
+    }
+
+    public LatencyHistogram getHistogram(String channel, TraceStage stage) {
+        return histograms(channel)[stage.ordinal()];
+    }
+
+    private LatencyHistogram[] histograms(String channel) {
+        LatencyHistogram[] channelHistograms = histograms.get(channel);
+        if (channelHistograms != null)
+            return channelHistograms;
+        return histograms.computeIfAbsent(channel, (key) -> {
+            LatencyHistogram[] created = new LatencyHistogram[TraceStage.values().length];
+            for (int i = 0; i < created.length; i++)
+                created[i] = new LatencyHistogram();
+            return created;
+        });
+    }
+
+}
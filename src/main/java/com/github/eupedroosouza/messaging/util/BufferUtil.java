@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2024 Pedro Souza
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package com.github.eupedroosouza.messaging.util;
+
+import com.github.eupedroosouza.messaging.frame.FrameWriter;
+
+public class BufferUtil {
+
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final int MAX_RETAINED_CAPACITY = 1024 * 1024;
+
+    private static final ThreadLocal<FrameWriter> FRAME_WRITERS = new ThreadLocal<>();
+
+    public static FrameWriter frameWriter() {
+        FrameWriter writer = FRAME_WRITERS.get();
+        if (writer == null || writer.getBuffer().capacity() > MAX_RETAINED_CAPACITY) {
+            writer = new FrameWriter(new ByteArrayBuffer(INITIAL_CAPACITY));
+            FRAME_WRITERS.set(writer);
+        }
+        writer.reset();
+        return writer;
+    }
+
+    public static int readShort(byte[] array, int offset) {
+        return ((array[offset] & 0xFF) << 8) | (array[offset + 1] & 0xFF);
+    }
+
+    public static int readInt(byte[] array, int offset) {
+        return ((array[offset] & 0xFF) << 24) | ((array[offset + 1] & 0xFF) << 16)
+                | ((array[offset + 2] & 0xFF) << 8) | (array[offset + 3] & 0xFF);
+    }
+
+    public static long readLong(byte[] array, int offset) {
+        return ((long) readInt(array, offset) << 32) | (readInt(array, offset + 4) & 0xFFFFFFFFL);
+    }
+
+    public static void writeShort(byte[] array, int offset, int value) {
+        array[offset] = (byte) (value >>> 8);
+        array[offset + 1] = (byte) value;
+    }
+
+    public static long hash(byte[] array, int offset, int length) {
+        long hash = 0x9E3779B97F4A7C15L ^ length;
+        int position = offset;
+        int end = offset + length;
+        for (; position + 8 <= end; position += 8)
+            hash = Long.rotateLeft(hash ^ readLong(array, position) * 0xC2B2AE3D27D4EB4FL, 31) * 0x9E3779B97F4A7C15L;
+        for (; position < end; position++)
+            hash = (hash ^ (array[position] & 0xFF)) * 0x100000001B3L;
+        hash = (hash ^ (hash >>> 33)) * 0xFF51AFD7ED558CCDL;
+        return hash ^ (hash >>> 33);
+    }
+
+    public static void writeLong(byte[] array, int offset, long value) {
+        for (int i = 7; i >= 0; i--) {
+            array[offset + i] = (byte) value;
+            value >>>= 8;
+        }
+    }
+
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright (c) 2024 Pedro Souza
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package com.github.eupedroosouza.messaging.util;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+public class ByteArrayBuffer {
+
+    private byte[] array;
+    private int size;
+
+    public ByteArrayBuffer() {
+        this(256);
+    }
+
+    public ByteArrayBuffer(int initialCapacity) {
+        this.array = new byte[initialCapacity];
+    }
+
+    public void write(int value) {
+        ensureCapacity(size + 1);
+        array[size++] = (byte) value;
+    }
+
+    public void write(byte[] bytes) {
+        write(bytes, 0, bytes.length);
+    }
+
+    public void write(byte[] bytes, int offset, int length) {
+        ensureCapacity(size + length);
+        System.arraycopy(bytes, offset, array, size, length);
+        size += length;
+    }
+
+    // Copies the remaining bytes, the source position is left where it was
+    public void write(ByteBuffer source) {
+        int length = source.remaining();
+        ensureCapacity(size + length);
+        if (source.hasArray())
+            System.arraycopy(source.array(), source.arrayOffset() + source.position(), array, size, length);
+        else source.duplicate().get(array, size, length);
+        size += length;
+    }
+
+    public void writeShort(int value) {
+        ensureCapacity(size + 2);
+        array[size++] = (byte) (value >>> 8);
+        array[size++] = (byte) value;
+    }
+
+    public void writeInt(int value) {
+        ensureCapacity(size + 4);
+        array[size++] = (byte) (value >>> 24);
+        array[size++] = (byte) (value >>> 16);
+        array[size++] = (byte) (value >>> 8);
+        array[size++] = (byte) value;
+    }
+
+    public void writeLong(long value) {
+        writeInt((int) (value >>> 32));
+        writeInt((int) value);
+    }
+
+    public void writeUtf8(CharSequence value) {
+        writeUtf8(value, 0, value.length());
+    }
+
+    public void writeUtf8(CharSequence value, int start, int end) {
+        ensureCapacity(size + (end - start) * 3);
+        for (int i = start; i < end; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80) {
+                array[size++] = (byte) c;
+            } else if (c < 0x800) {
+                array[size++] = (byte) (0xC0 | (c >> 6));
+                array[size++] = (byte) (0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < end && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                array[size++] = (byte) (0xF0 | (codePoint >> 18));
+                array[size++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+                array[size++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+                array[size++] = (byte) (0x80 | (codePoint & 0x3F));
+            } else if (Character.isSurrogate(c)) {
+                array[size++] = (byte) '?';
+            } else {
+                array[size++] = (byte) (0xE0 | (c >> 12));
+                array[size++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                array[size++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+    }
+
+    public static int utf8Length(CharSequence value) {
+        int length = value.length();
+        int bytes = 0;
+        for (int i = 0; i < length; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80)
+                bytes++;
+            else if (c < 0x800)
+                bytes += 2;
+            else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                bytes += 4;
+                i++;
+            } else if (Character.isSurrogate(c))
+                bytes++;
+            else bytes += 3;
+        }
+        return bytes;
+    }
+
+    public void writeAscii(String value) {
+        int length = value.length();
+        ensureCapacity(size + length);
+        for (int i = 0; i < length; i++)
+            array[size++] = (byte) value.charAt(i);
+    }
+
+    public byte[] array() {
+        return array;
+    }
+
+    public int capacity() {
+        return array.length;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public void reset() {
+        size = 0;
+    }
+
+    public byte[] toByteArray() {
+        return Arrays.copyOf(array, size);
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > array.length)
+            array = Arrays.copyOf(array, Math.max(capacity, array.length << 1));
+    }
+
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2024 Pedro Souza
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package com.github.eupedroosouza.messaging.util;
+
+import java.util.Arrays;
+
+// Time-bucketed rotating Bloom filter, ids are remembered for at least the window and at most 4/3 of it
+public class DuplicateFilter {
+
+    private static final int BUCKETS = 4;
+
+    private final long[][] buckets = new long[BUCKETS][];
+    private final long bits;
+    private final int hashes;
+    private final long bucketMillis;
+    private long epoch;
+    private int current;
+
+    public DuplicateFilter(long windowMillis, int expectedPerWindow) {
+        this(windowMillis, expectedPerWindow, 1e-6);
+    }
+
+    public DuplicateFilter(long windowMillis, int expectedPerWindow, double falsePositiveRate) {
+        this.bucketMillis = Math.max(1, windowMillis / (BUCKETS - 1));
+        double perBucket = Math.max(1, Math.ceil((double) expectedPerWindow / (BUCKETS - 1)));
+        // Every bucket is probed, so each one gets a share of the false positive budget
+        double bucketRate = falsePositiveRate / BUCKETS;
+        long bucketBits = (long) Math.ceil(-perBucket * Math.log(bucketRate) / (Math.log(2) * Math.log(2)));
+        int words = (int) Math.max(1, (bucketBits + 63) >>> 6);
+        this.bits = (long) words << 6;
+        this.hashes = Math.max(1, (int) Math.round((double) bits / perBucket * Math.log(2)));
+        for (int i = 0; i < BUCKETS; i++)
+            buckets[i] = new long[words];
+        this.epoch = System.currentTimeMillis() / bucketMillis;
+    }
+
+    public synchronized boolean firstSeen(long id) {
+        rotate(System.currentTimeMillis() / bucketMillis);
+        long hash = mix(id);
+        long step = mix(hash) | 1;
+        for (long[] bucket : buckets) {
+            if (contains(bucket, hash, step))
+                return false;
+        }
+        long[] bucket = buckets[current];
+        for (int i = 0; i < hashes; i++) {
+            long index = Long.remainderUnsigned(hash + i * step, bits);
+            bucket[(int) (index >>> 6)] |= 1L << index;
+        }
+        return true;
+    }
+
+    public int getMemoryBytes() {
+        return BUCKETS * buckets[0].length * Long.BYTES;
+    }
+
+    private boolean contains(long[] bucket, long hash, long step) {
+        for (int i = 0; i < hashes; i++) {
+            long index = Long.remainderUnsigned(hash + i * step, bits);
+            if ((bucket[(int) (index >>> 6)] & (1L << index)) == 0)
+                return false;
+        }
+        return true;
+    }
+
+    private void rotate(long now) {
+        if (now <= epoch)
+            return;
+        long elapsed = Math.min(now - epoch, BUCKETS);
+        for (long i = 0; i < elapsed; i++) {
+            current = (current + 1) % BUCKETS;
+            Arrays.fill(buckets[current], 0);
+        }
+        epoch = now;
+    }
+
+    private static long mix(long value) {
+        value = (value ^ (value >>> 30)) * 0xBF58476D1CE4E5B9L;
+        value = (value ^ (value >>> 27)) * 0x94D049BB133111EBL;
+        return value ^ (value >>> 31);
+    }
+
+}
@@ -24,22 +24,147 @@ package com.github.eupedroosouza.messaging.util;
 
 import java.util.concurrent.Callable;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
 
 public class FutureUtil {
 
+    private static final ScheduledThreadPoolExecutor SCHEDULER;
+
+    static {
+        SCHEDULER = new ScheduledThreadPoolExecutor(1, (runnable) -> {
+            Thread thread = new Thread(runnable, "messaging-scheduler");
+            thread.setDaemon(true);
+            return thread;
+        });
+        SCHEDULER.setRemoveOnCancelPolicy(true);
+    }
+
     public static <T> CompletableFuture<T> exceptionAsyncFuture(Callable<T> callable) {
+        return exceptionAsyncFuture(callable, null);
+    }
+
+    public static <T> CompletableFuture<T> exceptionAsyncFuture(Callable<T> callable, Executor executor) {
         CompletableFuture<T> future = new CompletableFuture<>();
-        CompletableFuture.runAsync(() -> {
+        Runnable task = () -> {
             try {
                 future.complete(callable.call());
             } catch (Exception ex) {
                 future.completeExceptionally(ex);
             }
-        }).whenComplete((unused, throwable) -> {
+        };
+        CompletableFuture<Void> run = executor != null ? CompletableFuture.runAsync(task, executor) : CompletableFuture.runAsync(task);
+        run.whenComplete((unused, throwable) -> {
             if (throwable != null)
                 future.completeExceptionally(throwable);
         });
         return future;
     }
 
+    public static <T> CompletableFuture<T> composeAsync(Supplier<CompletableFuture<T>> supplier) {
+        return composeAsync(supplier, null);
+    }
+
+    // Cancelling the returned future, as within does on a timeout, cancels the supplied one too
+    public static <T> CompletableFuture<T> composeAsync(Supplier<CompletableFuture<T>> supplier, Executor executor) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        runAsync(() -> {
+            CompletableFuture<T> future;
+            try {
+                future = supplier.get();
+            } catch (Throwable throwable) {
+                result.completeExceptionally(throwable);
+                return;
+            }
+            result.whenComplete((value, throwable) -> {
+                if (result.isCancelled())
+                    future.cancel(false);
+            });
+            future.whenComplete((value, throwable) -> {
+                if (throwable != null)
+                    result.completeExceptionally(throwable);
+                else result.complete(value);
+            });
+        }, executor);
+        return result;
+    }
+
+    public static <T> CompletableFuture<T> within(CompletableFuture<T> future, long timeout, TimeUnit unit) {
+        return within(future, timeout, unit, null);
+    }
+
+    // The timeout completes the result on the executor, the scheduler thread only fires it
+    public static <T> CompletableFuture<T> within(CompletableFuture<T> future, long timeout, TimeUnit unit, Executor executor) {
+        if (timeout <= 0 || future.isDone())
+            return future;
+        CompletableFuture<T> result = new CompletableFuture<>();
+        AtomicBoolean expired = new AtomicBoolean();
+        // The late future is cancelled before the timeout is reported, so callers see it cancelled
+        Runnable expire = () -> {
+            if (result.isDone() || !expired.compareAndSet(false, true))
+                return;
+            future.cancel(false);
+            result.completeExceptionally(new TimeoutException("No result after " + unit.toMillis(timeout) + "ms"));
+        };
+        ScheduledFuture<?> timeoutTask = SCHEDULER.schedule(() -> {
+            try {
+                runAsync(expire, executor);
+            } catch (RejectedExecutionException ex) {
+                expire.run(); // A rejected timeout must still fire
+            }
+        }, timeout, unit);
+        future.whenComplete((value, throwable) -> {
+            timeoutTask.cancel(false);
+            if (expired.get())
+                return;
+            if (throwable != null)
+                result.completeExceptionally(throwable);
+            else result.complete(value);
+        });
+        return result;
+    }
+
+    private static void runAsync(Runnable task, Executor executor) {
+        if (executor != null)
+            CompletableFuture.runAsync(task, executor);
+        else CompletableFuture.runAsync(task);
+    }
+
+    public static <T> CompletableFuture<T> failed(Throwable throwable) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        future.completeExceptionally(throwable);
+        return future;
+    }
+
+    // The unwrapped cause of a completed future, null while pending or when it succeeded
+    public static Throwable failure(CompletableFuture<?> future) {
+        if (!future.isCompletedExceptionally())
+            return null;
+        try {
+            future.join();
+            return null;
+        } catch (RuntimeException ex) {
+            return unwrap(ex);
+        }
+    }
+
+    public static Throwable unwrap(Throwable throwable) {
+        while ((throwable instanceof CompletionException || throwable instanceof ExecutionException) && throwable.getCause() != null)
+            throwable = throwable.getCause();
+        return throwable;
+    }
+
+    public static ScheduledExecutorService scheduler() {
+        return SCHEDULER;
+    }
+
 }
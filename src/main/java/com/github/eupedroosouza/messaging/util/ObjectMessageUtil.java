@@ -22,7 +22,11 @@
 
 package com.github.eupedroosouza.messaging.util;
 
+import com.github.eupedroosouza.messaging.codec.MessageCodec;
+import com.github.eupedroosouza.messaging.codec.MessageCodecs;
 import com.github.eupedroosouza.messaging.exception.ChannelException;
+import com.github.eupedroosouza.messaging.frame.FrameWriter;
+import com.github.eupedroosouza.messaging.frame.MessageFrame;
 import com.github.eupedroosouza.messaging.message.MessageObject;
 import com.google.gson.JsonObject;
 
@@ -31,7 +35,37 @@ import java.lang.reflect.InvocationTargetException;
 
 public class ObjectMessageUtil {
 
+    public static void serialize(FrameWriter frame, MessageObject messageObject) throws ChannelException {
+        MessageCodec<? extends MessageObject> codec = MessageCodecs.forType(messageObject.getClass());
+        frame.setClassName(messageObject.getClass().getName());
+        if (codec != null) {
+            frame.setTypeId(codec.getTypeId());
+            MessageCodecs.encode(codec, messageObject, frame.bodyWriter());
+        } else frame.treeBody(messageObject.serialize());
+    }
+
+    public static MessageObject deserialize(MessageFrame frame) throws ChannelException {
+        MessageCodec<?> codec = frame.hasTypeId() ? MessageCodecs.forTypeId(frame.getTypeId()) : null;
+        if (codec != null)
+            return MessageCodecs.decode(codec, frame.getBodyReader());
+
+        if (frame.getClassName() == null)
+            throw new ChannelException("The received frame has no class name");
+        Class<? extends MessageObject> clazz = forClassName(frame.getClassName());
+        codec = MessageCodecs.forType(clazz);
+        if (codec != null)
+            return MessageCodecs.decode(codec, frame.getBodyReader());
+        // serialize()/deserialize(JsonObject) types read binary bodies through the JSON tree bridge
+        return (MessageObject) deserialize(clazz, frame.getJsonBody().getAsJsonObject());
+    }
+
     public static Object deserialize(Class<?> clazz, JsonObject object) throws ChannelException {
+        if (MessageObject.class.isAssignableFrom(clazz)) {
+            MessageCodec<?> codec = MessageCodecs.forType(clazz.asSubclass(MessageObject.class));
+            if (codec != null)
+                return MessageCodecs.fromJson(codec, object);
+        }
+
         Constructor<?> constructor;
         try {
             constructor = clazz.getConstructor();
@@ -47,4 +81,14 @@ public class ObjectMessageUtil {
         }
     }
 
+    private static Class<? extends MessageObject> forClassName(String className) throws ChannelException {
+        try {
+            return Class.forName(className).asSubclass(MessageObject.class);
+        } catch (ClassNotFoundException ex) {
+            throw new ChannelException("Class " + className + " of received message not found", ex);
+        } catch (ClassCastException ex) {
+            throw new ChannelException("The class " + className + " is not assignable from MessageObject", ex);
+        }
+    }
+
 }
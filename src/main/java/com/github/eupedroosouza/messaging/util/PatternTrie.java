@@ -0,0 +1,179 @@
+/*
+ * Copyright (c) 2024 Pedro Souza
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package com.github.eupedroosouza.messaging.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+public class PatternTrie<T> {
+
+    private final Node<T> root = new Node<>();
+    // Patterns with character classes are matched one by one with PatternUtil
+    private final List<PatternValue<T>> classPatterns = new ArrayList<>();
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final ConcurrentHashMap<String, List<T>> cache = new ConcurrentHashMap<>();
+    private final int cacheSize;
+    private long registrations;
+
+    public PatternTrie() {
+        this(4096);
+    }
+
+    public PatternTrie(int cacheSize) {
+        this.cacheSize = cacheSize;
+    }
+
+    public void add(String pattern, T value) {
+        lock.writeLock().lock();
+        try {
+            PatternValue<T> patternValue = new PatternValue<>(pattern, value, registrations++);
+            if (pattern.indexOf('[') >= 0)
+                classPatterns.add(patternValue);
+            else node(pattern, true).values.add(patternValue);
+            cache.clear();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public boolean remove(String pattern, T value) {
+        lock.writeLock().lock();
+        try {
+            boolean removed;
+            if (pattern.indexOf('[') >= 0) {
+                removed = classPatterns.removeIf((patternValue) -> patternValue.pattern.equals(pattern) && patternValue.value.equals(value));
+            } else {
+                Node<T> node = node(pattern, false);
+                removed = node != null && node.values.removeIf((patternValue) -> patternValue.value.equals(value));
+            }
+            if (removed)
+                cache.clear();
+            return removed;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public List<T> match(String channel) {
+        List<T> matched = cache.get(channel);
+        if (matched != null)
+            return matched;
+
+        HashSet<PatternValue<T>> values = new HashSet<>();
+        lock.readLock().lock();
+        try {
+            collect(root, channel, 0, values);
+            for (PatternValue<T> patternValue : classPatterns) {
+                if (PatternUtil.matches(patternValue.pattern, channel))
+                    values.add(patternValue);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+        if (values.isEmpty()) {
+            matched = Collections.emptyList();
+        } else {
+            // Handlers run in registration order whichever trie path matched them
+            List<PatternValue<T>> sorted = new ArrayList<>(values);
+            sorted.sort(Comparator.comparingLong((patternValue) -> patternValue.order));
+            List<T> sortedValues = new ArrayList<>(sorted.size());
+            for (PatternValue<T> patternValue : sorted)
+                sortedValues.add(patternValue.value);
+            matched = Collections.unmodifiableList(sortedValues);
+        }
+        if (cache.size() >= cacheSize)
+            cache.clear();
+        cache.put(channel, matched);
+        return matched;
+    }
+
+    private Node<T> node(String pattern, boolean create) {
+        Node<T> node = root;
+        for (int i = 0; i < pattern.length() && node != null; i++) {
+            char c = pattern.charAt(i);
+            if (c == '*') {
+                while (i + 1 < pattern.length() && pattern.charAt(i + 1) == '*')
+                    i++;
+                if (node.star == null && create)
+                    node.star = new Node<>();
+                node = node.star;
+            } else if (c == '?') {
+                if (node.any == null && create)
+                    node.any = new Node<>();
+                node = node.any;
+            } else {
+                if (c == '\\' && i + 1 < pattern.length())
+                    c = pattern.charAt(++i);
+                Node<T> child = node.children.get(c);
+                if (child == null && create)
+                    node.children.put(c, child = new Node<>());
+                node = child;
+            }
+        }
+        return node;
+    }
+
+    private static <T> void collect(Node<T> node, String channel, int index, HashSet<PatternValue<T>> values) {
+        if (node.star != null) {
+            for (int i = index; i <= channel.length(); i++)
+                collect(node.star, channel, i, values);
+        }
+        if (index == channel.length()) {
+            values.addAll(node.values);
+            return;
+        }
+        Node<T> child = node.children.get(channel.charAt(index));
+        if (child != null)
+            collect(child, channel, index + 1, values);
+        if (node.any != null)
+            collect(node.any, channel, index + 1, values);
+    }
+
+    private static final class Node<T> {
+
+        private final HashMap<Character, Node<T>> children = new HashMap<>();
+        private final List<PatternValue<T>> values = new ArrayList<>(1);
+        private Node<T> star;
+        private Node<T> any;
+    }
+
+    private static final class PatternValue<T> {
+
+        private final String pattern;
+        private final T value;
+        private final long order;
+
+        private PatternValue(String pattern, T value, long order) {
+            this.pattern = pattern;
+            this.value = value;
+            this.order = order;
+        }
+    }
+
+}
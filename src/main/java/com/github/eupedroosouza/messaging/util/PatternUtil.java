@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2024 Pedro Souza
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package com.github.eupedroosouza.messaging.util;
+
+public class PatternUtil {
+
+    // Same glob rules as Redis PSUBSCRIBE: *, ?, [abc], [^abc], [a-z] and \ escapes
+    public static boolean matches(String pattern, String value) {
+        return matches(pattern, 0, value, 0);
+    }
+
+    public static boolean isLiteral(String pattern) {
+        for (int i = 0; i < pattern.length(); i++) {
+            char c = pattern.charAt(i);
+            if (c == '*' || c == '?' || c == '[' || c == '\\')
+                return false;
+        }
+        return true;
+    }
+
+    private static boolean matches(String pattern, int p, String value, int v) {
+        int patternLength = pattern.length();
+        int valueLength = value.length();
+        while (p < patternLength) {
+            char c = pattern.charAt(p);
+            switch (c) {
+                case '*':
+                    while (p + 1 < patternLength && pattern.charAt(p + 1) == '*')
+                        p++;
+                    if (p + 1 == patternLength)
+                        return true;
+                    for (int i = v; i <= valueLength; i++) {
+                        if (matches(pattern, p + 1, value, i))
+                            return true;
+                    }
+                    return false;
+                case '?':
+                    if (v == valueLength)
+                        return false;
+                    v++;
+                    break;
+                case '[': {
+                    if (v == valueLength)
+                        return false;
+                    char target = value.charAt(v);
+                    p++;
+                    boolean negate = p < patternLength && pattern.charAt(p) == '^';
+                    if (negate)
+                        p++;
+                    boolean matched = false;
+                    while (p < patternLength && pattern.charAt(p) != ']') {
+                        char start = pattern.charAt(p);
+                        if (start == '\\' && p + 1 < patternLength) {
+                            start = pattern.charAt(++p);
+                            matched |= start == target;
+                        } else if (p + 2 < patternLength && pattern.charAt(p + 1) == '-') {
+                            char end = pattern.charAt(p + 2);
+                            matched |= start <= end ? target >= start && target <= end : target >= end && target <= start;
+                            p += 2;
+                        } else matched |= start == target;
+                        p++;
+                    }
+                    if (matched == negate)
+                        return false;
+                    v++;
+                    break;
+                }
+                case '\\':
+                    if (p + 1 < patternLength)
+                        c = pattern.charAt(++p);
+                default:
+                    if (v == valueLength || value.charAt(v) != c)
+                        return false;
+                    v++;
+            }
+            p++;
+        }
+        return v == valueLength;
+    }
+
+}
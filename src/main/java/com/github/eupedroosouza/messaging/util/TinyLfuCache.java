@@ -0,0 +1,163 @@
+/*
+ * Copyright (c) 2024 Pedro Souza
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package com.github.eupedroosouza.messaging.util;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+// W-TinyLFU: new entries go through a small LRU window and only replace a main entry that was used less often
+public class TinyLfuCache<K, V> {
+
+    private final int windowCapacity;
+    private final int mainCapacity;
+    private final long ttlNanos;
+    private final LinkedHashMap<K, Node<V>> window = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<K, Node<V>> main = new LinkedHashMap<>(16, 0.75f, true);
+    private final FrequencySketch sketch;
+
+    public TinyLfuCache(int maxSize, long ttlMillis) {
+        this.windowCapacity = Math.max(1, maxSize / 100);
+        this.mainCapacity = Math.max(1, maxSize - windowCapacity);
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+        this.sketch = new FrequencySketch(maxSize);
+    }
+
+    public synchronized V get(K key) {
+        sketch.increment(key.hashCode());
+        Node<V> node = window.get(key);
+        if (node == null)
+            node = main.get(key);
+        if (node == null)
+            return null;
+        if (ttlNanos > 0 && System.nanoTime() - node.createdAt > ttlNanos) {
+            window.remove(key);
+            main.remove(key);
+            return null;
+        }
+        return node.value;
+    }
+
+    public synchronized void put(K key, V value) {
+        Node<V> node = new Node<>(value);
+        if (main.containsKey(key)) {
+            main.put(key, node);
+            return;
+        }
+        sketch.increment(key.hashCode());
+        window.put(key, node);
+        if (window.size() <= windowCapacity)
+            return;
+        Iterator<Map.Entry<K, Node<V>>> iterator = window.entrySet().iterator();
+        Map.Entry<K, Node<V>> candidate = iterator.next();
+        iterator.remove();
+        admit(candidate.getKey(), candidate.getValue());
+    }
+
+    public synchronized void invalidateAll() {
+        window.clear();
+        main.clear();
+    }
+
+    public synchronized int size() {
+        return window.size() + main.size();
+    }
+
+    private void admit(K key, Node<V> node) {
+        if (main.size() < mainCapacity) {
+            main.put(key, node);
+            return;
+        }
+        Iterator<Map.Entry<K, Node<V>>> iterator = main.entrySet().iterator();
+        Map.Entry<K, Node<V>> victim = iterator.next();
+        boolean victimExpired = ttlNanos > 0 && System.nanoTime() - victim.getValue().createdAt > ttlNanos;
+        if (!victimExpired && sketch.frequency(key.hashCode()) <= sketch.frequency(victim.getKey().hashCode()))
+            return;
+        iterator.remove();
+        main.put(key, node);
+    }
+
+    private static class Node<V> {
+
+        private final V value;
+        private final long createdAt = System.nanoTime();
+
+        private Node(V value) {
+            this.value = value;
+        }
+
+    }
+
+    // Count-min sketch of 4-bit counters, halved periodically so that old popularity fades
+    private static class FrequencySketch {
+
+        private static final int ROWS = 4;
+
+        private final byte[] counters;
+        private final int mask;
+        private final int sampleSize;
+        private int additions;
+
+        private FrequencySketch(int maxSize) {
+            // Four counters per row and entry keep collisions rare enough for the minimum to be meaningful
+            int width = Integer.highestOneBit(Math.max(16, maxSize - 1) << 1) * 4;
+            this.counters = new byte[width * ROWS];
+            this.mask = width - 1;
+            this.sampleSize = Math.max(160, maxSize * 10);
+        }
+
+        private void increment(int hashCode) {
+            boolean added = false;
+            for (int row = 0; row < ROWS; row++) {
+                int index = index(hashCode, row);
+                if (counters[index] < 15) {
+                    counters[index]++;
+                    added = true;
+                }
+            }
+            if (added && ++additions >= sampleSize) {
+                for (int i = 0; i < counters.length; i++)
+                    counters[i] >>= 1;
+                additions /= 2;
+            }
+        }
+
+        private int frequency(int hashCode) {
+            int frequency = 15;
+            for (int row = 0; row < ROWS; row++)
+                frequency = Math.min(frequency, counters[index(hashCode, row)]);
+            return frequency;
+        }
+
+        private int index(int hashCode, int row) {
+            int hash = (hashCode ^ (row * 0x9E3779B9)) * 0x85EBCA6B;
+            hash ^= hash >>> 13;
+            hash *= 0xC2B2AE35;
+            hash ^= hash >>> 16;
+            return row * (mask + 1) + (hash & mask);
+        }
+
+    }
+
+}
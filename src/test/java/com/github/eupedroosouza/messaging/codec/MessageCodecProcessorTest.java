@@ -0,0 +1,226 @@
+/*
+ * Copyright (c) 2024 Pedro Souza
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package com.github.eupedroosouza.messaging.codec;
+
+import com.github.eupedroosouza.messaging.codec.processor.MessageCodecProcessor;
+import org.junit.jupiter.api.*;
+
+import javax.lang.model.SourceVersion;
+import javax.tools.*;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class MessageCodecProcessorTest {
+
+    private static final String LOCATION = String.join("\n",
+            "package sample;",
+            "import com.github.eupedroosouza.messaging.codec.Message;",
+            "import com.github.eupedroosouza.messaging.message.MessageObject;",
+            "@Message(id = 1002)",
+            "public class Location implements MessageObject {",
+            "    public double latitude;",
+            "    public double longitude;",
+            "}");
+
+    private static final String TELEMETRY = String.join("\n",
+            "package sample;",
+            "import com.github.eupedroosouza.messaging.codec.Message;",
+            "import com.github.eupedroosouza.messaging.message.MessageObject;",
+            "import java.util.List;",
+            "@Message(id = 1001)",
+            "public class Telemetry implements MessageObject {",
+            "    public enum Unit { CELSIUS, KELVIN }",
+            "    long timestamp;",
+            "    private double value;",
+            "    private boolean valid;",
+            "    Integer sequence;",
+            "    String sensor;",
+            "    Unit unit;",
+            "    byte[] raw;",
+            "    List<Double> samples;",
+            "    Location location;",
+            "    transient int ignored;",
+            "    public double getValue() { return value; }",
+            "    public void setValue(double value) { this.value = value; }",
+            "    public boolean isValid() { return valid; }",
+            "    public void setValid(boolean valid) { this.valid = valid; }",
+            "}");
+
+    private static final String ROUND_TRIP = String.join("\n",
+            "package sample;",
+            "import com.github.eupedroosouza.messaging.codec.*;",
+            "import com.github.eupedroosouza.messaging.codec.binary.*;",
+            "import com.github.eupedroosouza.messaging.codec.json.*;",
+            "import com.github.eupedroosouza.messaging.util.ByteArrayBuffer;",
+            "import java.util.Arrays;",
+            "public class RoundTrip implements java.util.concurrent.Callable<String> {",
+            "    public String call() throws Exception {",
+            "        Telemetry telemetry = new Telemetry();",
+            "        telemetry.timestamp = -42L;",
+            "        telemetry.setValue(21.5);",
+            "        telemetry.setValid(true);",
+            "        telemetry.sensor = \"s\\u00e9nsor-\\ud83d\\ude00\";",
+            "        telemetry.unit = Telemetry.Unit.KELVIN;",
+            "        telemetry.raw = new byte[] {1, 2, 3};",
+            "        telemetry.samples = Arrays.asList(1.0, null, 3.5);",
+            "        telemetry.location = new Location();",
+            "        telemetry.location.latitude = 1.25;",
+            "        telemetry.ignored = 9;",
+            "        MessageCodecs.register(LocationCodec.INSTANCE);",
+            "        MessageCodecs.register(TelemetryCodec.INSTANCE);",
+            "        ByteArrayBuffer buffer = new ByteArrayBuffer(4);",
+            "        TelemetryCodec.INSTANCE.encode(telemetry, new BinaryMessageWriter(buffer));",
+            "        Telemetry binary = TelemetryCodec.INSTANCE.decode(new BinaryMessageReader(buffer.array(), 0, buffer.size()));",
+            "        Telemetry json = (Telemetry) MessageCodecs.fromJson(MessageCodecs.forTypeId(1001), telemetry.serialize());",
+            "        ByteArrayBuffer jsonBuffer = new ByteArrayBuffer(4);",
+            "        TelemetryCodec.INSTANCE.encode(telemetry, new JsonMessageWriter(jsonBuffer));",
+            "        Telemetry streamed = TelemetryCodec.INSTANCE.decode(new JsonMessageReader(jsonBuffer.array(), 0, jsonBuffer.size()));",
+            "        return describe(binary) + \"|\" + describe(json) + \"|\" + describe(streamed);",
+            "    }",
+            "    private static String describe(Telemetry t) {",
+            "        return t.timestamp + \",\" + t.getValue() + \",\" + t.isValid() + \",\" + t.sequence + \",\" + t.sensor + \",\" + t.unit",
+            "                + \",\" + Arrays.toString(t.raw) + \",\" + t.samples + \",\" + t.location.latitude + \",\" + t.ignored;",
+            "    }",
+            "}");
+
+    private static final String READING = String.join("\n",
+            "package sample;",
+            "import com.github.eupedroosouza.messaging.codec.Message;",
+            "import com.github.eupedroosouza.messaging.message.MessageObject;",
+            "@Message(id = 1004)",
+            "public record Reading(int reader, long v0, String v1) implements MessageObject {",
+            "}");
+
+    private static final String RECORD_ROUND_TRIP = String.join("\n",
+            "package sample;",
+            "import com.github.eupedroosouza.messaging.codec.binary.*;",
+            "import com.github.eupedroosouza.messaging.codec.json.*;",
+            "import com.github.eupedroosouza.messaging.util.ByteArrayBuffer;",
+            "public class RecordRoundTrip implements java.util.concurrent.Callable<String> {",
+            "    public String call() throws Exception {",
+            "        Reading reading = new Reading(7, -3L, \"text\");",
+            "        ByteArrayBuffer buffer = new ByteArrayBuffer(4);",
+            "        ReadingCodec.INSTANCE.encode(reading, new BinaryMessageWriter(buffer));",
+            "        Reading binary = ReadingCodec.INSTANCE.decode(new BinaryMessageReader(buffer.array(), 0, buffer.size()));",
+            "        ByteArrayBuffer jsonBuffer = new ByteArrayBuffer(4);",
+            "        ReadingCodec.INSTANCE.encode(reading, new JsonMessageWriter(jsonBuffer));",
+            "        Reading json = ReadingCodec.INSTANCE.decode(new JsonMessageReader(jsonBuffer.array(), 0, jsonBuffer.size()));",
+            "        return binary + \"|\" + json;",
+            "    }",
+            "}");
+
+    private static final String UNSUPPORTED = String.join("\n",
+            "package sample;",
+            "import com.github.eupedroosouza.messaging.codec.Message;",
+            "import com.github.eupedroosouza.messaging.message.MessageObject;",
+            "@Message(id = 1003)",
+            "public class Unsupported implements MessageObject {",
+            "    public Object value;",
+            "}");
+
+    private Path directory;
+
+    @BeforeAll
+    void start() throws IOException {
+        directory = Files.createTempDirectory("codec-processor");
+    }
+
+    @Test
+    void generateCodecs() throws Exception {
+        Path output = compile("generated", LOCATION, TELEMETRY, ROUND_TRIP);
+        assertTrue(Files.exists(output.resolve("sample/TelemetryCodec.class")));
+        String services = new String(Files.readAllBytes(output.resolve("META-INF/services/" + MessageCodec.class.getName())), StandardCharsets.UTF_8);
+        assertTrue(services.contains("sample.TelemetryCodec"));
+        assertTrue(services.contains("sample.LocationCodec"));
+
+        try (URLClassLoader classLoader = new URLClassLoader(new URL[] {output.toUri().toURL()}, getClass().getClassLoader())) {
+            @SuppressWarnings("unchecked")
+            Callable<String> roundTrip = (Callable<String>) classLoader.loadClass("sample.RoundTrip").getConstructor().newInstance();
+            String expected = "-42,21.5,true,null,s\u00e9nsor-\ud83d\ude00,KELVIN,[1, 2, 3],[1.0, null, 3.5],1.25,0";
+            assertEquals(expected + "|" + expected + "|" + expected, roundTrip.call());
+        }
+    }
+
+    @Test
+    void generateRecordCodecs() throws Exception {
+        assumeTrue(SourceVersion.latestSupported().ordinal() >= 16, "Records need Java 16");
+        Path output = compile("records", READING, RECORD_ROUND_TRIP);
+        try (URLClassLoader classLoader = new URLClassLoader(new URL[] {output.toUri().toURL()}, getClass().getClassLoader())) {
+            @SuppressWarnings("unchecked")
+            Callable<String> roundTrip = (Callable<String>) classLoader.loadClass("sample.RecordRoundTrip").getConstructor().newInstance();
+            String expected = "Reading[reader=7, v0=-3, v1=text]";
+            assertEquals(expected + "|" + expected, roundTrip.call());
+        }
+    }
+
+    @Test
+    void rejectUnsupportedTypes() throws Exception {
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        assertFalse(compile("unsupported", diagnostics, UNSUPPORTED));
+        assertTrue(diagnostics.getDiagnostics().stream()
+                .anyMatch(diagnostic -> diagnostic.getMessage(null).contains("not supported by generated codecs")));
+    }
+
+    private Path compile(String name, String... sources) throws IOException {
+        DiagnosticCollector<JavaFileObject> diagnostics = new DiagnosticCollector<>();
+        assertTrue(compile(name, diagnostics, sources), diagnostics.getDiagnostics().toString());
+        return directory.resolve(name);
+    }
+
+    private boolean compile(String name, DiagnosticCollector<JavaFileObject> diagnostics, String... sources) throws IOException {
+        Path output = Files.createDirectories(directory.resolve(name));
+        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+        JavaCompiler.CompilationTask task = compiler.getTask(null, null, diagnostics,
+                Arrays.asList("-classpath", System.getProperty("java.class.path"), "-d", output.toString(),
+                        "-processor", MessageCodecProcessor.class.getName()),
+                null, Arrays.stream(sources).map(SourceFile::new).collect(Collectors.toList()));
+        return task.call();
+    }
+
+    private static final class SourceFile extends SimpleJavaFileObject {
+
+        private final String source;
+
+        private SourceFile(String source) {
+            super(java.net.URI.create("string:///" + source.split("public (class|record) ")[1].split("[ (]")[0] + Kind.SOURCE.extension), Kind.SOURCE);
+            this.source = source;
+        }
+
+        @Override
+        public CharSequence getCharContent(boolean ignoreEncodingErrors) {
+            return source;
+        }
+    }
+
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright (c) 2024 Pedro Souza
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package com.github.eupedroosouza.messaging.codec.json;
+
+import com.github.eupedroosouza.messaging.codec.MessageCodec;
+import com.github.eupedroosouza.messaging.codec.MessageCodecs;
+import com.github.eupedroosouza.messaging.codec.MessageReader;
+import com.github.eupedroosouza.messaging.codec.MessageWriter;
+import com.github.eupedroosouza.messaging.data.DataKeys;
+import com.github.eupedroosouza.messaging.frame.FrameWriter;
+import com.github.eupedroosouza.messaging.message.MessageObject;
+import com.github.eupedroosouza.messaging.util.BufferUtil;
+import com.github.eupedroosouza.messaging.util.ByteArrayBuffer;
+import com.github.eupedroosouza.messaging.util.ObjectMessageUtil;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+public class JsonMessageWriterTest {
+
+    private static final Gson GSON = new GsonBuilder().disableHtmlEscaping().create();
+
+    @Test
+    void writeSameJsonAsGson() {
+        JsonObject object = new JsonObject();
+        object.addProperty("text", "quote \" backslash \\ line\n tab\t control\u0001 separator  accent é emoji 😀 <html>");
+        object.addProperty("long", Long.MIN_VALUE);
+        object.addProperty("int", -42);
+        object.addProperty("double", 21.5);
+        object.addProperty("boolean", true);
+        object.add("null", null);
+        JsonArray array = new JsonArray();
+        array.add(1);
+        array.add("two");
+        array.add(new JsonObject());
+        array.add(new JsonArray());
+        object.add("array", array);
+
+        JsonMessageWriter writer = new JsonMessageWriter(new ByteArrayBuffer(64));
+        writer.value(object);
+        assertEquals(GSON.toJson(object), text(writer.getBuffer()));
+    }
+
+    @Test
+    void writeUuidAndBase64() {
+        UUID uuid = UUID.randomUUID();
+        for (int length = 0; length < 5; length++) {
+            byte[] bytes = new byte[length];
+            for (int i = 0; i < length; i++)
+                bytes[i] = (byte) (i * 97 + 200);
+            JsonMessageWriter writer = new JsonMessageWriter(new ByteArrayBuffer(64));
+            writer.beginObject(2);
+            writer.name(DataKeys.CORRELATION_ID_KEY);
+            writer.value(uuid);
+            writer.name(DataKeys.MESSAGE_KEY);
+            writer.value(bytes);
+            writer.endObject();
+
+            JsonObject expected = new JsonObject();
+            expected.addProperty(DataKeys.CORRELATION_ID_KEY, uuid.toString());
+            expected.addProperty(DataKeys.MESSAGE_KEY, Base64.getEncoder().encodeToString(bytes));
+            assertEquals(GSON.toJson(expected), text(writer.getBuffer()));
+        }
+    }
+
+    @Test
+    void encodeWithoutGarbage() {
+        MessageCodecs.register(SampleCodec.INSTANCE);
+        Sample sample = new Sample();
+        for (int i = 0; i < 20_000; i++)
+            encode(sample);
+
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < 10_000; i++)
+            encode(sample);
+        long allocated = threads.getThreadAllocatedBytes(thread) - before;
+        assertTrue(allocated / 10_000 < 16, "Allocated " + allocated / 10_000 + " bytes per encode");
+    }
+
+    private static void encode(Sample sample) {
+        FrameWriter frame = BufferUtil.frameWriter();
+        ObjectMessageUtil.serialize(frame, sample);
+    }
+
+    private static String text(ByteArrayBuffer buffer) {
+        return new String(buffer.array(), 0, buffer.size(), StandardCharsets.UTF_8);
+    }
+
+    public static class Sample implements MessageObject {
+        private final long id = 123456789L;
+        private final String name = "sample";
+    }
+
+    private static class SampleCodec implements MessageCodec<Sample> {
+
+        private static final SampleCodec INSTANCE = new SampleCodec();
+
+        @Override
+        public int getTypeId() {
+            return 9001;
+        }
+
+        @Override
+        public Class<Sample> getType() {
+            return Sample.class;
+        }
+
+        @Override
+        public void encode(Sample messageObject, MessageWriter writer) throws IOException {
+            writer.beginObject(2);
+            writer.name("id");
+            writer.value(messageObject.id);
+            writer.name("name");
+            writer.value(messageObject.name);
+            writer.endObject();
+        }
+
+        @Override
+        public Sample decode(MessageReader reader) {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright (c) 2024 Pedro Souza
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package com.github.eupedroosouza.messaging.flow;
+
+import com.github.eupedroosouza.messaging.connection.executions.InProcessJedisExecutions;
+import com.github.eupedroosouza.messaging.message.status.MessageStatus;
+import com.github.eupedroosouza.messaging.sender.binary.ByteArrayMessageSender;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ReceiverPublisherTest {
+
+    private final InProcessJedisExecutions executions = new InProcessJedisExecutions();
+
+    @Test
+    void pauseWithoutDemand() throws Exception {
+        ReceiverPublisher<byte[]> publisher = FlowAdapters.byteArrayMessages(executions, "local:flow", 4);
+        List<String> received = new CopyOnWriteArrayList<>();
+        CompletableFuture<Flow.Subscription> subscription = new CompletableFuture<>();
+        publisher.subscribe(new Flow.Subscriber<byte[]>() {
+            @Override
+            public void onSubscribe(Flow.Subscription value) {
+                subscription.complete(value);
+            }
+
+            @Override
+            public void onNext(byte[] item) {
+                received.add(new String(item, StandardCharsets.UTF_8));
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+            }
+
+            @Override
+            public void onComplete() {
+            }
+        });
+        ByteArrayMessageSender sender = new ByteArrayMessageSender(executions, "local:flow");
+        try {
+            awaitTrue(() -> send(sender, "First") == MessageStatus.SUCCESS);
+            for (int i = 0; i < 3; i++)
+                assertEquals(MessageStatus.SUCCESS, send(sender, "Buffered"));
+            awaitTrue(publisher::isPaused);
+            assertTrue(received.isEmpty());
+            // Left the channel instead of buffering past the bound
+            awaitTrue(() -> send(sender, "Missed") == MessageStatus.NOT_SUBSCRIBERS_CHANNEL);
+
+            subscription.get(5, TimeUnit.SECONDS).request(10);
+            assertEquals(4, received.size());
+            assertEquals("First", received.get(0));
+            awaitTrue(() -> send(sender, "Resumed") == MessageStatus.SUCCESS);
+            awaitTrue(() -> received.contains("Resumed"));
+            assertFalse(publisher.isPaused());
+        } finally {
+            subscription.get(5, TimeUnit.SECONDS).cancel();
+        }
+    }
+
+    @Test
+    void cancelInOnSubscribe() throws Exception {
+        ReceiverPublisher<byte[]> publisher = FlowAdapters.byteArrayMessages(executions, "local:flowcancel", 4);
+        publisher.subscribe(new Flow.Subscriber<byte[]>() {
+            @Override
+            public void onSubscribe(Flow.Subscription subscription) {
+                subscription.cancel();
+            }
+
+            @Override
+            public void onNext(byte[] item) {
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+            }
+
+            @Override
+            public void onComplete() {
+            }
+        });
+        // The receiver never joins the channel
+        Thread.sleep(100);
+        assertEquals(MessageStatus.NOT_SUBSCRIBERS_CHANNEL, send(new ByteArrayMessageSender(executions, "local:flowcancel"), "Nobody"));
+    }
+
+    private static MessageStatus send(ByteArrayMessageSender sender, String text) {
+        return sender.send(text.getBytes(StandardCharsets.UTF_8)).join();
+    }
+
+    private static void awaitTrue(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+}
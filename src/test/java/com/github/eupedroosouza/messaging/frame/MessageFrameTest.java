@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2024 Pedro Souza
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package com.github.eupedroosouza.messaging.frame;
+
+import com.github.eupedroosouza.messaging.codec.MessageFormat;
+import com.github.eupedroosouza.messaging.codec.binary.BinaryMessageReader;
+import com.github.eupedroosouza.messaging.codec.binary.BinaryMessageWriter;
+import com.github.eupedroosouza.messaging.exception.ChannelException;
+import com.github.eupedroosouza.messaging.message.MessageError;
+import com.github.eupedroosouza.messaging.message.priority.MessagePriority;
+import com.github.eupedroosouza.messaging.messenger.TextMessageObject;
+import com.github.eupedroosouza.messaging.util.BufferUtil;
+import com.github.eupedroosouza.messaging.util.ByteArrayBuffer;
+import com.github.eupedroosouza.messaging.util.ObjectMessageUtil;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonNull;
+import com.google.gson.JsonObject;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MessageFrameTest {
+
+    @Test
+    void readHeaderWithoutBody() {
+        UUID correlationId = UUID.randomUUID();
+        FrameWriter writer = BufferUtil.frameWriter();
+        writer.setCorrelationId(correlationId);
+        writer.setTypeId(42);
+        writer.setClassName("not.a.RealClass");
+        writer.setDeadline(System.currentTimeMillis() - 1);
+        writer.setRemoteTimeout(1500);
+        writer.setPriority(MessagePriority.HIGH);
+        ByteArrayBuffer buffer = writer.body();
+        buffer.write("{not json".getBytes(StandardCharsets.UTF_8));
+
+        MessageFrame frame = MessageFrame.read(buffer.toByteArray());
+        assertEquals(correlationId, frame.getCorrelationId());
+        assertEquals(42, frame.getTypeId());
+        assertEquals("not.a.RealClass", frame.getClassName());
+        assertEquals(1500, frame.getRemoteTimeout());
+        assertEquals(MessagePriority.HIGH, frame.getPriority());
+        assertTrue(frame.isExpired());
+        assertFalse(frame.isError());
+        assertEquals("{not json", new String(frame.getBody(), StandardCharsets.UTF_8));
+        assertThrows(ChannelException.class, frame::getMessageObject);
+    }
+
+    @Test
+    void decodeBodyOnAccess() {
+        FrameWriter writer = BufferUtil.frameWriter();
+        ObjectMessageUtil.serialize(writer, new TextMessageObject("Hello world!"));
+
+        MessageFrame frame = MessageFrame.read(writer.getBuffer().toByteArray());
+        assertFalse(frame.hasCorrelationId());
+        assertFalse(frame.isExpired());
+        assertEquals(MessagePriority.NORMAL, frame.getPriority());
+        assertEquals(TextMessageObject.class.getName(), frame.getClassName());
+        TextMessageObject messageObject = (TextMessageObject) frame.getMessageObject();
+        assertEquals("Hello world!", messageObject.getText());
+        assertSame(messageObject, frame.getMessageObject());
+    }
+
+    @Test
+    void decodeBinaryBody() {
+        FrameWriter writer = BufferUtil.frameWriter();
+        writer.setFormat(MessageFormat.BINARY);
+        ObjectMessageUtil.serialize(writer, new TextMessageObject("Hello world!"));
+        byte[] binary = writer.getBuffer().toByteArray();
+
+        writer = BufferUtil.frameWriter();
+        ObjectMessageUtil.serialize(writer, new TextMessageObject("Hello world!"));
+        assertTrue(binary.length < writer.getBuffer().size());
+
+        MessageFrame frame = MessageFrame.read(binary);
+        assertEquals(MessageFormat.BINARY, frame.getFormat());
+        assertEquals("Hello world!", ((TextMessageObject) frame.getMessageObject()).getText());
+    }
+
+    @Test
+    void bridgeJsonTreeToBinary() {
+        JsonObject object = new JsonObject();
+        object.addProperty("long", Long.MAX_VALUE);
+        object.addProperty("double", 0.25);
+        object.addProperty("string", "text");
+        object.add("null", JsonNull.INSTANCE);
+        JsonArray array = new JsonArray();
+        array.add(true);
+        array.add(new JsonObject());
+        object.add("array", array);
+
+        ByteArrayBuffer buffer = new ByteArrayBuffer();
+        new BinaryMessageWriter(buffer).value(object);
+        assertEquals(object, new BinaryMessageReader(buffer.array(), 0, buffer.size()).nextTree());
+    }
+
+    @Test
+    void readError() {
+        FrameWriter writer = BufferUtil.frameWriter();
+        writer.setCorrelationId(UUID.randomUUID());
+        MessageFrame frame = MessageFrame.read(writer.error(IllegalStateException.class.getName(), "Failed").toByteArray());
+        assertTrue(frame.isError());
+        MessageError error = frame.getError();
+        assertEquals(IllegalStateException.class.getName(), error.getErrorClassName());
+        assertEquals("Failed", error.getErrorMessage());
+    }
+
+    @Test
+    void rejectNonFrames() {
+        byte[] json = "{\"message\":{}}".getBytes(StandardCharsets.UTF_8);
+        assertFalse(MessageFrame.isFrame(json));
+        assertThrows(ChannelException.class, () -> MessageFrame.read(json));
+    }
+
+}
@@ -0,0 +1,380 @@
+/*
+ * Copyright (c) 2024 Pedro Souza
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package com.github.eupedroosouza.messaging.messenger;
+
+import com.github.eupedroosouza.messaging.connection.executions.InProcessJedisExecutions;
+import com.github.eupedroosouza.messaging.message.MessageObject;
+import com.github.eupedroosouza.messaging.message.status.MessageStatus;
+import com.github.eupedroosouza.messaging.receiver.binary.ByteArrayMessageReceiver;
+import com.github.eupedroosouza.messaging.receiver.object.ObjectMessageReceiver;
+import com.github.eupedroosouza.messaging.receiver.object.PatternObjectMessageReceiver;
+import com.github.eupedroosouza.messaging.sender.binary.ByteArrayMessageSender;
+import com.github.eupedroosouza.messaging.sender.object.ObjectMessageSender;
+import org.junit.jupiter.api.*;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class InProcessMessageSenderReceiverTest {
+
+    private final InProcessJedisExecutions executions = new InProcessJedisExecutions();
+    private final InProcessJedisExecutions referenceExecutions = new InProcessJedisExecutions(true);
+
+    private CompletableFuture<byte[]> receivedBytes = new CompletableFuture<>();
+    private CompletableFuture<MessageObject> receivedObject = new CompletableFuture<>();
+    private CompletableFuture<MessageObject> receivedReference = new CompletableFuture<>();
+
+    private ByteArrayMessageReceiver byteArrayMessageReceiver;
+    private ObjectMessageReceiver objectMessageReceiver;
+    private ObjectMessageReceiver referenceMessageReceiver;
+
+    @BeforeAll
+    void start() throws Exception {
+        CompletableFuture<Void> subscribed = new CompletableFuture<>();
+        byteArrayMessageReceiver = new ByteArrayMessageReceiver(executions, "local:bam", (i) -> subscribed.complete(null), (i) -> {}) {
+            @Override
+            public void receive(byte[] message) {
+                receivedBytes.complete(message);
+            }
+        };
+        byteArrayMessageReceiver.start();
+        subscribed.get(5, TimeUnit.SECONDS);
+
+        CompletableFuture<Void> objectSubscribed = new CompletableFuture<>();
+        objectMessageReceiver = new ObjectMessageReceiver(executions, "local:object", (i) -> objectSubscribed.complete(null), (i) -> {}) {
+            @Override
+            public <T extends MessageObject> void receive(T messageObject) {
+                receivedObject.complete(messageObject);
+            }
+        };
+        objectMessageReceiver.start();
+        objectSubscribed.get(5, TimeUnit.SECONDS);
+
+        CompletableFuture<Void> referenceSubscribed = new CompletableFuture<>();
+        referenceMessageReceiver = new ObjectMessageReceiver(referenceExecutions, "local:object", (i) -> referenceSubscribed.complete(null), (i) -> {}) {
+            @Override
+            public <T extends MessageObject> void receive(T messageObject) {
+                receivedReference.complete(messageObject);
+            }
+        };
+        referenceMessageReceiver.start();
+        referenceSubscribed.get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void sendByteArray() throws Exception {
+        ByteArrayMessageSender sender = new ByteArrayMessageSender(executions, "local:bam");
+        assertEquals(MessageStatus.SUCCESS, sender.send("Hello world!".getBytes(StandardCharsets.UTF_8)).get(5, TimeUnit.SECONDS));
+        assertEquals("Hello world!", new String(receivedBytes.get(5, TimeUnit.SECONDS), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void sendByteBuffers() throws Exception {
+        CompletableFuture<Void> subscribed = new CompletableFuture<>();
+        CompletableFuture<ByteBuffer> received = new CompletableFuture<>();
+        ByteArrayMessageReceiver receiver = new ByteArrayMessageReceiver(executions, "local:views", (i) -> subscribed.complete(null), (i) -> {}) {
+            @Override
+            public void receive(byte[] message) {
+                received.completeExceptionally(new AssertionError("Expected a view"));
+            }
+
+            @Override
+            public void receive(ByteBuffer message) {
+                ByteBuffer copy = ByteBuffer.allocate(message.remaining());
+                copy.put(message.duplicate());
+                received.complete(message.isReadOnly() ? copy : null);
+            }
+        };
+        receiver.enableByteBufferViews();
+        receiver.enableSequenceTracking();
+        receiver.start();
+        subscribed.get(5, TimeUnit.SECONDS);
+        try {
+            ByteArrayMessageSender sender = new ByteArrayMessageSender(executions, "local:views");
+            sender.enableSequencing();
+            ByteBuffer head = ByteBuffer.allocateDirect(6);
+            head.put("Hello ".getBytes(StandardCharsets.UTF_8));
+            head.flip();
+            ByteBuffer tail = ByteBuffer.wrap("world!".getBytes(StandardCharsets.UTF_8));
+            assertEquals(MessageStatus.SUCCESS, sender.send(head, tail).get(5, TimeUnit.SECONDS));
+            assertEquals(0, head.position());
+            assertEquals("Hello world!", new String(received.get(5, TimeUnit.SECONDS).array(), StandardCharsets.UTF_8));
+        } finally {
+            receiver.shutdown();
+        }
+    }
+
+    @Test
+    void resubscribeAfterFailure() throws Exception {
+        CompletableFuture<Void> subscribed = new CompletableFuture<>();
+        CompletableFuture<String> received = new CompletableFuture<>();
+        ByteArrayMessageReceiver receiver = new ByteArrayMessageReceiver(executions, "local:supervised", (i) -> subscribed.complete(null), (i) -> {}) {
+            @Override
+            public void receive(byte[] message) {
+                String text = new String(message, StandardCharsets.UTF_8);
+                if (text.equals("Fail"))
+                    throw new IllegalStateException("Dropped");
+                received.complete(text);
+            }
+        };
+        receiver.start();
+        subscribed.get(5, TimeUnit.SECONDS);
+        try {
+            ByteArrayMessageSender sender = new ByteArrayMessageSender(executions, "local:supervised");
+            assertEquals(MessageStatus.SUCCESS, sender.send("Fail".getBytes(StandardCharsets.UTF_8)).get(5, TimeUnit.SECONDS));
+            // Until received, the failed subscription may still count a publish that it then drops
+            long deadline = System.currentTimeMillis() + 5000;
+            while (!received.isDone() && System.currentTimeMillis() < deadline) {
+                sender.send("Recovered".getBytes(StandardCharsets.UTF_8)).get(5, TimeUnit.SECONDS);
+                Thread.sleep(10);
+            }
+            assertEquals("Recovered", received.get(5, TimeUnit.SECONDS));
+            assertEquals(1, receiver.getSupervisor().getReconnects());
+            assertTrue(receiver.getSupervisor().isConnected());
+            assertTrue(receiver.getSupervisor().getLastError() instanceof IllegalStateException);
+        } finally {
+            receiver.shutdown();
+        }
+    }
+
+    @Test
+    void sendObject() throws Exception {
+        ObjectMessageSender sender = new ObjectMessageSender(executions, "local:object");
+        TextMessageObject messageObject = new TextMessageObject("Hello world!");
+        assertEquals(MessageStatus.SUCCESS, sender.send(messageObject).get(5, TimeUnit.SECONDS));
+        MessageObject received = receivedObject.get(5, TimeUnit.SECONDS);
+        assertNotSame(messageObject, received);
+        assertEquals("Hello world!", ((TextMessageObject) received).getText());
+    }
+
+    @Test
+    void sendObjectByReference() throws Exception {
+        ObjectMessageSender sender = new ObjectMessageSender(referenceExecutions, "local:object");
+        TextMessageObject messageObject = new TextMessageObject("Hello world!");
+        assertEquals(MessageStatus.SUCCESS, sender.send(messageObject).get(5, TimeUnit.SECONDS));
+        assertSame(messageObject, receivedReference.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void sendWithoutSubscribers() throws Exception {
+        ByteArrayMessageSender sender = new ByteArrayMessageSender(executions, "local:nobody");
+        assertEquals(MessageStatus.NOT_SUBSCRIBERS_CHANNEL, sender.send(new byte[] {}).get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void sendToPattern() throws Exception {
+        CompletableFuture<Void> subscribed = new CompletableFuture<>();
+        PatternObjectMessageReceiver receiver = new PatternObjectMessageReceiver(executions, new String[] {"local:orders:*"},
+                (p, i) -> subscribed.complete(null), (p, i) -> {});
+        CompletableFuture<String> euOrder = new CompletableFuture<>();
+        receiver.register("local:orders:eu:*", (channel, messageObject) -> euOrder.complete(channel + "=" + ((TextMessageObject) messageObject).getText()));
+        receiver.start();
+        subscribed.get(5, TimeUnit.SECONDS);
+        try {
+            assertEquals(MessageStatus.SUCCESS, new ObjectMessageSender(executions, "local:orders:us:1").send(new TextMessageObject("Ignored")).get(5, TimeUnit.SECONDS));
+            assertEquals(MessageStatus.SUCCESS, new ObjectMessageSender(executions, "local:orders:eu:2").send(new TextMessageObject("Routed")).get(5, TimeUnit.SECONDS));
+            assertEquals("local:orders:eu:2=Routed", euOrder.get(5, TimeUnit.SECONDS));
+        } finally {
+            receiver.shutdown();
+        }
+    }
+
+    @Test
+    void suppressDuplicates() throws Exception {
+        CompletableFuture<Void> subscribed = new CompletableFuture<>();
+        List<String> received = new CopyOnWriteArrayList<>();
+        CompletableFuture<Void> last = new CompletableFuture<>();
+        ObjectMessageReceiver receiver = new ObjectMessageReceiver(referenceExecutions, "local:dedup", (i) -> subscribed.complete(null), (i) -> {}) {
+            @Override
+            public <T extends MessageObject> void receive(T messageObject) {
+                String text = ((TextMessageObject) messageObject).getText();
+                received.add(text);
+                if (text.equals("Last"))
+                    last.complete(null);
+            }
+        };
+        receiver.enableDuplicateSuppression(10_000, 1_000);
+        receiver.start();
+        subscribed.get(5, TimeUnit.SECONDS);
+        try {
+            ObjectMessageSender sender = new ObjectMessageSender(referenceExecutions, "local:dedup");
+            sender.enableMessageIds((messageObject) -> ((TextMessageObject) messageObject).getText().hashCode());
+            for (String text : new String[] {"First", "First", "Second", "First", "Last"})
+                sender.send(new TextMessageObject(text)).get(5, TimeUnit.SECONDS);
+            last.get(5, TimeUnit.SECONDS);
+            assertEquals(Arrays.asList("First", "Second", "Last"), received);
+        } finally {
+            receiver.shutdown();
+        }
+    }
+
+    @Test
+    void suppressDuplicatesPassesUnframedPayloads() throws Exception {
+        CompletableFuture<Void> subscribed = new CompletableFuture<>();
+        List<byte[]> received = new CopyOnWriteArrayList<>();
+        ByteArrayMessageReceiver receiver = new ByteArrayMessageReceiver(executions, "local:rawdedup", (i) -> subscribed.complete(null), (i) -> {}) {
+            @Override
+            public void receive(byte[] message) {
+                received.add(message);
+            }
+        };
+        receiver.enableDuplicateSuppression(10_000, 1_000);
+        receiver.start();
+        subscribed.get(5, TimeUnit.SECONDS);
+        try {
+            ByteArrayMessageSender sender = new ByteArrayMessageSender(executions, "local:rawdedup");
+            // Starts like a frame header that declares more fields than the payload holds
+            byte[] lookalike = {(byte) 0xB7, 0x01, 0, 0, 0, 0, (byte) 0xFF, (byte) 0xFF};
+            byte[] plain = "Plain".getBytes(StandardCharsets.UTF_8);
+            sender.send(lookalike).get(5, TimeUnit.SECONDS);
+            sender.send(plain).get(5, TimeUnit.SECONDS);
+            long deadline = System.currentTimeMillis() + 5000;
+            while (received.size() < 2 && System.currentTimeMillis() < deadline)
+                Thread.sleep(10);
+            assertEquals(2, received.size());
+            assertArrayEquals(lookalike, received.get(0));
+            assertArrayEquals(plain, received.get(1));
+            assertEquals(0, receiver.getSupervisor().getReconnects());
+        } finally {
+            receiver.shutdown();
+        }
+    }
+
+    @Test
+    void trackSequencesPassesUnframedPayloads() throws Exception {
+        CompletableFuture<Void> subscribed = new CompletableFuture<>();
+        List<byte[]> received = new CopyOnWriteArrayList<>();
+        ByteArrayMessageReceiver receiver = new ByteArrayMessageReceiver(executions, "local:rawsequence", (i) -> subscribed.complete(null), (i) -> {}) {
+            @Override
+            public void receive(byte[] message) {
+                received.add(message);
+            }
+        };
+        receiver.enableSequenceTracking();
+        receiver.start();
+        subscribed.get(5, TimeUnit.SECONDS);
+        try {
+            ByteArrayMessageSender sender = new ByteArrayMessageSender(executions, "local:rawsequence");
+            // A valid frame header without id or sequence, so it is a plain payload
+            byte[] lookalike = {(byte) 0xB7, 0x01, 0, 0, 0, 0, 0, 0, 'B', 'o', 'd', 'y'};
+            byte[] truncated = {(byte) 0xB7, 0x01, 0, 0, 0, 0, (byte) 0xFF, (byte) 0xFF};
+            sender.send(lookalike).get(5, TimeUnit.SECONDS);
+            sender.send(truncated).get(5, TimeUnit.SECONDS);
+            long deadline = System.currentTimeMillis() + 5000;
+            while (received.size() < 2 && System.currentTimeMillis() < deadline)
+                Thread.sleep(10);
+            assertEquals(2, received.size());
+            assertArrayEquals(lookalike, received.get(0));
+            assertArrayEquals(truncated, received.get(1));
+            assertEquals(0, receiver.getSupervisor().getReconnects());
+        } finally {
+            receiver.shutdown();
+        }
+    }
+
+    @Test
+    void sendBundled() throws Exception {
+        CompletableFuture<Void> subscribed = new CompletableFuture<>();
+        List<String> received = new CopyOnWriteArrayList<>();
+        CompletableFuture<Void> last = new CompletableFuture<>();
+        ObjectMessageReceiver receiver = new ObjectMessageReceiver(executions, "local:bundled", (i) -> subscribed.complete(null), (i) -> {}) {
+            @Override
+            public <T extends MessageObject> void receive(T messageObject) {
+                String text = ((TextMessageObject) messageObject).getText();
+                received.add(text);
+                if (text.equals("Last"))
+                    last.complete(null);
+            }
+        };
+        receiver.start();
+        subscribed.get(5, TimeUnit.SECONDS);
+        try {
+            ObjectMessageSender sender = new ObjectMessageSender(executions, "local:bundled");
+            sender.enableBundling(10_000, 64 * 1024);
+            List<CompletableFuture<MessageStatus>> futures = new ArrayList<>();
+            for (String text : new String[] {"First", "Second", "Third", "Last"})
+                futures.add(sender.send(new TextMessageObject(text)));
+            // Held for the linger window
+            Thread.sleep(50);
+            assertTrue(received.isEmpty());
+            sender.flush();
+            for (CompletableFuture<MessageStatus> future : futures)
+                assertEquals(MessageStatus.SUCCESS, future.get(5, TimeUnit.SECONDS));
+            last.get(5, TimeUnit.SECONDS);
+            assertEquals(Arrays.asList("First", "Second", "Third", "Last"), received);
+        } finally {
+            receiver.shutdown();
+        }
+    }
+
+    @Test
+    void sendBundledBytesInOrder() throws Exception {
+        CompletableFuture<Void> subscribed = new CompletableFuture<>();
+        List<Integer> received = new CopyOnWriteArrayList<>();
+        ByteArrayMessageReceiver receiver = new ByteArrayMessageReceiver(executions, "local:bundledbytes", (i) -> subscribed.complete(null), (i) -> {}) {
+            @Override
+            public void receive(byte[] message) {
+                received.add(ByteBuffer.wrap(message).getInt());
+            }
+        };
+        receiver.enableBundling();
+        receiver.start();
+        subscribed.get(5, TimeUnit.SECONDS);
+        try {
+            ByteArrayMessageSender sender = new ByteArrayMessageSender(executions, "local:bundledbytes");
+            // Small bundles, so many of them are published back to back
+            sender.enableBundling(10_000, 64);
+            List<CompletableFuture<MessageStatus>> futures = new ArrayList<>();
+            for (int i = 0; i < 500; i++)
+                futures.add(sender.send(ByteBuffer.allocate(4).putInt(i).array()));
+            sender.flush();
+            for (CompletableFuture<MessageStatus> future : futures)
+                assertEquals(MessageStatus.SUCCESS, future.get(5, TimeUnit.SECONDS));
+            long deadline = System.currentTimeMillis() + 5000;
+            while (received.size() < 500 && System.currentTimeMillis() < deadline)
+                Thread.sleep(10);
+            assertEquals(500, received.size());
+            for (int i = 0; i < 500; i++)
+                assertEquals(i, (int) received.get(i));
+        } finally {
+            receiver.shutdown();
+        }
+    }
+
+    @AfterAll
+    void stop() {
+        byteArrayMessageReceiver.shutdown();
+        objectMessageReceiver.shutdown();
+        referenceMessageReceiver.shutdown();
+    }
+
+}
@@ -0,0 +1,444 @@
+/*
+ * Copyright (c) 2024 Pedro Souza
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package com.github.eupedroosouza.messaging.messenger;
+
+import com.github.eupedroosouza.messaging.codec.MessageFormat;
+import com.github.eupedroosouza.messaging.connection.executions.InProcessJedisExecutions;
+import com.github.eupedroosouza.messaging.message.MessageObject;
+import com.github.eupedroosouza.messaging.message.rpc.RPCObjectChannelResponse;
+import com.github.eupedroosouza.messaging.message.status.MessageStatus;
+import com.github.eupedroosouza.messaging.receiver.StreamWriter;
+import com.github.eupedroosouza.messaging.receiver.binary.RPCByteArrayMessageReceiver;
+import com.github.eupedroosouza.messaging.receiver.object.RPCObjectMessageReceiver;
+import com.github.eupedroosouza.messaging.sender.HedgePolicy;
+import com.github.eupedroosouza.messaging.sender.ResponseStream;
+import com.github.eupedroosouza.messaging.sender.binary.RPCByteArrayChannelSender;
+import com.github.eupedroosouza.messaging.sender.object.RPCObjectMessageSender;
+import com.github.eupedroosouza.messaging.trace.Trace;
+import com.github.eupedroosouza.messaging.trace.TraceStage;
+import com.github.eupedroosouza.messaging.trace.Tracer;
+import com.github.eupedroosouza.messaging.util.FutureUtil;
+import org.junit.jupiter.api.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class InProcessRPCMessageSenderReceiverTest {
+
+    private final InProcessJedisExecutions executions = new InProcessJedisExecutions();
+    private final ConcurrentLinkedQueue<CompletableFuture<MessageObject>> pendingRequests = new ConcurrentLinkedQueue<>();
+
+    private RPCObjectMessageSender sender;
+    private RPCObjectMessageReceiver receiver;
+
+    @BeforeAll
+    void start() throws Exception {
+        CountDownLatch subscribed = new CountDownLatch(2);
+        sender = new RPCObjectMessageSender(executions, "local:rpc", (c, i) -> subscribed.countDown(), (c, i) -> {});
+        receiver = new RPCObjectMessageReceiver(executions, "local:rpc", (c, i) -> subscribed.countDown(), (c, i) -> {}) {
+            @Override
+            public <T extends MessageObject> CompletableFuture<? extends MessageObject> receive(T messageObject) {
+                String text = ((TextMessageObject) messageObject).getText();
+                if (text.startsWith("echo:"))
+                    return CompletableFuture.completedFuture(new TextMessageObject(text.substring(5)));
+                CompletableFuture<MessageObject> future = new CompletableFuture<>();
+                pendingRequests.add(future);
+                return future;
+            }
+        };
+        sender.start();
+        receiver.start();
+        assertTrue(subscribed.await(5, TimeUnit.SECONDS));
+    }
+
+    @AfterEach
+    void clear() {
+        pendingRequests.clear();
+    }
+
+    @Test
+    void sendObject() throws Exception {
+        RPCObjectChannelResponse<?> response = sender.send(new TextMessageObject("echo:Hello world!"), 5000).get(5, TimeUnit.SECONDS);
+        assertEquals(MessageStatus.SUCCESS, response.getStatus());
+        assertEquals("Hello world!", ((TextMessageObject) response.getResponse()).getText());
+    }
+
+    @Test
+    void sendBinaryObject() throws Exception {
+        RPCObjectMessageSender binarySender = new RPCObjectMessageSender(executions, "local:rpc", MessageFormat.BINARY);
+        binarySender.start();
+        try {
+            RPCObjectChannelResponse<?> response = binarySender.send(new TextMessageObject("echo:Hello binary!"), 5000).get(5, TimeUnit.SECONDS);
+            assertEquals(MessageStatus.SUCCESS, response.getStatus());
+            assertEquals("Hello binary!", ((TextMessageObject) response.getResponse()).getText());
+        } finally {
+            binarySender.shutdown();
+        }
+    }
+
+    @Test
+    void keepAsyncRequestsInFlight() throws Exception {
+        List<CompletableFuture<? extends RPCObjectChannelResponse<?>>> responses = new ArrayList<>();
+        for (int i = 0; i < 100; i++)
+            responses.add(sender.send(new TextMessageObject("pending"), 10000));
+        long deadline = System.currentTimeMillis() + 5000;
+        while (pendingRequests.size() < 100 && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+        assertEquals(100, pendingRequests.size());
+
+        for (CompletableFuture<MessageObject> request : pendingRequests)
+            request.complete(new TextMessageObject("done"));
+        for (CompletableFuture<? extends RPCObjectChannelResponse<?>> response : responses)
+            assertEquals(MessageStatus.SUCCESS, response.get(5, TimeUnit.SECONDS).getStatus());
+    }
+
+    @Test
+    void enforceRemoteTimeout() throws Exception {
+        RPCObjectChannelResponse<?> response = sender.sendWithRemoteTimeout(new TextMessageObject("pending"), 100).get(5, TimeUnit.SECONDS);
+        assertEquals(MessageStatus.ERROR, response.getStatus());
+        assertEquals(TimeoutException.class.getName(), response.getError().getErrorClassName());
+        assertTrue(pendingRequests.peek().isCancelled());
+    }
+
+    @Test
+    void sendBatch() throws Exception {
+        List<TextMessageObject> messageObjects = Arrays.asList(new TextMessageObject("echo:first"),
+                new TextMessageObject("pending"), new TextMessageObject("echo:third"));
+        List<CompletableFuture<RPCObjectChannelResponse<? extends MessageObject>>> responses = sender.sendBatch(messageObjects, 5000, 200);
+        assertEquals(3, responses.size());
+        assertEquals("first", ((TextMessageObject) responses.get(0).get(5, TimeUnit.SECONDS).getResponse()).getText());
+        RPCObjectChannelResponse<?> timedOut = responses.get(1).get(5, TimeUnit.SECONDS);
+        assertEquals(MessageStatus.ERROR, timedOut.getStatus());
+        assertEquals(TimeoutException.class.getName(), timedOut.getError().getErrorClassName());
+        assertEquals("third", ((TextMessageObject) responses.get(2).get(5, TimeUnit.SECONDS).getResponse()).getText());
+    }
+
+    @Test
+    void streamWithinWindow() throws Exception {
+        AtomicInteger written = new AtomicInteger();
+        CountDownLatch subscribed = new CountDownLatch(2);
+        RPCByteArrayMessageReceiver streamReceiver = new RPCByteArrayMessageReceiver(executions, "local:stream", (c, i) -> subscribed.countDown(), (c, i) -> {}) {
+            @Override
+            public CompletableFuture<byte[]> receive(byte[] message) {
+                return CompletableFuture.completedFuture(message);
+            }
+
+            @Override
+            public void receiveStream(byte[] message, StreamWriter writer) {
+                for (int i = 0; i < 64; i++) {
+                    writer.write(new byte[] {(byte) i});
+                    written.incrementAndGet();
+                }
+            }
+        };
+        RPCByteArrayChannelSender streamSender = new RPCByteArrayChannelSender(executions, "local:stream", (c, i) -> subscribed.countDown(), (c, i) -> {});
+        streamReceiver.start();
+        streamSender.start();
+        try {
+            assertTrue(subscribed.await(5, TimeUnit.SECONDS));
+            int read = 0;
+            try (ResponseStream stream = streamSender.sendStream(new byte[0], 4, 5000)) {
+                while (stream.hasNext()) {
+                    assertEquals(read, stream.next()[0]);
+                    read++;
+                    Thread.sleep(2);
+                    assertTrue(written.get() - read <= 4);
+                }
+            }
+            assertEquals(64, read);
+        } finally {
+            streamSender.shutdown();
+            streamReceiver.shutdown();
+        }
+    }
+
+    @Test
+    void traceStages() throws Exception {
+        CompletableFuture<Trace> exported = new CompletableFuture<>();
+        Tracer tracer = new Tracer(1, exported::complete);
+        RPCObjectMessageSender tracedSender = new RPCObjectMessageSender(executions, "local:rpc");
+        tracedSender.enableTracing(tracer);
+        tracedSender.start();
+        try {
+            RPCObjectChannelResponse<?> response = tracedSender.send(new TextMessageObject("echo:Traced"), 5000).get(5, TimeUnit.SECONDS);
+            assertEquals(MessageStatus.SUCCESS, response.getStatus());
+            Trace trace = response.getTrace();
+            assertSame(trace, exported.get(5, TimeUnit.SECONDS));
+            assertTrue(trace.getReceivedAt() >= trace.getSentAt());
+            assertTrue(trace.getDuration(TraceStage.DECODE) > 0);
+            assertTrue(trace.getDuration(TraceStage.TOTAL) >= trace.getDuration(TraceStage.SERIALIZE) + trace.getDuration(TraceStage.PUBLISH));
+            assertEquals(1, tracer.getHistogram("local:rpc", TraceStage.TOTAL).getCount());
+        } finally {
+            tracedSender.shutdown();
+        }
+
+        RPCObjectChannelResponse<?> untraced = sender.send(new TextMessageObject("echo:Untraced"), 5000).get(5, TimeUnit.SECONDS);
+        assertNull(untraced.getTrace());
+    }
+
+    @Test
+    void hedgeToAnotherInstance() throws Exception {
+        CountDownLatch subscribed = new CountDownLatch(5);
+        RPCObjectMessageReceiver slow = hedgeReceiver("slow", subscribed);
+        RPCObjectMessageReceiver fast = hedgeReceiver("fast", subscribed);
+        RPCObjectMessageSender hedgedSender = new RPCObjectMessageSender(executions, "local:hedge", (c, i) -> subscribed.countDown(), (c, i) -> {});
+        hedgedSender.enableHedging(new HedgePolicy(20, 1), "slow", "fast");
+        hedgedSender.start();
+        try {
+            assertTrue(subscribed.await(5, TimeUnit.SECONDS));
+            RPCObjectChannelResponse<?> response = hedgedSender.send(new TextMessageObject("Hedged"), 5000).get(5, TimeUnit.SECONDS);
+            assertEquals(MessageStatus.SUCCESS, response.getStatus());
+            assertEquals("fast:Hedged", ((TextMessageObject) response.getResponse()).getText());
+        } finally {
+            hedgedSender.shutdown();
+            slow.shutdown();
+            fast.shutdown();
+        }
+    }
+
+    @Test
+    void hedgeKeepsFirstReply() throws Exception {
+        CountDownLatch subscribed = new CountDownLatch(5);
+        RPCObjectMessageReceiver late = hedgeReceiver("late", subscribed);
+        RPCObjectMessageReceiver fast = hedgeReceiver("fast", subscribed);
+        RPCObjectMessageSender hedgedSender = new RPCObjectMessageSender(executions, "local:hedge", (c, i) -> subscribed.countDown(), (c, i) -> {});
+        hedgedSender.enableHedging(new HedgePolicy(20, 1), "late", "fast");
+        hedgedSender.start();
+        try {
+            assertTrue(subscribed.await(5, TimeUnit.SECONDS));
+            RPCObjectChannelResponse<?> response = hedgedSender.send(new TextMessageObject("Hedged"), 5000).get(5, TimeUnit.SECONDS);
+            assertEquals("fast:Hedged", ((TextMessageObject) response.getResponse()).getText());
+            // The late instance still answers, its reply must not touch the completed response
+            Thread.sleep(200);
+            assertEquals("fast:Hedged", ((TextMessageObject) response.getResponse()).getText());
+        } finally {
+            hedgedSender.shutdown();
+            late.shutdown();
+            fast.shutdown();
+        }
+    }
+
+    @Test
+    void hedgeSkipsStoppedInstance() throws Exception {
+        CountDownLatch subscribed = new CountDownLatch(3);
+        RPCObjectMessageReceiver fast = hedgeReceiver("fast", subscribed);
+        RPCObjectMessageSender hedgedSender = new RPCObjectMessageSender(executions, "local:hedge", (c, i) -> subscribed.countDown(), (c, i) -> {});
+        hedgedSender.enableHedging(new HedgePolicy(20, 1), "stopped", "fast");
+        hedgedSender.start();
+        try {
+            assertTrue(subscribed.await(5, TimeUnit.SECONDS));
+            // Both round robin turns, the stopped instance's one falls through to the next instance
+            for (int i = 0; i < 2; i++) {
+                RPCObjectChannelResponse<?> response = hedgedSender.send(new TextMessageObject("Hedged"), 5000).get(5, TimeUnit.SECONDS);
+                assertEquals(MessageStatus.SUCCESS, response.getStatus());
+                assertEquals("fast:Hedged", ((TextMessageObject) response.getResponse()).getText());
+            }
+        } finally {
+            hedgedSender.shutdown();
+            fast.shutdown();
+        }
+    }
+
+    @Test
+    void hedgeNeedsTwoInstances() {
+        RPCObjectMessageSender hedgedSender = new RPCObjectMessageSender(executions, "local:hedge");
+        assertThrows(IllegalArgumentException.class, () -> hedgedSender.enableHedging(new HedgePolicy(20, 1)));
+        assertThrows(IllegalArgumentException.class, () -> hedgedSender.enableHedging(new HedgePolicy(20, 1), "only"));
+        assertThrows(IllegalArgumentException.class, () -> new HedgePolicy(0, 1));
+    }
+
+    private RPCObjectMessageReceiver hedgeReceiver(String instanceId, CountDownLatch subscribed) {
+        RPCObjectMessageReceiver hedgeReceiver = new RPCObjectMessageReceiver(executions, "local:hedge", (c, i) -> subscribed.countDown(), (c, i) -> {}) {
+            @Override
+            public <T extends MessageObject> CompletableFuture<? extends MessageObject> receive(T messageObject) {
+                if (instanceId.equals("slow"))
+                    return new CompletableFuture<>();
+                if (instanceId.equals("late")) {
+                    CompletableFuture<MessageObject> reply = new CompletableFuture<>();
+                    FutureUtil.scheduler().schedule(() -> reply.complete(new TextMessageObject("late:" + ((TextMessageObject) messageObject).getText())),
+                            100, TimeUnit.MILLISECONDS);
+                    return reply;
+                }
+                return CompletableFuture.completedFuture(new TextMessageObject(instanceId + ":" + ((TextMessageObject) messageObject).getText()));
+            }
+        };
+        hedgeReceiver.setInstanceId(instanceId);
+        hedgeReceiver.start();
+        return hedgeReceiver;
+    }
+
+    @Test
+    void routeKeysToShardOwners() throws Exception {
+        RPCObjectMessageReceiver first = shardReceiver("first");
+        RPCObjectMessageReceiver second = shardReceiver("second");
+        RPCObjectMessageSender shardedSender = new RPCObjectMessageSender(executions, "local:shards");
+        shardedSender.enableSharding(8);
+        shardedSender.start();
+        try {
+            awaitOwnedShards(first, second);
+            assertTrue(first.getShardCoordinator().getOwnedShards().length > 0);
+            assertTrue(second.getShardCoordinator().getOwnedShards().length > 0);
+            for (int i = 0; i < 20; i++) {
+                String key = "entity-" + i;
+                RPCObjectChannelResponse<?> response = shardedSender.send(key, new TextMessageObject(key), 5000).get(5, TimeUnit.SECONDS);
+                assertEquals(MessageStatus.SUCCESS, response.getStatus());
+                assertEquals(key, ((TextMessageObject) response.getResponse()).getText().split("=")[1]);
+            }
+
+            second.shutdown();
+            awaitOwnedShards(first);
+            RPCObjectChannelResponse<?> response = shardedSender.send("entity-0", new TextMessageObject("entity-0"), 5000).get(5, TimeUnit.SECONDS);
+            assertEquals("first=entity-0", ((TextMessageObject) response.getResponse()).getText());
+        } finally {
+            shardedSender.shutdown();
+            first.shutdown();
+        }
+    }
+
+    private RPCObjectMessageReceiver shardReceiver(String instanceId) {
+        RPCObjectMessageReceiver shardReceiver = new RPCObjectMessageReceiver(executions, "local:shards") {
+            @Override
+            public <T extends MessageObject> CompletableFuture<? extends MessageObject> receive(T messageObject) {
+                return CompletableFuture.completedFuture(new TextMessageObject(instanceId + "=" + ((TextMessageObject) messageObject).getText()));
+            }
+        };
+        shardReceiver.setInstanceId(instanceId);
+        shardReceiver.enableSharding(8, 50);
+        shardReceiver.start();
+        return shardReceiver;
+    }
+
+    private static void awaitOwnedShards(RPCObjectMessageReceiver... receivers) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (System.currentTimeMillis() < deadline) {
+            int owned = 0;
+            for (RPCObjectMessageReceiver shardReceiver : receivers)
+                owned += shardReceiver.getShardCoordinator().getOwnedShards().length;
+            if (owned == 8)
+                return;
+            Thread.sleep(10);
+        }
+        fail("The shards were not rebalanced");
+    }
+
+    @Test
+    void memoizeResponses() throws Exception {
+        CountDownLatch subscribed = new CountDownLatch(2);
+        AtomicInteger handled = new AtomicInteger();
+        RPCObjectMessageReceiver memoReceiver = new RPCObjectMessageReceiver(executions, "local:memo", (c, i) -> subscribed.countDown(), (c, i) -> {}) {
+            @Override
+            public <T extends MessageObject> CompletableFuture<? extends MessageObject> receive(T messageObject) {
+                handled.incrementAndGet();
+                return CompletableFuture.completedFuture(new TextMessageObject("Looked up " + ((TextMessageObject) messageObject).getText()));
+            }
+        };
+        memoReceiver.enableResponseCache(100, 60_000);
+        RPCObjectMessageSender memoSender = new RPCObjectMessageSender(executions, "local:memo", (c, i) -> subscribed.countDown(), (c, i) -> {});
+        memoReceiver.start();
+        memoSender.start();
+        try {
+            assertTrue(subscribed.await(5, TimeUnit.SECONDS));
+            for (String key : new String[] {"a", "a", "b", "a"}) {
+                RPCObjectChannelResponse<?> response = memoSender.send(new TextMessageObject(key), 5000).get(5, TimeUnit.SECONDS);
+                assertEquals("Looked up " + key, ((TextMessageObject) response.getResponse()).getText());
+            }
+            assertEquals(2, handled.get());
+        } finally {
+            memoSender.shutdown();
+            memoReceiver.shutdown();
+        }
+    }
+
+    @Test
+    void coalesceIdenticalRequests() throws Exception {
+        CountDownLatch subscribed = new CountDownLatch(1);
+        RPCObjectMessageSender coalescingSender = new RPCObjectMessageSender(executions, "local:rpc", (c, i) -> subscribed.countDown(), (c, i) -> {});
+        coalescingSender.enableCoalescing();
+        coalescingSender.enableResponseCache(100, 60_000);
+        coalescingSender.start();
+        try {
+            assertTrue(subscribed.await(5, TimeUnit.SECONDS));
+            List<CompletableFuture<? extends RPCObjectChannelResponse<?>>> responses = new ArrayList<>();
+            for (int i = 0; i < 10; i++)
+                responses.add(coalescingSender.send(new TextMessageObject("pending"), 5000));
+            long deadline = System.currentTimeMillis() + 5000;
+            while (pendingRequests.isEmpty() && System.currentTimeMillis() < deadline)
+                Thread.sleep(10);
+            Thread.sleep(100);
+            assertEquals(1, pendingRequests.size());
+
+            pendingRequests.poll().complete(new TextMessageObject("shared"));
+            for (CompletableFuture<? extends RPCObjectChannelResponse<?>> response : responses)
+                assertEquals("shared", ((TextMessageObject) response.get(5, TimeUnit.SECONDS).getResponse()).getText());
+
+            RPCObjectChannelResponse<?> cached = coalescingSender.send(new TextMessageObject("pending"), 5000).get(5, TimeUnit.SECONDS);
+            assertEquals("shared", ((TextMessageObject) cached.getResponse()).getText());
+            assertTrue(pendingRequests.isEmpty());
+        } finally {
+            coalescingSender.shutdown();
+        }
+    }
+
+    @Test
+    void coalesceWithOwnTimeouts() throws Exception {
+        CountDownLatch subscribed = new CountDownLatch(1);
+        RPCObjectMessageSender coalescingSender = new RPCObjectMessageSender(executions, "local:rpc", (c, i) -> subscribed.countDown(), (c, i) -> {});
+        coalescingSender.enableCoalescing();
+        coalescingSender.start();
+        try {
+            assertTrue(subscribed.await(5, TimeUnit.SECONDS));
+            CompletableFuture<? extends RPCObjectChannelResponse<?>> leader = coalescingSender.send(new TextMessageObject("pending"), 300);
+            long deadline = System.currentTimeMillis() + 5000;
+            while (pendingRequests.isEmpty() && System.currentTimeMillis() < deadline)
+                Thread.sleep(10);
+            CompletableFuture<? extends RPCObjectChannelResponse<?>> follower = coalescingSender.send(new TextMessageObject("pending"), 5000);
+
+            // The leader gives up on its own timeout, the follower still gets the reply to the shared request
+            ExecutionException timedOut = assertThrows(ExecutionException.class, () -> leader.get(5, TimeUnit.SECONDS));
+            assertTrue(timedOut.getCause() instanceof TimeoutException);
+            assertFalse(follower.isDone());
+            pendingRequests.poll().complete(new TextMessageObject("shared"));
+            assertEquals("shared", ((TextMessageObject) follower.get(5, TimeUnit.SECONDS).getResponse()).getText());
+        } finally {
+            coalescingSender.shutdown();
+        }
+    }
+
+    @AfterAll
+    void stop() {
+        sender.shutdown();
+        receiver.shutdown();
+    }
+
+}
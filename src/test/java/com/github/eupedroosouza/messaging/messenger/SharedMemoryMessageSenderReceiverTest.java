@@ -0,0 +1,102 @@
+/*
+ * Copyright (c) 2024 Pedro Souza
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package com.github.eupedroosouza.messaging.messenger;
+
+import com.github.eupedroosouza.messaging.connection.executions.SharedMemoryJedisExecutions;
+import com.github.eupedroosouza.messaging.message.status.MessageStatus;
+import com.github.eupedroosouza.messaging.receiver.binary.ByteArrayMessageReceiver;
+import com.github.eupedroosouza.messaging.sender.binary.ByteArrayMessageSender;
+import org.junit.jupiter.api.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class SharedMemoryMessageSenderReceiverTest {
+
+    private Path file;
+    private SharedMemoryJedisExecutions senderExecutions;
+    private SharedMemoryJedisExecutions receiverExecutions;
+
+    private final List<String> received = Collections.synchronizedList(new ArrayList<>());
+    private final CompletableFuture<Void> receivedAll = new CompletableFuture<>();
+
+    private ByteArrayMessageReceiver byteArrayMessageReceiver;
+
+    @BeforeAll
+    void start() throws Exception {
+        file = Files.createTempFile("messaging", ".ring");
+        Files.delete(file);
+        senderExecutions = new SharedMemoryJedisExecutions(file, 16384);
+        receiverExecutions = new SharedMemoryJedisExecutions(file);
+
+        CompletableFuture<Void> subscribed = new CompletableFuture<>();
+        byteArrayMessageReceiver = new ByteArrayMessageReceiver(receiverExecutions, "shm:bam", (i) -> subscribed.complete(null), (i) -> {}) {
+            @Override
+            public void receive(byte[] message) {
+                received.add(new String(message, StandardCharsets.UTF_8));
+                if (received.size() == 1000)
+                    receivedAll.complete(null);
+            }
+        };
+        byteArrayMessageReceiver.start();
+        subscribed.get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void sendAcrossRingWraps() throws Exception {
+        ByteArrayMessageSender sender = new ByteArrayMessageSender(senderExecutions, "shm:bam");
+        ByteArrayMessageSender otherChannelSender = new ByteArrayMessageSender(senderExecutions, "shm:other");
+        for (int i = 0; i < 1000; i++) {
+            otherChannelSender.send(("Other " + i).getBytes(StandardCharsets.UTF_8)).join();
+            sender.send(("Message " + i).getBytes(StandardCharsets.UTF_8)).join();
+        }
+        receivedAll.get(5, TimeUnit.SECONDS);
+        for (int i = 0; i < 1000; i++)
+            assertEquals("Message " + i, received.get(i));
+    }
+
+    @Test
+    void sendWithoutSubscribers() throws Exception {
+        ByteArrayMessageSender sender = new ByteArrayMessageSender(senderExecutions, "shm:nobody");
+        assertEquals(MessageStatus.NOT_SUBSCRIBERS_CHANNEL, sender.send(new byte[] {}).get(5, TimeUnit.SECONDS));
+    }
+
+    @AfterAll
+    void stop() throws IOException {
+        byteArrayMessageReceiver.shutdown();
+        senderExecutions.close();
+        receiverExecutions.close();
+        Files.deleteIfExists(file);
+    }
+
+}
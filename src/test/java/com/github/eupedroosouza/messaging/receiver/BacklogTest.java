@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2024 Pedro Souza
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package com.github.eupedroosouza.messaging.receiver;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BacklogTest {
+
+    @TempDir
+    File spillDirectory;
+
+    @Test
+    void drainTiersInOrder() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch drained = new CountDownLatch(2000);
+        List<Integer> received = new CopyOnWriteArrayList<>();
+        Backlog backlog = new Backlog("test", 10, 1024, spillDirectory, 1024 * 1024, (message) -> {
+            try {
+                release.await();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            received.add(ByteBuffer.wrap(message).getInt());
+            drained.countDown();
+        });
+        backlog.start();
+        try {
+            for (int i = 0; i < 2000; i++)
+                assertTrue(backlog.offer(ByteBuffer.allocate(16).putInt(i).array()));
+            assertTrue(backlog.getHeapMessages() > 0);
+            assertTrue(backlog.getOffHeapMessages() > 0);
+            assertTrue(backlog.getSpilledMessages() > 0);
+
+            release.countDown();
+            assertTrue(drained.await(10, TimeUnit.SECONDS));
+            for (int i = 0; i < 2000; i++)
+                assertEquals(i, (int) received.get(i));
+            assertEquals(0, backlog.getSpilledMessages());
+            assertEquals(0, backlog.getDropped());
+        } finally {
+            backlog.shutdown();
+        }
+    }
+
+    @Test
+    void dropWhenEveryTierIsFull() {
+        Backlog backlog = new Backlog("test", 1, 0, null, 0, (message) -> {});
+        assertTrue(backlog.offer(new byte[1]));
+        assertFalse(backlog.offer(new byte[1]));
+        assertEquals(1, backlog.getDropped());
+    }
+
+}
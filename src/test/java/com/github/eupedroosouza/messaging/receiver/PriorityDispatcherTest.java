@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2024 Pedro Souza
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package com.github.eupedroosouza.messaging.receiver;
+
+import com.github.eupedroosouza.messaging.message.priority.MessagePriority;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PriorityDispatcherTest {
+
+    @Test
+    void drainHigherLanesFirst() throws Exception {
+        assertEquals(Arrays.asList("H", "H", "N", "N", "L", "L"), drain(new int[] {16, 4, 1},
+                MessagePriority.LOW, MessagePriority.NORMAL, MessagePriority.LOW, MessagePriority.HIGH, MessagePriority.NORMAL, MessagePriority.HIGH));
+    }
+
+    @Test
+    void keepLowerLanesMoving() throws Exception {
+        assertEquals(Arrays.asList("H", "H", "L", "H", "H", "L"), drain(new int[] {2, 1, 1},
+                MessagePriority.HIGH, MessagePriority.HIGH, MessagePriority.HIGH, MessagePriority.HIGH, MessagePriority.LOW, MessagePriority.LOW));
+    }
+
+    private static List<String> drain(int[] weights, MessagePriority... priorities) throws Exception {
+        PriorityDispatcher dispatcher = new PriorityDispatcher("test", 16, 1, weights);
+        List<String> order = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch blocked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(priorities.length);
+        dispatcher.start();
+        try {
+            dispatcher.dispatch(MessagePriority.NORMAL, () -> {
+                blocked.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+            assertTrue(blocked.await(5, TimeUnit.SECONDS));
+            for (MessagePriority priority : priorities) {
+                dispatcher.dispatch(priority, () -> {
+                    order.add(priority.name().substring(0, 1));
+                    done.countDown();
+                });
+            }
+            release.countDown();
+            assertTrue(done.await(5, TimeUnit.SECONDS));
+            return order;
+        } finally {
+            dispatcher.shutdown();
+        }
+    }
+
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2024 Pedro Souza
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package com.github.eupedroosouza.messaging.receiver;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SequenceTrackerTest {
+
+    @Test
+    void countGaps() {
+        SequenceTracker tracker = new SequenceTracker();
+        List<Long> order = new ArrayList<>();
+        for (long sequence : new long[] {5, 6, 9, 10, 8})
+            tracker.accept(1, sequence, () -> order.add(sequence));
+        tracker.accept(2, 0, () -> order.add(0L));
+        assertEquals(Arrays.asList(5L, 6L, 9L, 10L, 8L, 0L), order);
+        assertEquals(6, tracker.getReceived());
+        assertEquals(2, tracker.getLost());
+        assertEquals(2, tracker.getLost(1));
+        assertEquals(1, tracker.getLate());
+        assertEquals(2, tracker.getPublishers());
+    }
+
+    @Test
+    void reorderWithinWindow() {
+        SequenceTracker tracker = new SequenceTracker(4, 0);
+        List<Long> order = new ArrayList<>();
+        for (long sequence : new long[] {0, 2, 3, 1, 5, 9, 4})
+            tracker.accept(1, sequence, () -> order.add(sequence));
+        // 9 pushes the window past the missing 4, which is late once it arrives
+        assertEquals(Arrays.asList(0L, 1L, 2L, 3L, 5L), order);
+        assertEquals(1, tracker.getLost());
+        assertEquals(1, tracker.getLate());
+    }
+
+    @Test
+    void releaseAfterDelay() throws Exception {
+        SequenceTracker tracker = new SequenceTracker(16, 50);
+        List<Long> order = Collections.synchronizedList(new ArrayList<>());
+        for (long sequence : new long[] {0, 2, 3})
+            tracker.accept(1, sequence, () -> order.add(sequence));
+        assertEquals(Collections.singletonList(0L), order);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (order.size() < 3 && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+        assertEquals(Arrays.asList(0L, 2L, 3L), order);
+        assertEquals(1, tracker.getLost());
+    }
+
+    @Test
+    void releaseOnReceiverExecutor() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, "receiver"));
+        try {
+            SequenceTracker tracker = new SequenceTracker(16, 20, executor);
+            List<String> threads = Collections.synchronizedList(new ArrayList<>());
+            tracker.accept(1, 0, () -> {});
+            // Held for the missing 1, released by the expiry on the receiver's executor
+            tracker.accept(1, 2, () -> threads.add(Thread.currentThread().getName()));
+            long deadline = System.currentTimeMillis() + 5000;
+            while (threads.isEmpty() && System.currentTimeMillis() < deadline)
+                Thread.sleep(10);
+            assertEquals(Collections.singletonList("receiver"), threads);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2024 Pedro Souza
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package com.github.eupedroosouza.messaging.sender;
+
+import com.github.eupedroosouza.messaging.connection.JedisExecutions;
+import com.github.eupedroosouza.messaging.exception.ChannelException;
+import com.github.eupedroosouza.messaging.message.status.MessageStatus;
+import com.github.eupedroosouza.messaging.sender.binary.ByteArrayMessageSender;
+import com.github.eupedroosouza.messaging.util.ByteArrayBuffer;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import redis.clients.jedis.BinaryJedisPubSub;
+import redis.clients.jedis.JedisPubSub;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PublishJournalTest {
+
+    @TempDir
+    File journalDirectory;
+
+    @Test
+    void replayAfterOutage() throws Exception {
+        FlakyExecutions executions = new FlakyExecutions();
+        ByteArrayMessageSender sender = new ByteArrayMessageSender(executions, "journal");
+        sender.enableJournal(new File(journalDirectory, "replay"), 1024 * 1024);
+        try {
+            executions.down = true;
+            for (int i = 0; i < 100; i++)
+                assertEquals(MessageStatus.JOURNALED, sender.send(ByteBuffer.allocate(4).putInt(i).array()).get(5, TimeUnit.SECONDS));
+            assertEquals(100, sender.getJournal().getPendingMessages());
+
+            executions.down = false;
+            // Queued behind the journaled messages to keep the order
+            sender.send(ByteBuffer.allocate(4).putInt(100).array()).get(5, TimeUnit.SECONDS);
+            long deadline = System.currentTimeMillis() + 10_000;
+            while (executions.published.size() < 101 && System.currentTimeMillis() < deadline)
+                Thread.sleep(10);
+            assertEquals(101, executions.published.size());
+            for (int i = 0; i < 101; i++)
+                assertEquals(i, ByteBuffer.wrap(executions.published.get(i)).getInt());
+            assertEquals(0, sender.getJournal().getPendingMessages());
+            assertEquals(0, sender.getJournal().getDiskBytes());
+        } finally {
+            sender.shutdownJournal();
+        }
+    }
+
+    @Test
+    void recoverPendingMessages() {
+        FlakyExecutions executions = new FlakyExecutions();
+        File directory = new File(journalDirectory, "recover");
+        PublishJournal journal = new PublishJournal(executions, "journal", directory, 1024 * 1024);
+        for (int i = 0; i < 10; i++)
+            assertTrue(journal.append(new byte[]{(byte) i}, 0, 1));
+
+        PublishJournal recovered = new PublishJournal(executions, "journal", directory, 1024 * 1024);
+        assertEquals(10, recovered.getPendingMessages());
+    }
+
+    @Test
+    void recoverOverTornRecord() throws Exception {
+        FlakyExecutions executions = new FlakyExecutions();
+        File directory = new File(journalDirectory, "torn");
+        PublishJournal journal = new PublishJournal(executions, "journal", directory, 1024 * 1024);
+        for (int i = 0; i < 2; i++)
+            assertTrue(journal.append(new byte[]{(byte) i}, 0, 1));
+        // A crash after the body of the third record, before its length: the bytes past the first one read as a record
+        try (RandomAccessFile file = new RandomAccessFile(new File(directory, String.format("%019d", 0) + ".journal"), "rw")) {
+            file.seek(8 + 2 * 5 + 4);
+            file.write(new byte[]{9, 0, 0, 0, 3, 7, 7, 7});
+        }
+
+        PublishJournal recovered = new PublishJournal(executions, "journal", directory, 1024 * 1024);
+        assertEquals(2, recovered.getPendingMessages());
+        assertTrue(recovered.append(new byte[]{2}, 0, 1));
+        assertEquals(3, new PublishJournal(executions, "journal", directory, 1024 * 1024).getPendingMessages());
+    }
+
+    @Test
+    void rejectOverDiskBound() {
+        PublishJournal journal = new PublishJournal(new FlakyExecutions(), "journal", new File(journalDirectory, "bound"), 64);
+        assertTrue(journal.append(new byte[40], 0, 40));
+        assertFalse(journal.append(new byte[40], 0, 40));
+        // Publishing directly would overtake the waiting message
+        assertThrows(ChannelException.class, () -> journal.publish(() -> 1, () -> {
+            ByteArrayBuffer buffer = new ByteArrayBuffer(40);
+            buffer.write(new byte[40]);
+            return buffer;
+        }));
+    }
+
+    private static class FlakyExecutions implements JedisExecutions {
+
+        private final List<byte[]> published = new CopyOnWriteArrayList<>();
+        private volatile boolean down;
+
+        @Override
+        public long pub(String channel, String message) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public long pubBinary(byte[] channel, byte[] message) {
+            if (down)
+                throw new ChannelException("Connection refused");
+            published.add(message);
+            return 1;
+        }
+
+        @Override
+        public void sub(JedisPubSub pubSub, String... channels) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void subBinary(BinaryJedisPubSub pubSub, byte[]... channels) {
+            throw new UnsupportedOperationException();
+        }
+
+    }
+
+}
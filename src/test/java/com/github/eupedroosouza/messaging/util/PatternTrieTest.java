@@ -0,0 +1,64 @@
+/*
+ * Copyright (c) 2024 Pedro Souza
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package com.github.eupedroosouza.messaging.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PatternTrieTest {
+
+    @Test
+    void matchGlobs() {
+        assertTrue(PatternUtil.matches("orders:*", "orders:eu:1"));
+        assertTrue(PatternUtil.matches("orders:?u:*", "orders:eu:1"));
+        assertTrue(PatternUtil.matches("orders:[ae]u:*", "orders:eu:1"));
+        assertTrue(PatternUtil.matches("orders:[^a]u:[0-9]", "orders:eu:1"));
+        assertTrue(PatternUtil.matches("orders\\*", "orders*"));
+        assertFalse(PatternUtil.matches("orders\\*", "orders:1"));
+        assertFalse(PatternUtil.matches("orders:*:2", "orders:eu:1"));
+        assertFalse(PatternUtil.matches("orders:[a-d]u:*", "orders:eu:1"));
+    }
+
+    @Test
+    void routeChannels() {
+        PatternTrie<String> trie = new PatternTrie<>();
+        trie.add("orders:*", "all");
+        trie.add("orders:eu:*", "eu");
+        trie.add("orders:*:42", "42");
+        trie.add("orders:[ae]u:?", "class");
+        trie.add("payments:*", "payments");
+
+        assertEquals(Arrays.asList("all", "eu", "42"), trie.match("orders:eu:42"));
+        assertEquals(Arrays.asList("all", "eu", "class"), trie.match("orders:eu:7"));
+        assertEquals(Collections.singletonList("all"), trie.match("orders:us:7"));
+        assertEquals(Collections.emptyList(), trie.match("users:1"));
+
+        assertTrue(trie.remove("orders:eu:*", "eu"));
+        assertEquals(Arrays.asList("all", "42"), trie.match("orders:eu:42"));
+    }
+
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright (c) 2024 Pedro Souza
+ *
+ *  Permission is hereby granted, free of charge, to any person obtaining a copy
+ *  of this software and associated documentation files (the "Software"), to deal
+ *  in the Software without restriction, including without limitation the rights
+ *  to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ *  copies of the Software, and to permit persons to whom the Software is
+ *  furnished to do so, subject to the following conditions:
+ *
+ *  The above copyright notice and this permission notice shall be included in
+ *  all copies or substantial portions of the Software.
+ *
+ *  THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ *  IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ *  FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ *  AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ *  LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ *  OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ *  THE SOFTWARE.
+ */
+
+package com.github.eupedroosouza.messaging.util;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TinyLfuCacheTest {
+
+    @Test
+    void keepFrequentEntries() {
+        TinyLfuCache<Integer, String> cache = new TinyLfuCache<>(100, 0);
+        for (int i = 0; i < 100; i++)
+            cache.put(i, "hot-" + i);
+        for (int round = 0; round < 5; round++) {
+            for (int i = 0; i < 100; i++)
+                cache.get(i);
+        }
+        // A scan of keys seen once must not flush the popular ones
+        for (int i = 1000; i < 2000; i++)
+            cache.put(i, "cold-" + i);
+        int hot = 0;
+        for (int i = 0; i < 100; i++) {
+            if (cache.get(i) != null)
+                hot++;
+        }
+        assertTrue(hot >= 90, "Only " + hot + " popular entries survived");
+        assertTrue(cache.size() <= 100);
+    }
+
+    @Test
+    void expireEntries() throws Exception {
+        TinyLfuCache<String, String> cache = new TinyLfuCache<>(10, 20);
+        cache.put("key", "value");
+        assertEquals("value", cache.get("key"));
+        Thread.sleep(40);
+        assertNull(cache.get("key"));
+    }
+
+}